@@ -8,13 +8,24 @@ package com.frank.svm;
 import java.util.Collection;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import libsvm.svm;
 import libsvm.svm_model;
 import libsvm.svm_node;
 import libsvm.svm_parameter;
 import libsvm.svm_problem;
+import libsvm.svm_progress_interface;
+import libsvm.svm_train_control;
 
+import com.frank.svm.approx.NystromModel;
+import com.frank.svm.approx.NystromTrainer;
+import com.frank.svm.approx.Predictor;
 import com.frank.svm.config.AbstractParameter;
 import com.frank.svm.config.ParameterCSVC;
 
@@ -29,10 +40,69 @@ import com.frank.svm.config.ParameterCSVC;
  */
 public class SVM
 {
+	/**
+	 * The asynchronous training, whose cancellation stops the solver.
+	 * 
+	 * @param <V>
+	 *            the type of the training result
+	 */
+	private static class TrainingTask<V> extends FutureTask<V>
+	{
+		private final svm_train_control		control;
+		private final TrainingListener<V>	listener;
+
+		TrainingTask(Callable<V> callable, svm_train_control control,
+				TrainingListener<V> listener)
+		{
+			super(callable);
+			this.control = control;
+			this.listener = listener;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning)
+		{
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			if (cancelled)
+				control.cancel();
+			return cancelled;
+		}
+
+		@Override
+		protected void done()
+		{
+			if (listener == null)
+				return;
+			if (isCancelled())
+			{
+				listener.failed(new CancellationException());
+				return;
+			}
+			try
+			{
+				listener.completed(get());
+			}
+			catch (ExecutionException e)
+			{
+				listener.failed(e.getCause());
+			}
+			catch (InterruptedException e)
+			{
+				// never happens, the task is done
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
 	/**
 	 * The SVM parameter.
 	 */
 	protected AbstractParameter	param;
+	/**
+	 * The flag for whether the classification is predicted through the
+	 * decision DAG (default <tt>false</tt>).
+	 */
+	protected boolean			dagPrediction;
 
 	/**
 	 * Construct a default <tt>SVM</tt>, a C-SVC inside.
@@ -63,12 +133,100 @@ public class SVM
 	 * @return the SVM model
 	 */
 	public svm_model train(Collection<Sample> samples)
+	{
+		return train(samples, null);
+	}
+
+	/**
+	 * Training a SVM model according the specified sample collection/training
+	 * set under the specified control.
+	 * <p>
+	 * The solver checks the control every few iterations. Once it has been
+	 * cancelled or one of its budgets is exhausted, the training either
+	 * returns the model of the solution found so far, whose
+	 * {@linkplain svm_model#metrics metrics} tell that it has not converged,
+	 * or throws a {@linkplain java.util.concurrent.CancellationException},
+	 * according to the policy of the control.
+	 * </p>
+	 * 
+	 * @param samples
+	 *            the sample collection
+	 * @param control
+	 *            the training control, <code>null</code> for an uncontrolled
+	 *            training
+	 * @return the SVM model
+	 * @throws java.util.concurrent.CancellationException
+	 *             if the training has been stopped under the
+	 *             {@linkplain svm_train_control#ABORT} policy
+	 */
+	public svm_model train(Collection<Sample> samples,
+			svm_train_control control)
 	{
 		svm_problem prob = toProblem(samples);
 		svm_parameter param = this.param.getParameter();
+		param.control = control;
 		return svm.svm_train(prob, param);
 	}
 
+	/**
+	 * Training a SVM model according the specified training set, with its
+	 * probability estimates fitted on the specified calibration set.
+	 * <p>
+	 * Instead of retraining internal cross-validation models, the probability
+	 * information is fitted on the decision values of the trained model over
+	 * the calibration set, so that it costs a single training and a single
+	 * scoring pass whether or not the probability estimates are turned on in
+	 * the parameter. The calibration set should not overlap the training set.
+	 * One-class SVM does not support probability estimates.
+	 * </p>
+	 * 
+	 * @param trainingSet
+	 *            the training set
+	 * @param calibrationSet
+	 *            the calibration set
+	 * @return the SVM model supporting probability estimates
+	 */
+	public svm_model trainCalibrated(Collection<Sample> trainingSet,
+			Collection<Sample> calibrationSet)
+	{
+		svm_parameter param = this.param.getParameter();
+		if (param.svm_type == svm_parameter.ONE_CLASS)
+			throw new UnsupportedOperationException(
+					"One-class SVM do not support probability estimates.");
+		if (calibrationSet.isEmpty())
+			throw new IllegalArgumentException(
+					"The calibration set cannot be empty.");
+		param.probability = 0;
+		svm_model model = svm.svm_train(toProblem(trainingSet), param);
+		svm.svm_calibrate_probability(model, toProblem(calibrationSet));
+		return model;
+	}
+
+	/**
+	 * Training a low-rank C-SVC model according the specified sample
+	 * collection/training set with the Nystr&ouml;m feature map of the
+	 * specified amount of landmarks.
+	 * <p>
+	 * The training maps the samples through the kernel values with the
+	 * landmarks and solves linear problems in the mapped space, so that it
+	 * scales to training sets far beyond the reach of the kernel solver, at
+	 * the price of a little accuracy. The result is predicted through
+	 * {@linkplain #predict(Predictor, Sample)}. See
+	 * {@linkplain NystromTrainer} for the settings of the solver.
+	 * </p>
+	 * 
+	 * @param samples
+	 *            the sample collection
+	 * @param landmarks
+	 *            the amount of landmarks
+	 * @return the low-rank model
+	 */
+	public NystromModel trainNystrom(Collection<Sample> samples, int landmarks)
+	{
+		return new NystromTrainer(landmarks).train(toProblem(samples),
+				param.getParameter());
+	}
+
 	/**
 	 * Predict the result of the specified sample according to the specified SVM
 	 * model.
@@ -81,7 +239,22 @@ public class SVM
 	 */
 	public double predict(svm_model model, Sample prediction)
 	{
-		return svm.svm_predict(model, prediction.x());
+		return predict(model, prediction.x());
+	}
+
+	/**
+	 * Predict the result of the specified sample according to the specified
+	 * predictor, e.g. an approximate model.
+	 * 
+	 * @param predictor
+	 *            the predictor
+	 * @param prediction
+	 *            the sample to predict
+	 * @return the result of prediction
+	 */
+	public double predict(Predictor predictor, Sample prediction)
+	{
+		return predictor.predict(prediction.x());
 	}
 
 	/**
@@ -104,11 +277,11 @@ public class SVM
 		Double sigma = null;
 		if (doProbabilityEstimates)
 		{
-			if (param.isUseProbabilityEstimates())
+			if (svm.svm_check_probability_model(model) == 1)
 			{
 				Vector<Double> prediction = new Vector<Double>(
 						predictionSet.size());
-				int svm_type = param.getSvmType();
+				int svm_type = svm.svm_get_svm_type(model);
 				if (svm_type == svm_parameter.EPSILON_SVR
 						|| svm_type == svm_parameter.NU_SVR)
 					sigma = svm.svm_get_svr_probability(model);
@@ -141,7 +314,7 @@ public class SVM
 		}
 		Vector<Double> result = new Vector<Double>();
 		for (Sample s : predictionSet)
-			result.add(svm.svm_predict(model, s.x()));
+			result.add(predict(model, s.x()));
 		if (sigma == null)
 			// classification or regression result without probability estimates
 			return new Prediction<Vector<Double>, ProbabilityEstimates>(result,
@@ -171,10 +344,10 @@ public class SVM
 		Double sigma = null;
 		if (doProbabilityEstimates)
 		{
-			if (param.isUseProbabilityEstimates())
+			if (svm.svm_check_probability_model(model) == 1)
 			{
 				double[] prediction = new double[predictionArray.length];
-				int svm_type = param.getSvmType();
+				int svm_type = svm.svm_get_svm_type(model);
 				if (svm_type == svm_parameter.EPSILON_SVR
 						|| svm_type == svm_parameter.NU_SVR)
 					sigma = svm.svm_get_svr_probability(model);
@@ -207,7 +380,7 @@ public class SVM
 		}
 		double[] prediction = new double[predictionArray.length];
 		for (int i = 0; i < predictionArray.length; i++)
-			prediction[i] = svm.svm_predict(model, predictionArray[i].x());
+			prediction[i] = predict(model, predictionArray[i].x());
 		if (sigma == null)
 			// classification or regression result without probability estimates
 			return new Prediction<double[], ProbabilityEstimates>(prediction,
@@ -260,6 +433,53 @@ public class SVM
 				doProbabilityEstimates);
 	}
 
+	/**
+	 * Predict the result of the specified feature vector according to the
+	 * specified SVM model and the prediction mode.
+	 * 
+	 * @param model
+	 *            the SVM model
+	 * @param x
+	 *            the feature vector
+	 * @return the result of prediction
+	 */
+	protected double predict(svm_model model, svm_node[] x)
+	{
+		if (dagPrediction)
+			return svm.svm_predict_dag(model, x);
+		return svm.svm_predict(model, x);
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the classification is predicted through the
+	 * decision DAG, otherwise <tt>false</tt>.
+	 * 
+	 * @return <tt>true</tt> if the decision DAG is used
+	 */
+	public boolean isDagPrediction()
+	{
+		return dagPrediction;
+	}
+
+	/**
+	 * Set whether the classification is predicted through the decision DAG
+	 * (default <tt>false</tt>).
+	 * <p>
+	 * The decision DAG eliminates one class per pairwise test, so that only
+	 * k-1 of the k(k-1)/2 pairwise decision functions of a k-class model are
+	 * evaluated, where the default one-against-one voting evaluates all of
+	 * them. The two rules may disagree on samples without a clear winner. It
+	 * does not apply to regression, one-class SVM and probability estimates.
+	 * </p>
+	 * 
+	 * @param dagPrediction
+	 *            <tt>true</tt> for using the decision DAG
+	 */
+	public void setDagPrediction(boolean dagPrediction)
+	{
+		this.dagPrediction = dagPrediction;
+	}
+
 	/**
 	 * Transform the sample collection/training set to a
 	 * {@linkplain svm_problem}.
@@ -285,12 +505,164 @@ public class SVM
 	}
 
 	public Validation crossValidate(Collection<Sample> samples, int folds)
+	{
+		return crossValidate(samples, folds, null);
+	}
+
+	/**
+	 * Cross validate the specified sample collection under the specified
+	 * control.
+	 * <p>
+	 * The control covers the trainings of all the folds. Under the
+	 * {@linkplain svm_train_control#RETURN_PARTIAL} policy a stopped cross
+	 * validation still completes, with the folds trained after the stop left
+	 * at their initial solution; check
+	 * {@linkplain svm_train_control#stop_reason()} before trusting the result.
+	 * </p>
+	 * 
+	 * @param samples
+	 *            the sample collection
+	 * @param folds
+	 *            the amount of folds, greater than 1
+	 * @param control
+	 *            the training control, <code>null</code> for an uncontrolled
+	 *            cross validation
+	 * @return the validation result
+	 * @throws java.util.concurrent.CancellationException
+	 *             if the training has been stopped under the
+	 *             {@linkplain svm_train_control#ABORT} policy
+	 */
+	public Validation crossValidate(Collection<Sample> samples, int folds,
+			svm_train_control control)
 	{
 		if (folds < 2)
 			throw new IllegalArgumentException(String.format(
 					"The fold amount(%d) must be greater than 1.", folds));
 		svm_parameter param = this.param.getParameter();
-		svm_problem prob = toProblem(samples);
+		param.control = control;
+		return crossValidate(toProblem(samples), param, folds);
+	}
+
+	/**
+	 * Cross validate the specified sample collection asynchronously on the
+	 * specified executor.
+	 * <p>
+	 * The samples and the parameter are captured when this method is called.
+	 * Cancelling the returned future stops the solver at its next check.
+	 * </p>
+	 * 
+	 * @param samples
+	 *            the sample collection
+	 * @param folds
+	 *            the amount of folds, greater than 1
+	 * @param executor
+	 *            the executor running the cross validation
+	 * @param listener
+	 *            the receiver of the progress and the result,
+	 *            <code>null</code> for none
+	 * @return the future validation result
+	 */
+	public Future<Validation> crossValidateAsync(Collection<Sample> samples,
+			final int folds, Executor executor,
+			TrainingListener<Validation> listener)
+	{
+		if (folds < 2)
+			throw new IllegalArgumentException(String.format(
+					"The fold amount(%d) must be greater than 1.", folds));
+		final svm_problem prob = toProblem(samples);
+		final svm_parameter param = this.param.getParameter();
+		param.control = control(listener);
+		TrainingTask<Validation> task = new TrainingTask<Validation>(
+				new Callable<Validation>()
+				{
+					@Override
+					public Validation call()
+					{
+						return crossValidate(prob, param, folds);
+					}
+				}, param.control, listener);
+		executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * Training a SVM model according the specified sample collection/training
+	 * set asynchronously on the specified executor.
+	 * <p>
+	 * The samples and the parameter are captured when this method is called.
+	 * Cancelling the returned future stops the solver at its next check.
+	 * </p>
+	 * 
+	 * @param samples
+	 *            the sample collection
+	 * @param executor
+	 *            the executor running the training
+	 * @param listener
+	 *            the receiver of the progress and the result,
+	 *            <code>null</code> for none
+	 * @return the future SVM model
+	 */
+	public Future<svm_model> trainAsync(Collection<Sample> samples,
+			Executor executor, TrainingListener<svm_model> listener)
+	{
+		final svm_problem prob = toProblem(samples);
+		final svm_parameter param = this.param.getParameter();
+		param.control = control(listener);
+		TrainingTask<svm_model> task = new TrainingTask<svm_model>(
+				new Callable<svm_model>()
+				{
+					@Override
+					public svm_model call()
+					{
+						return svm.svm_train(prob, param);
+					}
+				}, param.control, listener);
+		executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * Create the control of an asynchronous training, which aborts on
+	 * cancellation and forwards the progress of the solver to the specified
+	 * listener.
+	 * 
+	 * @param listener
+	 *            the listener, <code>null</code> for none
+	 * @return the training control
+	 */
+	private static svm_train_control control(
+			final TrainingListener<?> listener)
+	{
+		svm_train_control control = new svm_train_control();
+		control.policy = svm_train_control.ABORT;
+		if (listener != null)
+			control.progress = new svm_progress_interface()
+			{
+				@Override
+				public void progress(int iter, double gap, int active_size,
+						double cache_hit_rate)
+				{
+					listener.progress(new TrainingProgress(iter, gap,
+							active_size, cache_hit_rate));
+				}
+			};
+		return control;
+	}
+
+	/**
+	 * Cross validate the specified problem.
+	 * 
+	 * @param prob
+	 *            the SVM problem
+	 * @param param
+	 *            the LIBSVM parameter
+	 * @param folds
+	 *            the amount of folds
+	 * @return the validation result
+	 */
+	private static Validation crossValidate(svm_problem prob,
+			svm_parameter param, int folds)
+	{
 		int i;
 		int total_correct = 0;
 		double total_error = 0;
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. TrainingListener.java is PROPRIETARY/CONFIDENTIAL built in 2013.
+ * Use is subject to license terms.
+ */
+package com.frank.svm;
+
+/**
+ * The receiver of the events of an asynchronous training.
+ * <p>
+ * All the methods are called from the thread running the training. They
+ * should return quickly, since the solver waits for them.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ * @param <V>
+ *            the type of the training result
+ */
+public interface TrainingListener<V>
+{
+	/**
+	 * Receive the progress of the solver.
+	 *
+	 * @param progress
+	 *            the progress
+	 */
+	void progress(TrainingProgress progress);
+
+	/**
+	 * Receive the result of the completed training.
+	 *
+	 * @param result
+	 *            the training result
+	 */
+	void completed(V result);
+
+	/**
+	 * Receive the cause of the failed training. A cancelled training fails
+	 * with a {@linkplain java.util.concurrent.CancellationException}.
+	 *
+	 * @param cause
+	 *            the cause of the failure
+	 */
+	void failed(Throwable cause);
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. TrainingProgress.java is PROPRIETARY/CONFIDENTIAL built in 2013.
+ * Use is subject to license terms.
+ */
+package com.frank.svm;
+
+/**
+ * The progress of the solver during an asynchronous training.
+ * <p>
+ * The iteration counter restarts with every optimization problem of the
+ * training, e.g. with each pairwise problem of a multi-class model or each
+ * fold of a cross validation.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class TrainingProgress
+{
+	/**
+	 * The iterations of the current optimization problem.
+	 */
+	protected int		iteration;
+	/**
+	 * The maximal violation of the optimality conditions, the training
+	 * converges when it falls below the tolerance.
+	 */
+	protected double	gap;
+	/**
+	 * The size of the active set after shrinking.
+	 */
+	protected int		activeSize;
+	/**
+	 * The fraction of the kernel columns served from the kernel cache.
+	 */
+	protected double	cacheHitRate;
+
+	/**
+	 * Construct an instance of <tt>TrainingProgress</tt>.
+	 *
+	 * @param iteration
+	 *            the iterations of the current optimization problem
+	 * @param gap
+	 *            the maximal violation of the optimality conditions
+	 * @param activeSize
+	 *            the size of the active set
+	 * @param cacheHitRate
+	 *            the kernel cache hit rate
+	 */
+	public TrainingProgress(int iteration, double gap, int activeSize,
+			double cacheHitRate)
+	{
+		this.iteration = iteration;
+		this.gap = gap;
+		this.activeSize = activeSize;
+		this.cacheHitRate = cacheHitRate;
+	}
+
+	/**
+	 * Returns the iterations of the current optimization problem.
+	 *
+	 * @return the iterations
+	 */
+	public int getIteration()
+	{
+		return iteration;
+	}
+
+	/**
+	 * Returns the maximal violation of the optimality conditions.
+	 *
+	 * @return the gap
+	 */
+	public double getGap()
+	{
+		return gap;
+	}
+
+	/**
+	 * Returns the size of the active set after shrinking.
+	 *
+	 * @return the active set size
+	 */
+	public int getActiveSize()
+	{
+		return activeSize;
+	}
+
+	/**
+	 * Returns the fraction of the kernel columns served from the kernel cache.
+	 *
+	 * @return the cache hit rate
+	 */
+	public double getCacheHitRate()
+	{
+		return cacheHitRate;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString()
+	{
+		return String.format(
+				"iteration = %d, gap = %g, active size = %d, cache hit = %g%%",
+				iteration, gap, activeSize, cacheHitRate * 100.0);
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. ApproximationReport.java is PROPRIETARY/CONFIDENTIAL built in
+ * 2013. Use is subject to license terms.
+ */
+package com.frank.svm.approx;
+
+/**
+ * The report of a model approximation.
+ * <p>
+ * The errors are the absolute differences between the decision values of the
+ * approximate model and the ones of the original model over a validation set,
+ * taken over all the decision functions of the model.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class ApproximationReport
+{
+	/**
+	 * The size of the original model, e.g. its amount of support vectors.
+	 */
+	protected int		originalSize;
+	/**
+	 * The size of the approximate model, in the same unit as the original
+	 * size.
+	 */
+	protected int		approximateSize;
+	/**
+	 * The maximal absolute decision value error.
+	 */
+	protected double	maxError;
+	/**
+	 * The mean absolute decision value error.
+	 */
+	protected double	meanError;
+	/**
+	 * The tolerance of the maximal error.
+	 */
+	protected double	tolerance;
+	/**
+	 * The amount of validation samples.
+	 */
+	protected int		validationSize;
+
+	/**
+	 * Construct an instance of <tt>ApproximationReport</tt>.
+	 * 
+	 * @param originalSize
+	 *            the size of the original model
+	 * @param approximateSize
+	 *            the size of the approximate model
+	 * @param maxError
+	 *            the maximal absolute decision value error
+	 * @param meanError
+	 *            the mean absolute decision value error
+	 * @param tolerance
+	 *            the tolerance of the maximal error
+	 * @param validationSize
+	 *            the amount of validation samples
+	 */
+	public ApproximationReport(int originalSize, int approximateSize,
+			double maxError, double meanError, double tolerance,
+			int validationSize)
+	{
+		this.originalSize = originalSize;
+		this.approximateSize = approximateSize;
+		this.maxError = maxError;
+		this.meanError = meanError;
+		this.tolerance = tolerance;
+		this.validationSize = validationSize;
+	}
+
+	/**
+	 * Returns the size of the original model.
+	 * 
+	 * @return the original size
+	 */
+	public int getOriginalSize()
+	{
+		return originalSize;
+	}
+
+	/**
+	 * Returns the size of the approximate model.
+	 * 
+	 * @return the approximate size
+	 */
+	public int getApproximateSize()
+	{
+		return approximateSize;
+	}
+
+	/**
+	 * Returns the ratio of the approximate size to the original size.
+	 * 
+	 * @return the size ratio
+	 */
+	public double getRatio()
+	{
+		return originalSize == 0 ? 1 : approximateSize / (double) originalSize;
+	}
+
+	/**
+	 * Returns the maximal absolute decision value error.
+	 * 
+	 * @return the maximal error
+	 */
+	public double getMaxError()
+	{
+		return maxError;
+	}
+
+	/**
+	 * Returns the mean absolute decision value error.
+	 * 
+	 * @return the mean error
+	 */
+	public double getMeanError()
+	{
+		return meanError;
+	}
+
+	/**
+	 * Returns the tolerance of the maximal error.
+	 * 
+	 * @return the tolerance
+	 */
+	public double getTolerance()
+	{
+		return tolerance;
+	}
+
+	/**
+	 * Returns the amount of validation samples.
+	 * 
+	 * @return the validation size
+	 */
+	public int getValidationSize()
+	{
+		return validationSize;
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the approximation is smaller than the original
+	 * model, otherwise <tt>false</tt>, e.g. when no approximation met the
+	 * tolerance and the original model was kept.
+	 * 
+	 * @return <tt>true</tt> if the model has been approximated
+	 */
+	public boolean isApproximated()
+	{
+		return approximateSize < originalSize;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString()
+	{
+		return String.format(
+				"size %d -> %d (%.1f%%), max error = %g, mean error = %g "
+						+ "(tolerance %g, %d validation samples)",
+				originalSize, approximateSize, getRatio() * 100.0, maxError,
+				meanError, tolerance, validationSize);
+	}
+}
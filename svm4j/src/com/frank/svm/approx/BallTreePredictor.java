@@ -0,0 +1,529 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. BallTreePredictor.java is PROPRIETARY/CONFIDENTIAL built in 2013.
+ * Use is subject to license terms.
+ */
+package com.frank.svm.approx;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+
+/**
+ * The approximate predictor of an RBF model over a ball tree of its support
+ * vectors.
+ * <p>
+ * The support vectors far from a sample contribute almost nothing to its
+ * decision values, since the kernel value decays with the squared distance.
+ * The predictor groups the support vectors into a binary tree of balls, each
+ * one with a center, a radius and the sum of the absolute coefficients of
+ * its members over all the decision functions. For a ball at the distance d
+ * of the sample, the kernel value of any member is at most exp(-&gamma;
+ * &times; max(0, d - radius)<sup>2</sup>), so that the contribution of the
+ * whole ball to any decision value is bounded. The tree is walked from the
+ * nearest balls, and a ball is skipped as long as the sum of the bounds of
+ * the skipped balls stays within the tolerance.
+ * </p>
+ * <p>
+ * Every decision value is therefore within the tolerance of the exact one,
+ * and a tolerance of 0 predicts exactly. The kernel values are always
+ * evaluated with the exact {@linkplain Math#exp(double)}, whatever the fast
+ * math mode of the model, so that for a fast math model the decision values
+ * of <code>svm.svm_predict_values</code> may further differ by the error of
+ * its approximation. The saving grows with &gamma; and
+ * the amount of support vectors, it vanishes for a small &gamma; where every
+ * support vector matters. The predictor is immutable once built and can be
+ * shared among threads.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class BallTreePredictor implements Predictor
+{
+	/**
+	 * The maximal amount of support vectors of a leaf ball.
+	 */
+	private static final int			LEAF_SIZE	= 16;
+	/**
+	 * The support vector machine type.
+	 */
+	protected int						svmType;
+	/**
+	 * The &gamma; of the RBF kernel.
+	 */
+	protected double					gamma;
+	/**
+	 * The amount of classes.
+	 */
+	protected int						nrClass;
+	/**
+	 * The amount of support vectors.
+	 */
+	protected int						l;
+	/**
+	 * The class labels, <code>null</code> for regression and one-class SVM.
+	 */
+	protected int[]						label;
+	/**
+	 * The amount of support vectors of each class.
+	 */
+	protected int[]						nSV;
+	/**
+	 * The coefficients of the model.
+	 */
+	protected double[][]				svCoef;
+	/**
+	 * The offsets of the decision functions.
+	 */
+	protected double[]					rho;
+	/**
+	 * The tolerance of each decision value.
+	 */
+	protected double					tolerance;
+	/**
+	 * The support vectors, in the compressed sparse row layout.
+	 */
+	private int[]						start, index;
+	private double[]					value, squares;
+	/**
+	 * The support vectors in the order of the leaves.
+	 */
+	private int[]						order;
+	/**
+	 * The balls: the range in {@link #order}, the children (-1 for a leaf),
+	 * the radius and the coefficient weight, the center as a sparse vector
+	 * and its squared norm.
+	 */
+	private int[]						from, to, left, right;
+	private double[]					radius, weight, centerSquare;
+	private int[][]						centerIndex;
+	private double[][]					centerValue;
+	private int							nodes;
+	/**
+	 * The largest feature index of the support vectors plus 1.
+	 */
+	private int							dim;
+	private final AtomicLong			predictions	= new AtomicLong();
+	private final AtomicLong			evaluations	= new AtomicLong();
+	private final ThreadLocal<Scratch>	scratch		= new ThreadLocal<Scratch>();
+
+	/**
+	 * Construct an instance of <tt>BallTreePredictor</tt>.
+	 *
+	 * @param model
+	 *            the trained RBF model
+	 * @param tolerance
+	 *            the tolerance of each decision value, nonnegative
+	 */
+	public BallTreePredictor(svm_model model, double tolerance)
+	{
+		if (model == null)
+			throw new NullPointerException("The model cannot be null.");
+		if (model.param.kernel_type != svm_parameter.RBF)
+			throw new IllegalArgumentException(
+					"Only the RBF kernel models can be indexed.");
+		if (!(tolerance >= 0))
+			throw new IllegalArgumentException(String.format(
+					"The tolerance %g must be nonnegative.", tolerance));
+		this.tolerance = tolerance;
+		svmType = model.param.svm_type;
+		gamma = model.param.gamma;
+		nrClass = model.nr_class;
+		l = model.l;
+		label = model.label == null ? null : model.label.clone();
+		nSV = model.nSV == null ? null : model.nSV.clone();
+		svCoef = new double[model.sv_coef.length][];
+		for (int r = 0; r < svCoef.length; r++)
+			svCoef[r] = model.sv_coef[r].clone();
+		rho = model.rho.clone();
+		// the support vectors in the compressed sparse row layout
+		start = new int[l + 1];
+		for (int i = 0; i < l; i++)
+			start[i + 1] = start[i] + model.SV[i].length;
+		index = new int[start[l]];
+		value = new double[start[l]];
+		squares = new double[l];
+		for (int i = 0; i < l; i++)
+			for (int p = start[i]; p < start[i + 1]; p++)
+			{
+				svm_node node = model.SV[i][p - start[i]];
+				index[p] = node.index;
+				value[p] = node.value;
+				squares[i] += node.value * node.value;
+				dim = Math.max(dim, node.index + 1);
+			}
+		build();
+	}
+
+	/**
+	 * Build the ball tree.
+	 */
+	private void build()
+	{
+		// each split leaves two nonempty balls, so there are less than 2l
+		int capacity = Math.max(1, 2 * l);
+		from = new int[capacity];
+		to = new int[capacity];
+		left = new int[capacity];
+		right = new int[capacity];
+		radius = new double[capacity];
+		weight = new double[capacity];
+		centerSquare = new double[capacity];
+		centerIndex = new int[capacity][];
+		centerValue = new double[capacity][];
+		order = new int[l];
+		for (int i = 0; i < l; i++)
+			order[i] = i;
+		double[] coefWeight = new double[l];
+		for (double[] row : svCoef)
+			for (int i = 0; i < l; i++)
+				coefWeight[i] += Math.abs(row[i]);
+		double[] dense = new double[dim];
+		double[] other = new double[dim];
+		nodes = 0;
+		// the pending balls, each one split after its creation
+		int[] stack = new int[capacity];
+		int top = 0;
+		stack[top++] = ball(0, l, coefWeight, dense);
+		while (top > 0)
+		{
+			int b = stack[--top];
+			if (to[b] - from[b] <= LEAF_SIZE)
+				continue;
+			int mid = split(b, dense, other);
+			if (mid == from[b] || mid == to[b])
+				continue; // identical vectors, kept as a leaf
+			left[b] = ball(from[b], mid, coefWeight, dense);
+			right[b] = ball(mid, to[b], coefWeight, dense);
+			stack[top++] = left[b];
+			stack[top++] = right[b];
+		}
+	}
+
+	/**
+	 * Create the ball of the support vectors order[lo..hi).
+	 *
+	 * @return the ball
+	 */
+	private int ball(int lo, int hi, double[] coefWeight, double[] dense)
+	{
+		int b = nodes++;
+		from[b] = lo;
+		to[b] = hi;
+		left[b] = right[b] = -1;
+		// the center is the mean of the members
+		Arrays.fill(dense, 0);
+		for (int s = lo; s < hi; s++)
+		{
+			int i = order[s];
+			weight[b] += coefWeight[i];
+			for (int p = start[i]; p < start[i + 1]; p++)
+				dense[index[p]] += value[p];
+		}
+		int nnz = 0;
+		for (int f = 0; f < dim; f++)
+			if (dense[f] != 0)
+				nnz++;
+		centerIndex[b] = new int[nnz];
+		centerValue[b] = new double[nnz];
+		double n = hi - lo;
+		for (int f = 0, t = 0; f < dim; f++)
+			if (dense[f] != 0)
+			{
+				centerIndex[b][t] = f;
+				centerValue[b][t] = dense[f] / n;
+				centerSquare[b] += centerValue[b][t] * centerValue[b][t];
+				dense[f] /= n;
+				t++;
+			}
+		double r = 0;
+		for (int s = lo; s < hi; s++)
+			r = Math.max(r, distance(order[s], dense, centerSquare[b]));
+		radius[b] = Math.sqrt(r);
+		return b;
+	}
+
+	/**
+	 * Split the members of the specified ball between its two farthest
+	 * apart members, in place in {@link #order}. The dense vectors are
+	 * scratch space.
+	 *
+	 * @return the split position
+	 */
+	private int split(int b, double[] dense, double[] other)
+	{
+		int lo = from[b], hi = to[b];
+		// dense holds the center of b
+		Arrays.fill(dense, 0);
+		for (int t = 0; t < centerIndex[b].length; t++)
+			dense[centerIndex[b][t]] = centerValue[b][t];
+		int a = farthest(lo, hi, dense, centerSquare[b]);
+		scatter(a, dense);
+		int c = farthest(lo, hi, dense, squares[a]);
+		scatter(c, other);
+		int i = lo, j = hi - 1;
+		while (i <= j)
+		{
+			int v = order[i];
+			if (distance(v, dense, squares[a]) <= distance(v, other,
+					squares[c]))
+				i++;
+			else
+			{
+				order[i] = order[j];
+				order[j--] = v;
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * Returns the member of order[lo..hi) farthest from the scattered
+	 * point.
+	 */
+	private int farthest(int lo, int hi, double[] point, double pointSquare)
+	{
+		int best = order[lo];
+		double max = -1;
+		for (int s = lo; s < hi; s++)
+		{
+			double d = distance(order[s], point, pointSquare);
+			if (d > max)
+			{
+				max = d;
+				best = order[s];
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Scatter the specified support vector into the dense vector.
+	 */
+	private void scatter(int i, double[] dense)
+	{
+		Arrays.fill(dense, 0);
+		for (int p = start[i]; p < start[i + 1]; p++)
+			dense[index[p]] = value[p];
+	}
+
+	/**
+	 * Returns the squared distance of a support vector and a scattered
+	 * point.
+	 */
+	private double distance(int i, double[] dense, double denseSquare)
+	{
+		double dot = 0;
+		for (int p = start[i]; p < start[i + 1]; p++)
+			dot += value[p] * dense[index[p]];
+		return Math.max(0, squares[i] + denseSquare - 2 * dot);
+	}
+
+	/**
+	 * Returns the tolerance of each decision value.
+	 *
+	 * @return the tolerance
+	 */
+	public double getTolerance()
+	{
+		return tolerance;
+	}
+
+	/**
+	 * Returns the mean fraction of the support vectors whose kernel values
+	 * have been evaluated per prediction.
+	 *
+	 * @return the mean evaluated fraction, 0 before the first prediction
+	 */
+	public double getEvaluatedFraction()
+	{
+		long n = predictions.get();
+		return n == 0 || l == 0 ? 0 : evaluations.get() / (double) n / l;
+	}
+
+	/**
+	 * @see com.frank.svm.approx.Predictor#getDecisionCount()
+	 */
+	@Override
+	public int getDecisionCount()
+	{
+		return isClassification() ? nrClass * (nrClass - 1) / 2 : 1;
+	}
+
+	/**
+	 * @see com.frank.svm.approx.Predictor#predict(libsvm.svm_node[])
+	 */
+	@Override
+	public double predict(svm_node[] x)
+	{
+		return predictValues(x, scratch().dec);
+	}
+
+	/**
+	 * @see com.frank.svm.approx.Predictor#predictValues(libsvm.svm_node[],
+	 *      double[])
+	 */
+	@Override
+	public double predictValues(svm_node[] x, double[] decValues)
+	{
+		Scratch s = scratch();
+		double[] dense = s.dense;
+		double[] kvalue = s.kvalue;
+		double xx = 0;
+		for (svm_node node : x)
+		{
+			if (node.index >= 0 && node.index < dim)
+				dense[node.index] = node.value;
+			xx += node.value * node.value;
+		}
+		Arrays.fill(kvalue, 0);
+		int evaluated = 0;
+		double budget = tolerance;
+		int[] stack = s.stack;
+		int top = 0;
+		if (l > 0)
+			stack[top++] = 0;
+		while (top > 0)
+		{
+			int b = stack[--top];
+			double d = Math.sqrt(distanceToCenter(b, dense, xx))
+					- radius[b];
+			double bound = weight[b]
+					* (d > 0 ? Math.exp(-gamma * d * d) : 1.0);
+			if (bound <= budget)
+			{
+				budget -= bound;
+				continue;
+			}
+			if (left[b] < 0)
+			{
+				for (int t = from[b]; t < to[b]; t++)
+				{
+					int i = order[t];
+					double dot = 0;
+					for (int p = start[i]; p < start[i + 1]; p++)
+						dot += value[p] * dense[index[p]];
+					kvalue[i] = Math.exp(-gamma
+							* Math.max(0, xx + squares[i] - 2 * dot));
+				}
+				evaluated += to[b] - from[b];
+				continue;
+			}
+			// the nearer child is visited first
+			int near = left[b], far = right[b];
+			if (distanceToCenter(near, dense, xx) > distanceToCenter(far,
+					dense, xx))
+			{
+				near = right[b];
+				far = left[b];
+			}
+			stack[top++] = far;
+			stack[top++] = near;
+		}
+		for (svm_node node : x)
+			if (node.index >= 0 && node.index < dim)
+				dense[node.index] = 0;
+		predictions.incrementAndGet();
+		evaluations.addAndGet(evaluated);
+		if (!isClassification())
+		{
+			double sum = -rho[0];
+			for (int i = 0; i < l; i++)
+				sum += svCoef[0][i] * kvalue[i];
+			decValues[0] = sum;
+			if (svmType == svm_parameter.ONE_CLASS)
+				return sum > 0 ? 1 : -1;
+			return sum;
+		}
+		int[] vote = s.vote;
+		Arrays.fill(vote, 0);
+		int p = 0;
+		for (int i = 0, si = 0; i < nrClass; si += nSV[i++])
+			for (int j = i + 1, sj = si + nSV[i]; j < nrClass; sj += nSV[j++])
+			{
+				double sum = -rho[p];
+				double[] coef1 = svCoef[j - 1];
+				double[] coef2 = svCoef[i];
+				for (int k = si; k < si + nSV[i]; k++)
+					sum += coef1[k] * kvalue[k];
+				for (int k = sj; k < sj + nSV[j]; k++)
+					sum += coef2[k] * kvalue[k];
+				decValues[p] = sum;
+				if (sum > 0)
+					++vote[i];
+				else
+					++vote[j];
+				p++;
+			}
+		int max = 0;
+		for (int i = 1; i < nrClass; i++)
+			if (vote[i] > vote[max])
+				max = i;
+		return label[max];
+	}
+
+	/**
+	 * Returns the squared distance of the center of a ball and the scattered
+	 * sample.
+	 */
+	private double distanceToCenter(int b, double[] dense, double xx)
+	{
+		int[] ci = centerIndex[b];
+		double[] cv = centerValue[b];
+		double dot = 0;
+		for (int t = 0; t < ci.length; t++)
+			dot += cv[t] * dense[ci[t]];
+		return Math.max(0, xx + centerSquare[b] - 2 * dot);
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the model is a classification model.
+	 *
+	 * @return <tt>true</tt> for C-SVC and &nu;-SVC
+	 */
+	private boolean isClassification()
+	{
+		return svmType == svm_parameter.C_SVC || svmType == svm_parameter.NU_SVC;
+	}
+
+	/**
+	 * Returns the prediction scratch space of the calling thread.
+	 *
+	 * @return the scratch space
+	 */
+	private Scratch scratch()
+	{
+		Scratch s = scratch.get();
+		if (s == null)
+		{
+			s = new Scratch(dim, l, nodes, nrClass, getDecisionCount());
+			scratch.set(s);
+		}
+		return s;
+	}
+
+	/**
+	 * The prediction scratch space of a thread.
+	 */
+	private static final class Scratch
+	{
+		final double[]	dense;
+		final double[]	kvalue;
+		final int[]		stack;
+		final int[]		vote;
+		final double[]	dec;
+
+		Scratch(int dim, int l, int nodes, int nrClass, int decisions)
+		{
+			dense = new double[dim];
+			kvalue = new double[l];
+			stack = new int[nodes + 1];
+			vote = new int[nrClass];
+			dec = new double[decisions];
+		}
+	}
+}
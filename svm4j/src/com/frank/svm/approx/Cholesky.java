@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. Cholesky.java is PROPRIETARY/CONFIDENTIAL built in 2013. Use is
+ * subject to license terms.
+ */
+package com.frank.svm.approx;
+
+/**
+ * The Cholesky decomposition of the ridge regularized symmetric systems of
+ * the approximations.
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+final class Cholesky
+{
+	private Cholesky()
+	{
+	}
+
+	/**
+	 * Decompose A + lambda I = L L<sup>T</sup>.
+	 *
+	 * @param A
+	 *            the symmetric matrix, row-major, only its lower triangle is
+	 *            read, not modified
+	 * @param n
+	 *            the order of the matrix
+	 * @param lambda
+	 *            the ridge
+	 * @return the lower triangular factor L, row-major, <code>null</code> if
+	 *         the matrix is not positive definite
+	 */
+	static double[] decompose(double[] A, int n, double lambda)
+	{
+		double[] L = new double[n * n];
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j <= i; j++)
+			{
+				double sum = A[i * n + j] + (i == j ? lambda : 0);
+				for (int k = 0; k < j; k++)
+					sum -= L[i * n + k] * L[j * n + k];
+				if (i == j)
+				{
+					if (sum <= 0)
+						return null;
+					L[i * n + i] = Math.sqrt(sum);
+				}
+				else
+					L[i * n + j] = sum / L[j * n + j];
+			}
+		return L;
+	}
+
+	/**
+	 * Solve L L<sup>T</sup> x = b in place.
+	 *
+	 * @param L
+	 *            the lower triangular factor, row-major
+	 * @param n
+	 *            the order of the matrix
+	 * @param b
+	 *            the right-hand side, replaced by the solution
+	 */
+	static void solve(double[] L, int n, double[] b)
+	{
+		for (int i = 0; i < n; i++)
+		{
+			double sum = b[i];
+			for (int k = 0; k < i; k++)
+				sum -= L[i * n + k] * b[k];
+			b[i] = sum / L[i * n + i];
+		}
+		for (int i = n - 1; i >= 0; i--)
+		{
+			double sum = b[i];
+			for (int k = i + 1; k < n; k++)
+				sum -= L[k * n + i] * b[k];
+			b[i] = sum / L[i * n + i];
+		}
+	}
+}
@@ -0,0 +1,732 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. CompactModel.java is PROPRIETARY/CONFIDENTIAL built in 2013. Use
+ * is subject to license terms.
+ */
+package com.frank.svm.approx;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+
+/**
+ * The reduced precision representation of a trained model.
+ * <p>
+ * A {@linkplain svm_model} keeps every support vector value in an
+ * {@linkplain svm_node} object of its own and the coefficients as
+ * <tt>double</tt>, so that scoring a large model is bound by the memory
+ * bandwidth. The compact model packs the support vectors into flat arrays of
+ * feature indices and values, in either of two precisions:
+ * </p>
+ * <p>
+ * {@link #FLOAT32}: the values are stored as <tt>float</tt>.<br>
+ * {@link #INT8}: the values are quantized to a signed byte per value, with a
+ * scale and an offset per feature, i.e. value = offset + scale &times; q,
+ * which spreads the 256 levels over the range of the feature among the
+ * support vectors.
+ * </p>
+ * <p>
+ * In both precisions the coefficients are stored as <tt>float</tt>. The
+ * sample is scattered into a dense vector once per prediction, so that each
+ * kernel value is a gather over the features of one support vector. The
+ * probability information of the model is not kept. The kernels are
+ * evaluated in the fast math mode of the model, which is not saved, as in
+ * the LIBSVM model format. The decision values
+ * differ slightly from the ones of the original model, use
+ * {@linkplain ModelQuantizer} to check them against a tolerance.
+ * </p>
+ * <p>
+ * A compact model is immutable and can be shared among threads. It is saved
+ * in a binary format of its own by {@linkplain #save(String)}, or turned back
+ * into a {@linkplain svm_model} holding the reduced precision values by
+ * {@linkplain #toModel()}, to be saved in the LIBSVM model format.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class CompactModel implements Predictor
+{
+	/**
+	 * The single precision floating point values.
+	 */
+	public static final int				FLOAT32	= 0;
+	/**
+	 * The 8-bit quantized values with a scale and an offset per feature.
+	 */
+	public static final int				INT8	= 1;
+	/**
+	 * The magic number of the binary format, "SVMC".
+	 */
+	private static final int			MAGIC	= 0x53564d43;
+	/**
+	 * The version of the binary format.
+	 */
+	private static final int			VERSION	= 1;
+	/**
+	 * The precision of the support vector values.
+	 */
+	protected int						precision;
+	/**
+	 * The support vector machine type.
+	 */
+	protected int						svmType;
+	/**
+	 * The kernel type.
+	 */
+	protected int						kernelType;
+	/**
+	 * The degree of the polynomial kernel.
+	 */
+	protected int						degree;
+	/**
+	 * The &gamma; of the kernel.
+	 */
+	protected double					gamma;
+	/**
+	 * The offset coefficient of the kernel.
+	 */
+	protected double					coef0;
+	/**
+	 * The fast math mode of the RBF and sigmoid kernels.
+	 */
+	protected boolean					fastMath;
+	/**
+	 * The amount of classes, 2 for regression and one-class SVM.
+	 */
+	protected int						nrClass;
+	/**
+	 * The amount of support vectors.
+	 */
+	protected int						l;
+	/**
+	 * The class labels, <code>null</code> for regression and one-class SVM.
+	 */
+	protected int[]						label;
+	/**
+	 * The amount of support vectors of each class, <code>null</code> for
+	 * regression and one-class SVM.
+	 */
+	protected int[]						nSV;
+	/**
+	 * The offsets of the decision functions.
+	 */
+	protected double[]					rho;
+	/**
+	 * The start of each support vector in {@link #index}, of length l + 1.
+	 */
+	protected int[]						start;
+	/**
+	 * The feature indices of the support vectors.
+	 */
+	protected int[]						index;
+	/**
+	 * The values of the support vectors in {@link #FLOAT32} precision.
+	 */
+	protected float[]					values;
+	/**
+	 * The quantized values of the support vectors in {@link #INT8}
+	 * precision.
+	 */
+	protected byte[]					quantized;
+	/**
+	 * The scale of each feature in {@link #INT8} precision.
+	 */
+	protected double[]					scale;
+	/**
+	 * The offset of each feature in {@link #INT8} precision.
+	 */
+	protected double[]					offset;
+	/**
+	 * The coefficients, one row of length l per class but one, row-major.
+	 */
+	protected float[]					coef;
+	/**
+	 * The squared norms of the support vectors, for the RBF kernel.
+	 */
+	protected double[]					squares;
+	/**
+	 * The kernel parameter of the predictions.
+	 */
+	private svm_parameter				kernel;
+	/**
+	 * The prediction scratch space of each thread.
+	 */
+	private final ThreadLocal<Scratch>	scratch	= new ThreadLocal<Scratch>();
+
+	/**
+	 * Construct an instance of <tt>CompactModel</tt> from the specified
+	 * model.
+	 *
+	 * @param model
+	 *            the trained model
+	 * @param precision
+	 *            the precision of the support vector values, {@link #FLOAT32}
+	 *            or {@link #INT8}
+	 */
+	public CompactModel(svm_model model, int precision)
+	{
+		if (model == null)
+			throw new NullPointerException("The model cannot be null.");
+		if (precision != FLOAT32 && precision != INT8)
+			throw new IllegalArgumentException(String.format(
+					"Unknown precision %d.", precision));
+		svm_parameter param = model.param;
+		if (param.kernel_type == svm_parameter.PRECOMPUTED)
+			throw new IllegalArgumentException(
+					"A precomputed kernel model cannot be compacted.");
+		this.precision = precision;
+		svmType = param.svm_type;
+		kernelType = param.kernel_type;
+		degree = param.degree;
+		gamma = param.gamma;
+		coef0 = param.coef0;
+		fastMath = param.fast_math == 1;
+		nrClass = model.nr_class;
+		l = model.l;
+		label = model.label == null ? null : model.label.clone();
+		nSV = model.nSV == null ? null : model.nSV.clone();
+		rho = model.rho.clone();
+		start = new int[l + 1];
+		int dim = 0;
+		for (int i = 0; i < l; i++)
+		{
+			start[i + 1] = start[i] + model.SV[i].length;
+			for (svm_node node : model.SV[i])
+				dim = Math.max(dim, node.index + 1);
+		}
+		index = new int[start[l]];
+		for (int i = 0, p = 0; i < l; i++)
+			for (svm_node node : model.SV[i])
+				index[p++] = node.index;
+		if (precision == FLOAT32)
+		{
+			values = new float[start[l]];
+			for (int i = 0, p = 0; i < l; i++)
+				for (svm_node node : model.SV[i])
+					values[p++] = (float) node.value;
+		}
+		else
+			quantize(model, dim);
+		int rows = model.sv_coef.length;
+		coef = new float[rows * l];
+		for (int r = 0; r < rows; r++)
+			for (int i = 0; i < l; i++)
+				coef[r * l + i] = (float) model.sv_coef[r][i];
+		prepare();
+	}
+
+	/**
+	 * Construct an empty instance of <tt>CompactModel</tt>, to be filled by
+	 * {@link #load(InputStream)}.
+	 */
+	private CompactModel()
+	{
+	}
+
+	/**
+	 * Quantize the support vector values feature by feature.
+	 *
+	 * @param model
+	 *            the trained model
+	 * @param dim
+	 *            the largest feature index plus 1
+	 */
+	private void quantize(svm_model model, int dim)
+	{
+		double[] min = new double[dim];
+		double[] max = new double[dim];
+		Arrays.fill(min, Double.POSITIVE_INFINITY);
+		Arrays.fill(max, Double.NEGATIVE_INFINITY);
+		for (svm_node[] sv : model.SV)
+			for (svm_node node : sv)
+			{
+				min[node.index] = Math.min(min[node.index], node.value);
+				max[node.index] = Math.max(max[node.index], node.value);
+			}
+		scale = new double[dim];
+		offset = new double[dim];
+		for (int f = 0; f < dim; f++)
+			if (max[f] > min[f])
+			{
+				// the levels -128..127 span [min, max]
+				scale[f] = (max[f] - min[f]) / 255.0;
+				offset[f] = min[f] + 128 * scale[f];
+			}
+			else if (max[f] == min[f])
+				offset[f] = min[f];
+		quantized = new byte[start[l]];
+		for (int i = 0, p = 0; i < l; i++)
+			for (svm_node node : model.SV[i])
+			{
+				int f = node.index;
+				if (scale[f] > 0)
+					quantized[p] = (byte) Math.max(-128, Math.min(127,
+							Math.round((node.value - offset[f]) / scale[f])));
+				p++;
+			}
+	}
+
+	/**
+	 * Prepare the derived data of the model.
+	 */
+	private void prepare()
+	{
+		kernel = new svm_parameter();
+		kernel.kernel_type = kernelType;
+		kernel.degree = degree;
+		kernel.gamma = gamma;
+		kernel.coef0 = coef0;
+		kernel.fast_math = fastMath ? 1 : 0;
+		if (kernelType == svm_parameter.RBF)
+		{
+			squares = new double[l];
+			for (int i = 0; i < l; i++)
+				for (int p = start[i]; p < start[i + 1]; p++)
+				{
+					double v = value(p);
+					squares[i] += v * v;
+				}
+		}
+	}
+
+	/**
+	 * Returns the value stored at the specified position.
+	 *
+	 * @param p
+	 *            the position in {@link #index}
+	 * @return the value
+	 */
+	private double value(int p)
+	{
+		if (precision == FLOAT32)
+			return values[p];
+		int f = index[p];
+		return offset[f] + scale[f] * quantized[p];
+	}
+
+	/**
+	 * Returns the precision of the support vector values.
+	 *
+	 * @return {@link #FLOAT32} or {@link #INT8}
+	 */
+	public int getPrecision()
+	{
+		return precision;
+	}
+
+	/**
+	 * Returns the amount of support vectors.
+	 *
+	 * @return the amount of support vectors
+	 */
+	public int getSupportVectorCount()
+	{
+		return l;
+	}
+
+	/**
+	 * Returns the size of the arrays of the model in bytes.
+	 *
+	 * @return the size in bytes
+	 */
+	public long getMemorySize()
+	{
+		long size = 4L * start.length + 4L * index.length + 4L * coef.length
+				+ 8L * rho.length;
+		if (precision == FLOAT32)
+			size += 4L * values.length;
+		else
+			size += quantized.length + 8L * scale.length + 8L * offset.length;
+		return size;
+	}
+
+	/**
+	 * @see com.frank.svm.approx.Predictor#getDecisionCount()
+	 */
+	@Override
+	public int getDecisionCount()
+	{
+		return isClassification() ? nrClass * (nrClass - 1) / 2 : 1;
+	}
+
+	/**
+	 * @see com.frank.svm.approx.Predictor#predict(libsvm.svm_node[])
+	 */
+	@Override
+	public double predict(svm_node[] x)
+	{
+		Scratch s = scratch();
+		return predictValues(x, s.dec);
+	}
+
+	/**
+	 * @see com.frank.svm.approx.Predictor#predictValues(libsvm.svm_node[],
+	 *      double[])
+	 */
+	@Override
+	public double predictValues(svm_node[] x, double[] decValues)
+	{
+		Scratch s = scratch();
+		double[] dense = s.dense;
+		double xx = 0;
+		for (svm_node node : x)
+		{
+			if (node.index >= 0 && node.index < dense.length)
+				dense[node.index] = node.value;
+			xx += node.value * node.value;
+		}
+		try
+		{
+			if (!isClassification())
+			{
+				double sum = 0;
+				for (int i = 0; i < l; i++)
+					sum += coef[i] * kernel(i, dense, xx);
+				sum -= rho[0];
+				decValues[0] = sum;
+				if (svmType == svm_parameter.ONE_CLASS)
+					return sum > 0 ? 1 : -1;
+				return sum;
+			}
+			double[] kvalue = s.kvalue;
+			for (int i = 0; i < l; i++)
+				kvalue[i] = kernel(i, dense, xx);
+			int[] vote = s.vote;
+			Arrays.fill(vote, 0);
+			int p = 0;
+			for (int i = 0, si = 0; i < nrClass; si += nSV[i++])
+				for (int j = i + 1, sj = si + nSV[i]; j < nrClass; sj += nSV[j++])
+				{
+					double sum = 0;
+					int row1 = (j - 1) * l;
+					int row2 = i * l;
+					for (int k = si; k < si + nSV[i]; k++)
+						sum += coef[row1 + k] * kvalue[k];
+					for (int k = sj; k < sj + nSV[j]; k++)
+						sum += coef[row2 + k] * kvalue[k];
+					sum -= rho[p];
+					decValues[p] = sum;
+					if (sum > 0)
+						++vote[i];
+					else
+						++vote[j];
+					p++;
+				}
+			int max = 0;
+			for (int i = 1; i < nrClass; i++)
+				if (vote[i] > vote[max])
+					max = i;
+			return label[max];
+		}
+		finally
+		{
+			for (svm_node node : x)
+				if (node.index >= 0 && node.index < dense.length)
+					dense[node.index] = 0;
+		}
+	}
+
+	/**
+	 * Returns the kernel value of a support vector and the scattered sample.
+	 *
+	 * @param i
+	 *            the support vector
+	 * @param dense
+	 *            the scattered sample
+	 * @param xx
+	 *            the squared norm of the sample
+	 * @return the kernel value
+	 */
+	private double kernel(int i, double[] dense, double xx)
+	{
+		double dot = 0;
+		int end = start[i + 1];
+		if (precision == FLOAT32)
+			for (int p = start[i]; p < end; p++)
+				dot += dense[index[p]] * values[p];
+		else
+			for (int p = start[i]; p < end; p++)
+			{
+				int f = index[p];
+				dot += dense[f] * (offset[f] + scale[f] * quantized[p]);
+			}
+		return svm.svm_k_value(dot, xx, squares == null ? 0 : squares[i],
+				kernel);
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the model is a classification model.
+	 *
+	 * @return <tt>true</tt> for C-SVC and &nu;-SVC
+	 */
+	private boolean isClassification()
+	{
+		return svmType == svm_parameter.C_SVC || svmType == svm_parameter.NU_SVC;
+	}
+
+	/**
+	 * Returns the prediction scratch space of the calling thread.
+	 *
+	 * @return the scratch space
+	 */
+	private Scratch scratch()
+	{
+		Scratch s = scratch.get();
+		if (s == null)
+		{
+			int dim = precision == INT8 ? scale.length : 0;
+			for (int p = 0; p < index.length; p++)
+				dim = Math.max(dim, index[p] + 1);
+			s = new Scratch(dim, l, nrClass, getDecisionCount());
+			scratch.set(s);
+		}
+		return s;
+	}
+
+	/**
+	 * Returns a LIBSVM model holding the reduced precision values of this
+	 * model.
+	 *
+	 * @return the LIBSVM model
+	 */
+	public svm_model toModel()
+	{
+		svm_model model = new svm_model();
+		model.param = new svm_parameter();
+		model.param.svm_type = svmType;
+		model.param.kernel_type = kernelType;
+		model.param.degree = degree;
+		model.param.gamma = gamma;
+		model.param.coef0 = coef0;
+		model.param.fast_math = fastMath ? 1 : 0;
+		model.nr_class = nrClass;
+		model.l = l;
+		model.label = label == null ? null : label.clone();
+		model.nSV = nSV == null ? null : nSV.clone();
+		model.rho = rho.clone();
+		model.SV = new svm_node[l][];
+		for (int i = 0; i < l; i++)
+		{
+			model.SV[i] = new svm_node[start[i + 1] - start[i]];
+			for (int p = start[i]; p < start[i + 1]; p++)
+			{
+				svm_node node = new svm_node();
+				node.index = index[p];
+				node.value = value(p);
+				model.SV[i][p - start[i]] = node;
+			}
+		}
+		int rows = coef.length / Math.max(l, 1);
+		model.sv_coef = new double[rows][l];
+		for (int r = 0; r < rows; r++)
+			for (int i = 0; i < l; i++)
+				model.sv_coef[r][i] = coef[r * l + i];
+		return model;
+	}
+
+	/**
+	 * Save the model to the specified file in the binary format.
+	 *
+	 * @param file
+	 *            the file name
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void save(String file) throws IOException
+	{
+		OutputStream out = new FileOutputStream(file);
+		try
+		{
+			save(out);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Write the model to the specified stream in the binary format.
+	 *
+	 * @param out
+	 *            the output stream, not closed
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void save(OutputStream out) throws IOException
+	{
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+				out));
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.writeInt(precision);
+		data.writeInt(svmType);
+		data.writeInt(kernelType);
+		data.writeInt(degree);
+		data.writeDouble(gamma);
+		data.writeDouble(coef0);
+		data.writeInt(nrClass);
+		data.writeInt(l);
+		data.writeBoolean(label != null);
+		if (label != null)
+		{
+			for (int i = 0; i < nrClass; i++)
+				data.writeInt(label[i]);
+			for (int i = 0; i < nrClass; i++)
+				data.writeInt(nSV[i]);
+		}
+		data.writeInt(rho.length);
+		for (double r : rho)
+			data.writeDouble(r);
+		for (int i = 1; i <= l; i++)
+			data.writeInt(start[i]);
+		for (int f : index)
+			data.writeInt(f);
+		if (precision == FLOAT32)
+			for (float v : values)
+				data.writeFloat(v);
+		else
+		{
+			data.writeInt(scale.length);
+			for (int f = 0; f < scale.length; f++)
+			{
+				data.writeDouble(scale[f]);
+				data.writeDouble(offset[f]);
+			}
+			data.write(quantized);
+		}
+		data.writeInt(coef.length);
+		for (float c : coef)
+			data.writeFloat(c);
+		data.flush();
+	}
+
+	/**
+	 * Load a model from the specified file in the binary format.
+	 *
+	 * @param file
+	 *            the file name
+	 * @return the model
+	 * @throws IOException
+	 *             if an I/O error occurs or the file is not a compact model
+	 */
+	public static CompactModel load(String file) throws IOException
+	{
+		InputStream in = new FileInputStream(file);
+		try
+		{
+			return load(in);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Read a model from the specified stream in the binary format.
+	 *
+	 * @param in
+	 *            the input stream, not closed
+	 * @return the model
+	 * @throws IOException
+	 *             if an I/O error occurs or the stream is not a compact model
+	 */
+	public static CompactModel load(InputStream in) throws IOException
+	{
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+		if (data.readInt() != MAGIC)
+			throw new IOException("Not a compact model.");
+		int version = data.readInt();
+		if (version != VERSION)
+			throw new IOException(String.format(
+					"Unsupported compact model version %d.", version));
+		CompactModel model = new CompactModel();
+		model.precision = data.readInt();
+		if (model.precision != FLOAT32 && model.precision != INT8)
+			throw new IOException(String.format("Unknown precision %d.",
+					model.precision));
+		model.svmType = data.readInt();
+		model.kernelType = data.readInt();
+		model.degree = data.readInt();
+		model.gamma = data.readDouble();
+		model.coef0 = data.readDouble();
+		model.nrClass = data.readInt();
+		model.l = data.readInt();
+		int l = model.l;
+		if (data.readBoolean())
+		{
+			model.label = new int[model.nrClass];
+			model.nSV = new int[model.nrClass];
+			for (int i = 0; i < model.nrClass; i++)
+				model.label[i] = data.readInt();
+			for (int i = 0; i < model.nrClass; i++)
+				model.nSV[i] = data.readInt();
+		}
+		model.rho = new double[data.readInt()];
+		for (int i = 0; i < model.rho.length; i++)
+			model.rho[i] = data.readDouble();
+		model.start = new int[l + 1];
+		for (int i = 1; i <= l; i++)
+			model.start[i] = data.readInt();
+		model.index = new int[model.start[l]];
+		for (int p = 0; p < model.index.length; p++)
+			model.index[p] = data.readInt();
+		if (model.precision == FLOAT32)
+		{
+			model.values = new float[model.start[l]];
+			for (int p = 0; p < model.values.length; p++)
+				model.values[p] = data.readFloat();
+		}
+		else
+		{
+			int dim = data.readInt();
+			model.scale = new double[dim];
+			model.offset = new double[dim];
+			for (int f = 0; f < dim; f++)
+			{
+				model.scale[f] = data.readDouble();
+				model.offset[f] = data.readDouble();
+			}
+			model.quantized = new byte[model.start[l]];
+			data.readFully(model.quantized);
+		}
+		model.coef = new float[data.readInt()];
+		for (int i = 0; i < model.coef.length; i++)
+			model.coef[i] = data.readFloat();
+		model.prepare();
+		return model;
+	}
+
+	/**
+	 * The prediction scratch space of a thread.
+	 */
+	private static final class Scratch
+	{
+		final double[]	dense;
+		final double[]	kvalue;
+		final int[]		vote;
+		final double[]	dec;
+
+		Scratch(int dim, int l, int nrClass, int decisions)
+		{
+			dense = new double[dim];
+			kvalue = new double[l];
+			vote = new int[nrClass];
+			dec = new double[decisions];
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. FeatureMapModel.java is PROPRIETARY/CONFIDENTIAL built in 2013.
+ * Use is subject to license terms.
+ */
+package com.frank.svm.approx;
+
+import java.util.Arrays;
+
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+
+/**
+ * The linear model over an explicit feature map approximating a kernel.
+ * <p>
+ * A sample is mapped into a feature space of a fixed dimension, in which each
+ * decision function is a weight vector plus a bias. The prediction cost
+ * depends on the dimension of the map instead of the amount of support
+ * vectors. The decision functions and the labels follow the layout of
+ * {@linkplain Predictor}: for classification, one decision function per pair
+ * of classes and the majority vote among them.
+ * </p>
+ * <p>
+ * A model is immutable once built and can be shared among threads.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public abstract class FeatureMapModel implements Predictor
+{
+	/**
+	 * The support vector machine type.
+	 */
+	protected int						svmType;
+	/**
+	 * The amount of classes, 2 for regression and one-class SVM.
+	 */
+	protected int						nrClass;
+	/**
+	 * The class labels, <code>null</code> for regression and one-class SVM.
+	 */
+	protected int[]						label;
+	/**
+	 * The dimension of the feature map.
+	 */
+	protected int						dimension;
+	/**
+	 * The weights, one row of length {@link #dimension} per decision
+	 * function, row-major.
+	 */
+	protected double[]					weight;
+	/**
+	 * The bias of each decision function.
+	 */
+	protected double[]					bias;
+	/**
+	 * The prediction scratch space of each thread.
+	 */
+	private final ThreadLocal<double[][]>	scratch	= new ThreadLocal<double[][]>();
+
+	/**
+	 * Construct an instance of <tt>FeatureMapModel</tt> with zero weights.
+	 *
+	 * @param svmType
+	 *            the support vector machine type
+	 * @param nrClass
+	 *            the amount of classes
+	 * @param label
+	 *            the class labels, <code>null</code> for regression and
+	 *            one-class SVM
+	 * @param dimension
+	 *            the dimension of the feature map
+	 */
+	protected FeatureMapModel(int svmType, int nrClass, int[] label,
+			int dimension)
+	{
+		if (dimension <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The dimension %d must be positive.", dimension));
+		this.svmType = svmType;
+		this.nrClass = nrClass;
+		this.label = label == null ? null : label.clone();
+		this.dimension = dimension;
+		weight = new double[getDecisionCount() * dimension];
+		bias = new double[getDecisionCount()];
+	}
+
+	/**
+	 * Map the specified sample into the feature space.
+	 *
+	 * @param x
+	 *            the feature vector of the sample
+	 * @param z
+	 *            the mapped vector, of length {@link #dimension}
+	 */
+	protected abstract void map(svm_node[] x, double[] z);
+
+	/**
+	 * Returns the dimension of the feature map.
+	 *
+	 * @return the dimension
+	 */
+	public int getDimension()
+	{
+		return dimension;
+	}
+
+	/**
+	 * @see com.frank.svm.approx.Predictor#getDecisionCount()
+	 */
+	@Override
+	public int getDecisionCount()
+	{
+		return isClassification() ? nrClass * (nrClass - 1) / 2 : 1;
+	}
+
+	/**
+	 * @see com.frank.svm.approx.Predictor#predict(libsvm.svm_node[])
+	 */
+	@Override
+	public double predict(svm_node[] x)
+	{
+		return predictValues(x, scratch()[1]);
+	}
+
+	/**
+	 * @see com.frank.svm.approx.Predictor#predictValues(libsvm.svm_node[],
+	 *      double[])
+	 */
+	@Override
+	public double predictValues(svm_node[] x, double[] decValues)
+	{
+		double[][] s = scratch();
+		double[] z = s[0];
+		map(x, z);
+		int n = getDecisionCount();
+		for (int t = 0; t < n; t++)
+		{
+			double sum = bias[t];
+			int row = t * dimension;
+			for (int j = 0; j < dimension; j++)
+				sum += weight[row + j] * z[j];
+			decValues[t] = sum;
+		}
+		if (!isClassification())
+		{
+			if (svmType == svm_parameter.ONE_CLASS)
+				return decValues[0] > 0 ? 1 : -1;
+			return decValues[0];
+		}
+		double[] vote = s[2];
+		Arrays.fill(vote, 0);
+		int p = 0;
+		for (int i = 0; i < nrClass; i++)
+			for (int j = i + 1; j < nrClass; j++)
+				if (decValues[p++] > 0)
+					++vote[i];
+				else
+					++vote[j];
+		int max = 0;
+		for (int i = 1; i < nrClass; i++)
+			if (vote[i] > vote[max])
+				max = i;
+		return label[max];
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the model is a classification model.
+	 *
+	 * @return <tt>true</tt> for C-SVC and &nu;-SVC
+	 */
+	protected boolean isClassification()
+	{
+		return svmType == svm_parameter.C_SVC || svmType == svm_parameter.NU_SVC;
+	}
+
+	/**
+	 * Returns the prediction scratch space of the calling thread: the mapped
+	 * vector, the decision values and the votes.
+	 *
+	 * @return the scratch space
+	 */
+	private double[][] scratch()
+	{
+		double[][] s = scratch.get();
+		if (s == null)
+		{
+			s = new double[][] { new double[dimension],
+					new double[getDecisionCount()], new double[nrClass] };
+			scratch.set(s);
+		}
+		return s;
+	}
+}
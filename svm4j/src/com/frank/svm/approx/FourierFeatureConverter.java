@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. FourierFeatureConverter.java is PROPRIETARY/CONFIDENTIAL built in
+ * 2013. Use is subject to license terms.
+ */
+package com.frank.svm.approx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+import libsvm.svm_problem;
+
+/**
+ * The random Fourier feature converter of trained RBF models.
+ * <p>
+ * The converter draws a random Fourier feature map of the specified
+ * dimension D from the &gamma; of the model, and fits the linear weights of
+ * each decision function to reproduce the decision values of the model, by a
+ * ridge regularized least squares regression over the support vectors and
+ * the fitting samples. The prediction cost of the result no longer depends on
+ * the amount of support vectors. The fitting costs O(n &times;
+ * D<sup>2</sup>) for n fitting points plus O(D<sup>3</sup>), so the points
+ * are sub-sampled down to {@link #getMaxSamples()}.
+ * </p>
+ * <p>
+ * The sizes of the report are the amount of support vectors of the model and
+ * the dimension of the map, i.e. the amounts of kernel evaluations and of
+ * features per prediction; its tolerance is infinite since a conversion
+ * always returns its result. The report of the last conversion is available
+ * through {@linkplain #getReport()}, so that an instance should not be
+ * shared among threads.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class FourierFeatureConverter
+{
+	/**
+	 * The dimension D of the feature map.
+	 */
+	protected int					dimension;
+	/**
+	 * The seed of the random feature map (default 0).
+	 */
+	protected long					seed;
+	/**
+	 * The ridge of the weight fitting, relative to the mean diagonal of the
+	 * normal matrix (default 1e-3).
+	 */
+	protected double				ridge		= 1e-3;
+	/**
+	 * The maximal amount of fitting points, 0 for four times the dimension
+	 * (default 0).
+	 */
+	protected int					maxSamples;
+	/**
+	 * The report of the last conversion.
+	 */
+	protected ApproximationReport	report;
+
+	/**
+	 * Construct an instance of <tt>FourierFeatureConverter</tt>.
+	 *
+	 * @param dimension
+	 *            the dimension D of the feature map, positive
+	 */
+	public FourierFeatureConverter(int dimension)
+	{
+		setDimension(dimension);
+	}
+
+	/**
+	 * Convert the specified RBF model.
+	 *
+	 * @param model
+	 *            the trained RBF model
+	 * @param fitting
+	 *            the fitting samples besides the support vectors, only their
+	 *            feature vectors are used, <code>null</code> for none
+	 * @param validation
+	 *            the validation problem of the report, only its feature
+	 *            vectors are used
+	 * @return the random Fourier feature model
+	 * @throws IllegalArgumentException
+	 *             if the fitting system is degenerate
+	 */
+	public FourierFeatureModel convert(svm_model model, svm_problem fitting,
+			svm_problem validation)
+	{
+		if (model == null)
+			throw new NullPointerException("The model cannot be null.");
+		if (model.param.kernel_type != svm_parameter.RBF)
+			throw new IllegalArgumentException(
+					"Only the RBF kernel models can be converted.");
+		if (validation == null || validation.l == 0)
+			throw new IllegalArgumentException(
+					"The validation problem cannot be empty.");
+		Random rand = new Random(seed);
+		// the fitting points
+		List<svm_node[]> points = new ArrayList<svm_node[]>();
+		Collections.addAll(points, model.SV);
+		if (fitting != null)
+			Collections.addAll(points, fitting.x);
+		// the input dimension covers all the points, not only the sampled
+		// ones, so that no feature is dropped by the mapping
+		int features = 0;
+		for (svm_node[] x : points)
+			for (svm_node node : x)
+				features = Math.max(features, node.index + 1);
+		if ((long) features * dimension > Integer.MAX_VALUE)
+			throw new IllegalArgumentException(String.format(
+					"The %d features are too many for the dimension %d.",
+					features, dimension));
+		int limit = maxSamples > 0 ? maxSamples : 4 * dimension;
+		if (points.size() > limit)
+		{
+			Collections.shuffle(points, rand);
+			points = points.subList(0, limit);
+		}
+		svm_parameter param = model.param;
+		FourierFeatureModel result = new FourierFeatureModel(param.svm_type,
+				model.nr_class, model.label, dimension, features, param.gamma,
+				rand);
+		fit(result, new ModelPredictor(model), points);
+		// the accuracy on the validation set
+		double[] reference = ModelQuantizer.decisionValues(new ModelPredictor(
+				model), validation);
+		double[] values = ModelQuantizer.decisionValues(result, validation);
+		double max = 0, sum = 0;
+		for (int i = 0; i < values.length; i++)
+		{
+			double error = Math.abs(values[i] - reference[i]);
+			max = Math.max(max, error);
+			sum += error;
+		}
+		report = new ApproximationReport(model.l, dimension, max, sum
+				/ values.length, Double.POSITIVE_INFINITY, validation.l);
+		return result;
+	}
+
+	/**
+	 * Fit the weights and the biases of the specified feature map model to
+	 * the decision values of the exact model over the specified points.
+	 *
+	 * @param result
+	 *            the feature map model
+	 * @param exact
+	 *            the exact predictor
+	 * @param points
+	 *            the fitting points
+	 */
+	private void fit(FeatureMapModel result, Predictor exact,
+			List<svm_node[]> points)
+	{
+		int D = result.dimension;
+		int n = D + 1; // the bias is the last unknown
+		int decisions = exact.getDecisionCount();
+		double[] A = new double[n * n];
+		double[] B = new double[decisions * n];
+		double[] z = new double[n];
+		double[] dec = new double[decisions];
+		for (svm_node[] x : points)
+		{
+			result.map(x, z);
+			z[D] = 1;
+			exact.predictValues(x, dec);
+			// the lower triangle of the normal matrix
+			for (int i = 0; i < n; i++)
+			{
+				double zi = z[i];
+				int row = i * n;
+				for (int j = 0; j <= i; j++)
+					A[row + j] += zi * z[j];
+			}
+			for (int t = 0; t < decisions; t++)
+				for (int i = 0; i < n; i++)
+					B[t * n + i] += dec[t] * z[i];
+		}
+		double trace = 0;
+		for (int i = 0; i < n; i++)
+			trace += A[i * n + i];
+		double lambda = ridge * Math.max(trace / n, Double.MIN_NORMAL);
+		double[] L = null;
+		// raise the ridge until the system is numerically positive definite
+		for (int attempt = 0; L == null && attempt < 12; attempt++)
+		{
+			L = Cholesky.decompose(A, n, lambda);
+			lambda *= 10;
+		}
+		if (L == null)
+			throw new IllegalArgumentException(
+					"The normal matrix of the fitting points is degenerate.");
+		double[] b = new double[n];
+		for (int t = 0; t < decisions; t++)
+		{
+			System.arraycopy(B, t * n, b, 0, n);
+			Cholesky.solve(L, n, b);
+			System.arraycopy(b, 0, result.weight, t * D, D);
+			result.bias[t] = b[D];
+		}
+	}
+
+	/**
+	 * Returns the report of the last conversion.
+	 *
+	 * @return the report, <code>null</code> before the first conversion
+	 */
+	public ApproximationReport getReport()
+	{
+		return report;
+	}
+
+	/**
+	 * Returns the dimension D of the feature map.
+	 *
+	 * @return the dimension
+	 */
+	public int getDimension()
+	{
+		return dimension;
+	}
+
+	/**
+	 * Set the dimension D of the feature map.
+	 *
+	 * @param dimension
+	 *            the dimension, positive
+	 */
+	public void setDimension(int dimension)
+	{
+		if (dimension <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The dimension %d must be positive.", dimension));
+		this.dimension = dimension;
+	}
+
+	/**
+	 * Returns the seed of the random feature map.
+	 *
+	 * @return the seed
+	 */
+	public long getSeed()
+	{
+		return seed;
+	}
+
+	/**
+	 * Set the seed of the random feature map.
+	 *
+	 * @param seed
+	 *            the seed
+	 */
+	public void setSeed(long seed)
+	{
+		this.seed = seed;
+	}
+
+	/**
+	 * Returns the ridge of the weight fitting.
+	 *
+	 * @return the relative ridge
+	 */
+	public double getRidge()
+	{
+		return ridge;
+	}
+
+	/**
+	 * Set the ridge of the weight fitting, relative to the mean diagonal of
+	 * the normal matrix.
+	 *
+	 * @param ridge
+	 *            the relative ridge, positive
+	 */
+	public void setRidge(double ridge)
+	{
+		if (ridge <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The ridge %g must be positive.", ridge));
+		this.ridge = ridge;
+	}
+
+	/**
+	 * Returns the maximal amount of fitting points.
+	 *
+	 * @return the maximal amount, 0 for four times the dimension
+	 */
+	public int getMaxSamples()
+	{
+		return maxSamples;
+	}
+
+	/**
+	 * Set the maximal amount of fitting points.
+	 *
+	 * @param maxSamples
+	 *            the maximal amount, 0 for four times the dimension
+	 */
+	public void setMaxSamples(int maxSamples)
+	{
+		if (maxSamples < 0)
+			throw new IllegalArgumentException(String.format(
+					"The maximal amount of samples %d must be nonnegative.",
+					maxSamples));
+		this.maxSamples = maxSamples;
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. FourierFeatureModel.java is PROPRIETARY/CONFIDENTIAL built in
+ * 2013. Use is subject to license terms.
+ */
+package com.frank.svm.approx;
+
+import java.util.Random;
+
+import libsvm.svm_node;
+
+/**
+ * The linear model over random Fourier features approximating an RBF kernel.
+ * <p>
+ * <strong>feature map:</strong><br>
+ * z<sub>j</sub>(<strong>x</strong>) = cos(<strong>&omega;</strong><sub>j</sub>
+ * &middot;<strong>x</strong> + b<sub>j</sub>), j = 1..D<br>
+ * <strong>&omega;</strong><sub>j</sub> ~ N(0, 2&gamma;I), b<sub>j</sub> ~
+ * U[0, 2&pi;)
+ * </p>
+ * <p>
+ * The inner product of two mapped samples approximates D/2 &times;
+ * exp(-&gamma;|<strong>u</strong>&minus;<strong>v</strong>|<sup>2</sup>), so
+ * that a linear function of the features approximates a kernel expansion. A
+ * prediction costs O(nnz &times; D) for the projection and O(D) per decision
+ * function. Features with an index of the input feature count
+ * {@linkplain #features} or above, i.e. past the support vectors and the
+ * fitting points, are ignored. The model is built by
+ * {@linkplain FourierFeatureConverter}.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class FourierFeatureModel extends FeatureMapModel
+{
+	/**
+	 * The largest feature index projected plus 1.
+	 */
+	protected int		features;
+	/**
+	 * The frequencies, one row of length D per input feature, row-major.
+	 */
+	protected float[]	omega;
+	/**
+	 * The phases, of length D.
+	 */
+	protected double[]	phase;
+
+	/**
+	 * Construct an instance of <tt>FourierFeatureModel</tt> with zero weights
+	 * and random frequencies.
+	 *
+	 * @param svmType
+	 *            the support vector machine type
+	 * @param nrClass
+	 *            the amount of classes
+	 * @param label
+	 *            the class labels, <code>null</code> for regression and
+	 *            one-class SVM
+	 * @param dimension
+	 *            the dimension D of the feature map
+	 * @param features
+	 *            the largest feature index projected plus 1
+	 * @param gamma
+	 *            the &gamma; of the approximated RBF kernel
+	 * @param rand
+	 *            the random generator of the frequencies and the phases
+	 */
+	protected FourierFeatureModel(int svmType, int nrClass, int[] label,
+			int dimension, int features, double gamma, Random rand)
+	{
+		super(svmType, nrClass, label, dimension);
+		this.features = features;
+		double sigma = Math.sqrt(2 * gamma);
+		omega = new float[features * dimension];
+		for (int p = 0; p < omega.length; p++)
+			omega[p] = (float) (sigma * rand.nextGaussian());
+		phase = new double[dimension];
+		for (int j = 0; j < dimension; j++)
+			phase[j] = 2 * Math.PI * rand.nextDouble();
+	}
+
+	/**
+	 * @see com.frank.svm.approx.FeatureMapModel#map(libsvm.svm_node[],
+	 *      double[])
+	 */
+	@Override
+	protected void map(svm_node[] x, double[] z)
+	{
+		System.arraycopy(phase, 0, z, 0, dimension);
+		for (svm_node node : x)
+			if (node.index >= 0 && node.index < features)
+			{
+				double v = node.value;
+				int row = node.index * dimension;
+				for (int j = 0; j < dimension; j++)
+					z[j] += v * omega[row + j];
+			}
+		for (int j = 0; j < dimension; j++)
+			z[j] = Math.cos(z[j]);
+	}
+}
@@ -0,0 +1,488 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. ModelCompressor.java is PROPRIETARY/CONFIDENTIAL built in 2013.
+ * Use is subject to license terms.
+ */
+package com.frank.svm.approx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+import libsvm.svm_problem;
+
+/**
+ * The support vector compressor of trained models.
+ * <p>
+ * The prediction cost of a kernel model is linear in its amount of support
+ * vectors. The compressor builds a reduced set of vectors for each class:
+ * the support vectors whose coefficients are negligible are pruned, and for
+ * the RBF kernel the ones close to each other in the feature space are
+ * merged into their weighted mean. The coefficients of every decision
+ * function are then refitted on the reduced set by a ridge regularized
+ * least squares projection of the original decision function in the feature
+ * space, and the offsets are kept.
+ * </p>
+ * <p>
+ * Several levels of compression are tried from the most aggressive one, the
+ * first whose maximal decision value error on the validation set is within
+ * the tolerance is returned. If none is, the original model is returned.
+ * Each refitting solves a dense system of the reduced vectors of a decision
+ * function, so a level whose decision functions keep more vectors than the
+ * maximal refit size is not tried, nor are the less aggressive ones. The
+ * result is an ordinary {@linkplain svm_model}, so it can be predicted and
+ * saved as usual; its support vectors no longer refer to training samples,
+ * so it has no support vector indices. The report of the last compression is
+ * available through {@linkplain #getReport()}, so that an instance should not
+ * be shared among threads.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class ModelCompressor
+{
+	/**
+	 * The compression levels tried, from the most aggressive one: the pruning
+	 * threshold relative to the largest support vector weight, and the kernel
+	 * value above which support vectors of the same class are merged.
+	 */
+	private static final double[][]	LEVELS	= { { 5e-2, 0.5 },
+			{ 3e-2, 0.7 }, { 2e-2, 0.8 }, { 1e-2, 0.9 }, { 3e-3, 0.95 },
+			{ 1e-3, 0.98 }, { 3e-4, 0.99 }, { 1e-4, 0.995 }, { 1e-5, 0.999 } };
+	/**
+	 * The tolerance of the maximal absolute decision value error.
+	 */
+	protected double				tolerance;
+	/**
+	 * The maximal amount of reduced vectors of a decision function whose
+	 * coefficients are refitted (default 2000).
+	 */
+	protected int					maxRefitSize	= 2000;
+	/**
+	 * The ridge of the coefficient refitting, relative to the mean diagonal
+	 * of the kernel matrix of the reduced set (default 1e-8).
+	 */
+	protected double				ridge	= 1e-8;
+	/**
+	 * The report of the last compression.
+	 */
+	protected ApproximationReport	report;
+
+	/**
+	 * Construct an instance of <tt>ModelCompressor</tt>.
+	 *
+	 * @param tolerance
+	 *            the tolerance of the maximal absolute decision value error
+	 *            on the validation set, positive
+	 */
+	public ModelCompressor(double tolerance)
+	{
+		setTolerance(tolerance);
+	}
+
+	/**
+	 * Compress the specified model.
+	 *
+	 * @param model
+	 *            the trained model
+	 * @param validation
+	 *            the validation problem, only its feature vectors are used
+	 * @return the compressed model, or the original model if no compression
+	 *         met the tolerance
+	 */
+	public svm_model compress(svm_model model, svm_problem validation)
+	{
+		if (model == null)
+			throw new NullPointerException("The model cannot be null.");
+		if (validation == null || validation.l == 0)
+			throw new IllegalArgumentException(
+					"The validation problem cannot be empty.");
+		double[] reference = ModelQuantizer.decisionValues(
+				new ModelPredictor(model), validation);
+		for (double[] level : LEVELS)
+		{
+			svm_model reduced = reduce(model, level[0], level[1]);
+			// the following levels are less aggressive
+			if (reduced == null || reduced.l >= model.l)
+				break;
+			double[] values = ModelQuantizer.decisionValues(
+					new ModelPredictor(reduced), validation);
+			double max = 0, sum = 0;
+			for (int i = 0; i < values.length; i++)
+			{
+				double error = Math.abs(values[i] - reference[i]);
+				max = Math.max(max, error);
+				sum += error;
+			}
+			if (max <= tolerance)
+			{
+				report = new ApproximationReport(model.l, reduced.l, max, sum
+						/ values.length, tolerance, validation.l);
+				return reduced;
+			}
+		}
+		report = new ApproximationReport(model.l, model.l, 0, 0, tolerance,
+				validation.l);
+		return model;
+	}
+
+	/**
+	 * Build the reduced model of the specified compression level.
+	 *
+	 * @param model
+	 *            the original model
+	 * @param prune
+	 *            the pruning threshold relative to the largest weight
+	 * @param similarity
+	 *            the kernel value above which vectors are merged
+	 * @return the reduced model, <code>null</code> if a decision function
+	 *         keeps more vectors than the maximal refit size
+	 */
+	protected svm_model reduce(svm_model model, double prune,
+			double similarity)
+	{
+		svm_parameter param = model.param;
+		boolean classification = param.svm_type == svm_parameter.C_SVC
+				|| param.svm_type == svm_parameter.NU_SVC;
+		int nr_group = classification ? model.nr_class : 1;
+		int nr_row = model.sv_coef.length;
+		int[] start = new int[nr_group + 1];
+		for (int c = 0; c < nr_group; c++)
+			start[c + 1] = start[c] + (classification ? model.nSV[c] : model.l);
+		// the weight of a support vector sums its coefficients over all the
+		// decision functions it takes part in
+		double[] weight = new double[model.l];
+		double max_weight = 0;
+		for (int i = 0; i < model.l; i++)
+		{
+			for (int r = 0; r < nr_row; r++)
+				weight[i] += Math.abs(model.sv_coef[r][i]);
+			max_weight = Math.max(max_weight, weight[i]);
+		}
+		boolean merge = param.kernel_type == svm_parameter.RBF;
+		List<List<svm_node[]>> reduced = new ArrayList<List<svm_node[]>>();
+		for (int c = 0; c < nr_group; c++)
+		{
+			// the kept vectors of the class, heaviest first
+			List<Integer> kept = new ArrayList<Integer>();
+			for (int i = start[c]; i < start[c + 1]; i++)
+				if (weight[i] >= prune * max_weight)
+					kept.add(i);
+			Integer[] order = kept.toArray(new Integer[kept.size()]);
+			final double[] w = weight;
+			Arrays.sort(order, new Comparator<Integer>()
+			{
+				@Override
+				public int compare(Integer a, Integer b)
+				{
+					return Double.compare(w[b], w[a]);
+				}
+			});
+			List<svm_node[]> vectors = new ArrayList<svm_node[]>();
+			boolean[] merged = new boolean[order.length];
+			for (int a = 0; a < order.length; a++)
+			{
+				if (merged[a])
+					continue;
+				svm_node[] center = model.SV[order[a]];
+				if (!merge)
+				{
+					vectors.add(center);
+					continue;
+				}
+				// greedy clustering around the heaviest remaining vector
+				List<Integer> members = new ArrayList<Integer>();
+				members.add(order[a]);
+				for (int b = a + 1; b < order.length; b++)
+					if (!merged[b]
+							&& svm.svm_k_function(center, model.SV[order[b]],
+									param) >= similarity)
+					{
+						merged[b] = true;
+						members.add(order[b]);
+					}
+				vectors.add(members.size() == 1 ? center : mean(model,
+						members, weight));
+			}
+			reduced.add(vectors);
+		}
+		// the dense refitting of a decision function is bounded
+		for (int i = 0; i < nr_group; i++)
+		{
+			int m = reduced.get(i).size();
+			if (!classification && m > maxRefitSize)
+				return null;
+			for (int j = i + 1; j < nr_group; j++)
+				if (m + reduced.get(j).size() > maxRefitSize)
+					return null;
+		}
+		// assemble the reduced model
+		int l = 0;
+		int[] reduced_start = new int[nr_group + 1];
+		for (int c = 0; c < nr_group; c++)
+		{
+			l += reduced.get(c).size();
+			reduced_start[c + 1] = l;
+		}
+		svm_model result = new svm_model();
+		result.param = param;
+		result.nr_class = model.nr_class;
+		result.l = l;
+		result.SV = new svm_node[l][];
+		for (int c = 0; c < nr_group; c++)
+			for (int i = 0; i < reduced.get(c).size(); i++)
+				result.SV[reduced_start[c] + i] = reduced.get(c).get(i);
+		result.sv_coef = new double[nr_row][l];
+		result.rho = model.rho.clone();
+		result.label = model.label == null ? null : model.label.clone();
+		result.probA = model.probA == null ? null : model.probA.clone();
+		result.probB = model.probB == null ? null : model.probB.clone();
+		if (classification)
+		{
+			result.nSV = new int[nr_group];
+			for (int c = 0; c < nr_group; c++)
+				result.nSV[c] = reduced.get(c).size();
+			// the decision function of classes i < j takes the coefficients
+			// of class i from row j-1, and the ones of class j from row i
+			for (int i = 0; i < nr_group; i++)
+				for (int j = i + 1; j < nr_group; j++)
+					refit(model, result, new int[] { i, j }, new int[] {
+							j - 1, i }, start, reduced_start);
+		}
+		else
+			refit(model, result, new int[] { 0 }, new int[] { 0 }, start,
+					reduced_start);
+		return result;
+	}
+
+	/**
+	 * Refit the coefficients of one decision function on the reduced set, by
+	 * projecting the original expansion onto the span of the reduced vectors
+	 * in the feature space.
+	 *
+	 * @param model
+	 *            the original model
+	 * @param result
+	 *            the reduced model
+	 * @param groups
+	 *            the classes taking part in the decision function
+	 * @param rows
+	 *            the coefficient row of each class
+	 * @param start
+	 *            the class starts in the original model
+	 * @param reduced_start
+	 *            the class starts in the reduced model
+	 */
+	private void refit(svm_model model, svm_model result, int[] groups,
+			int[] rows, int[] start, int[] reduced_start)
+	{
+		svm_parameter param = model.param;
+		int m = 0;
+		for (int g : groups)
+			m += reduced_start[g + 1] - reduced_start[g];
+		if (m == 0)
+			return;
+		svm_node[][] z = new svm_node[m][];
+		int[] z_row = new int[m];
+		int[] z_index = new int[m];
+		int t = 0;
+		for (int g = 0; g < groups.length; g++)
+			for (int i = reduced_start[groups[g]]; i < reduced_start[groups[g] + 1]; i++)
+			{
+				z[t] = result.SV[i];
+				z_row[t] = rows[g];
+				z_index[t++] = i;
+			}
+		// right-hand side K_zx * alpha
+		double[] b = new double[m];
+		for (int g = 0; g < groups.length; g++)
+		{
+			double[] coef = model.sv_coef[rows[g]];
+			for (int i = start[groups[g]]; i < start[groups[g] + 1]; i++)
+				if (coef[i] != 0)
+					for (int s = 0; s < m; s++)
+						b[s] += coef[i]
+								* svm.svm_k_function(z[s], model.SV[i], param);
+		}
+		// K_zz + ridge
+		double[] A = new double[m * m];
+		double trace = 0;
+		for (int r = 0; r < m; r++)
+		{
+			for (int s = 0; s < r; s++)
+				A[r * m + s] = A[s * m + r] = svm.svm_k_function(z[r], z[s],
+						param);
+			A[r * m + r] = svm.svm_k_function(z[r], z[r], param);
+			trace += A[r * m + r];
+		}
+		double lambda = ridge * Math.max(trace / m, Double.MIN_NORMAL);
+		double[] beta = null;
+		// raise the ridge until the system is numerically positive definite
+		for (int attempt = 0; beta == null && attempt < 12; attempt++)
+		{
+			beta = solve(A, m, b, lambda);
+			lambda *= 10;
+		}
+		if (beta == null)
+			beta = new double[m];
+		for (int s = 0; s < m; s++)
+			result.sv_coef[z_row[s]][z_index[s]] = beta[s];
+	}
+
+	/**
+	 * Solve (A + lambda I) x = b by the Cholesky decomposition.
+	 *
+	 * @param A
+	 *            the symmetric matrix, row-major, not modified
+	 * @param n
+	 *            the order of the matrix
+	 * @param b
+	 *            the right-hand side
+	 * @param lambda
+	 *            the ridge
+	 * @return the solution, <code>null</code> if the matrix is not positive
+	 *         definite
+	 */
+	private static double[] solve(double[] A, int n, double[] b, double lambda)
+	{
+		double[] L = Cholesky.decompose(A, n, lambda);
+		if (L == null)
+			return null;
+		double[] x = b.clone();
+		Cholesky.solve(L, n, x);
+		return x;
+	}
+
+	/**
+	 * Returns the weighted mean of the specified support vectors.
+	 *
+	 * @param model
+	 *            the model
+	 * @param members
+	 *            the indices of the support vectors
+	 * @param weight
+	 *            the weights of the support vectors
+	 * @return the weighted mean
+	 */
+	private static svm_node[] mean(svm_model model, List<Integer> members,
+			double[] weight)
+	{
+		TreeMap<Integer, Double> sum = new TreeMap<Integer, Double>();
+		double total = 0;
+		for (int i : members)
+		{
+			total += weight[i];
+			for (svm_node node : model.SV[i])
+			{
+				Double v = sum.get(node.index);
+				sum.put(node.index, (v == null ? 0 : v) + weight[i]
+						* node.value);
+			}
+		}
+		svm_node[] x = new svm_node[sum.size()];
+		int t = 0;
+		for (Map.Entry<Integer, Double> e : sum.entrySet())
+		{
+			x[t] = new svm_node();
+			x[t].index = e.getKey();
+			x[t++].value = e.getValue() / total;
+		}
+		return x;
+	}
+
+	/**
+	 * Returns the report of the last compression.
+	 *
+	 * @return the report, <code>null</code> before the first compression
+	 */
+	public ApproximationReport getReport()
+	{
+		return report;
+	}
+
+	/**
+	 * Returns the tolerance of the maximal absolute decision value error.
+	 *
+	 * @return the tolerance
+	 */
+	public double getTolerance()
+	{
+		return tolerance;
+	}
+
+	/**
+	 * Set the tolerance of the maximal absolute decision value error on the
+	 * validation set.
+	 *
+	 * @param tolerance
+	 *            the tolerance, positive
+	 */
+	public void setTolerance(double tolerance)
+	{
+		if (tolerance <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The tolerance %g must be positive.", tolerance));
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Returns the maximal amount of reduced vectors of a decision function
+	 * whose coefficients are refitted.
+	 *
+	 * @return the maximal refit size
+	 */
+	public int getMaxRefitSize()
+	{
+		return maxRefitSize;
+	}
+
+	/**
+	 * Set the maximal amount of reduced vectors of a decision function whose
+	 * coefficients are refitted (default 2000). The refitting allocates the
+	 * square of it in doubles and costs its cube.
+	 *
+	 * @param maxRefitSize
+	 *            the maximal refit size, positive and at most 46340
+	 */
+	public void setMaxRefitSize(int maxRefitSize)
+	{
+		if (maxRefitSize <= 0 || maxRefitSize > 46340)
+			throw new IllegalArgumentException(String.format(
+					"The maximal refit size %d must be in [1, 46340].",
+					maxRefitSize));
+		this.maxRefitSize = maxRefitSize;
+	}
+
+	/**
+	 * Returns the ridge of the coefficient refitting.
+	 *
+	 * @return the relative ridge
+	 */
+	public double getRidge()
+	{
+		return ridge;
+	}
+
+	/**
+	 * Set the ridge of the coefficient refitting, relative to the mean
+	 * diagonal of the kernel matrix of the reduced set (default 1e-8).
+	 *
+	 * @param ridge
+	 *            the relative ridge, positive
+	 */
+	public void setRidge(double ridge)
+	{
+		if (ridge <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The ridge %g must be positive.", ridge));
+		this.ridge = ridge;
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. ModelPredictor.java is PROPRIETARY/CONFIDENTIAL built in 2013.
+ * Use is subject to license terms.
+ */
+package com.frank.svm.approx;
+
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+
+/**
+ * The exact predictor of a LIBSVM model.
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class ModelPredictor implements Predictor
+{
+	/**
+	 * The predicted model.
+	 */
+	protected svm_model	model;
+
+	/**
+	 * Construct an instance of <tt>ModelPredictor</tt>.
+	 * 
+	 * @param model
+	 *            the predicted model
+	 */
+	public ModelPredictor(svm_model model)
+	{
+		if (model == null)
+			throw new NullPointerException("The model cannot be null.");
+		this.model = model;
+	}
+
+	/**
+	 * Returns the predicted model.
+	 * 
+	 * @return the model
+	 */
+	public svm_model getModel()
+	{
+		return model;
+	}
+
+	/**
+	 * @see com.frank.svm.approx.Predictor#getDecisionCount()
+	 */
+	@Override
+	public int getDecisionCount()
+	{
+		int type = model.param.svm_type;
+		return type == svm_parameter.C_SVC || type == svm_parameter.NU_SVC ? model.nr_class
+				* (model.nr_class - 1) / 2
+				: 1;
+	}
+
+	/**
+	 * @see com.frank.svm.approx.Predictor#predict(libsvm.svm_node[])
+	 */
+	@Override
+	public double predict(svm_node[] x)
+	{
+		return svm.svm_predict(model, x);
+	}
+
+	/**
+	 * @see com.frank.svm.approx.Predictor#predictValues(libsvm.svm_node[],
+	 *      double[])
+	 */
+	@Override
+	public double predictValues(svm_node[] x, double[] decValues)
+	{
+		return svm.svm_predict_values(model, x, decValues);
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. ModelQuantizer.java is PROPRIETARY/CONFIDENTIAL built in 2013.
+ * Use is subject to license terms.
+ */
+package com.frank.svm.approx;
+
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_problem;
+
+/**
+ * The reduced precision converter of trained models.
+ * <p>
+ * The quantizer turns a model into a {@linkplain CompactModel}, from the
+ * smallest precision: the first whose maximal decision value error on the
+ * validation set is within the tolerance is returned. If none is, the exact
+ * {@linkplain ModelPredictor} of the original model is returned, so that the
+ * result always meets the tolerance on the validation set. The sizes of the
+ * report are the sizes of the numeric arrays in kilobytes, counting 12 bytes
+ * per support vector value and 8 bytes per coefficient for the original
+ * model. The report of the last conversion is available through
+ * {@linkplain #getReport()}, so that an instance should not be shared among
+ * threads.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class ModelQuantizer
+{
+	/**
+	 * The precisions tried, from the smallest one.
+	 */
+	private static final int[]		PRECISIONS	= { CompactModel.INT8,
+			CompactModel.FLOAT32			};
+	/**
+	 * The tolerance of the maximal absolute decision value error.
+	 */
+	protected double				tolerance;
+	/**
+	 * The report of the last conversion.
+	 */
+	protected ApproximationReport	report;
+
+	/**
+	 * Construct an instance of <tt>ModelQuantizer</tt>.
+	 *
+	 * @param tolerance
+	 *            the tolerance of the maximal absolute decision value error
+	 *            on the validation set, nonnegative
+	 */
+	public ModelQuantizer(double tolerance)
+	{
+		setTolerance(tolerance);
+	}
+
+	/**
+	 * Convert the specified model to the smallest precision meeting the
+	 * tolerance.
+	 *
+	 * @param model
+	 *            the trained model
+	 * @param validation
+	 *            the validation problem, only its feature vectors are used
+	 * @return the compact model, or the exact predictor of the original model
+	 *         if no precision met the tolerance
+	 */
+	public Predictor quantize(svm_model model, svm_problem validation)
+	{
+		if (model == null)
+			throw new NullPointerException("The model cannot be null.");
+		if (validation == null || validation.l == 0)
+			throw new IllegalArgumentException(
+					"The validation problem cannot be empty.");
+		ModelPredictor exact = new ModelPredictor(model);
+		double[] reference = decisionValues(exact, validation);
+		int originalSize = kilobytes(modelSize(model));
+		for (int precision : PRECISIONS)
+		{
+			CompactModel compact = new CompactModel(model, precision);
+			double[] values = decisionValues(compact, validation);
+			double max = 0, sum = 0;
+			for (int i = 0; i < values.length; i++)
+			{
+				double error = Math.abs(values[i] - reference[i]);
+				max = Math.max(max, error);
+				sum += error;
+			}
+			if (max <= tolerance)
+			{
+				report = new ApproximationReport(originalSize,
+						kilobytes(compact.getMemorySize()), max, sum
+								/ values.length, tolerance, validation.l);
+				return compact;
+			}
+		}
+		report = new ApproximationReport(originalSize, originalSize, 0, 0,
+				tolerance, validation.l);
+		return exact;
+	}
+
+	/**
+	 * Returns the size of the numeric arrays of the specified model in
+	 * bytes.
+	 *
+	 * @param model
+	 *            the model
+	 * @return the size in bytes
+	 */
+	private static long modelSize(svm_model model)
+	{
+		long size = 8L * model.rho.length;
+		for (svm_node[] sv : model.SV)
+			size += 12L * sv.length;
+		for (double[] row : model.sv_coef)
+			size += 8L * row.length;
+		return size;
+	}
+
+	/**
+	 * Returns the specified size in kilobytes, rounded up.
+	 *
+	 * @param bytes
+	 *            the size in bytes
+	 * @return the size in kilobytes
+	 */
+	private static int kilobytes(long bytes)
+	{
+		return (int) Math.min(Integer.MAX_VALUE, (bytes + 1023) / 1024);
+	}
+
+	/**
+	 * Returns the decision values of the specified predictor over the
+	 * specified problem, sample after sample.
+	 *
+	 * @param predictor
+	 *            the predictor
+	 * @param prob
+	 *            the problem
+	 * @return the decision values
+	 */
+	static double[] decisionValues(Predictor predictor, svm_problem prob)
+	{
+		int n = predictor.getDecisionCount();
+		double[] values = new double[prob.l * n];
+		double[] dec = new double[n];
+		for (int i = 0; i < prob.l; i++)
+		{
+			predictor.predictValues(prob.x[i], dec);
+			System.arraycopy(dec, 0, values, i * n, n);
+		}
+		return values;
+	}
+
+	/**
+	 * Returns the report of the last conversion.
+	 *
+	 * @return the report, <code>null</code> before the first conversion
+	 */
+	public ApproximationReport getReport()
+	{
+		return report;
+	}
+
+	/**
+	 * Returns the tolerance of the maximal absolute decision value error.
+	 *
+	 * @return the tolerance
+	 */
+	public double getTolerance()
+	{
+		return tolerance;
+	}
+
+	/**
+	 * Set the tolerance of the maximal absolute decision value error.
+	 *
+	 * @param tolerance
+	 *            the tolerance, nonnegative
+	 */
+	public void setTolerance(double tolerance)
+	{
+		if (!(tolerance >= 0))
+			throw new IllegalArgumentException(String.format(
+					"The tolerance %g must be nonnegative.", tolerance));
+		this.tolerance = tolerance;
+	}
+}
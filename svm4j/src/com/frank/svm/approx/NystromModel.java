@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. NystromModel.java is PROPRIETARY/CONFIDENTIAL built in 2013. Use
+ * is subject to license terms.
+ */
+package com.frank.svm.approx;
+
+import libsvm.svm;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+
+/**
+ * The linear model over the Nystr&ouml;m feature map of a kernel.
+ * <p>
+ * <strong>feature map:</strong><br>
+ * z(<strong>x</strong>) = L<sup>-1</sup> (k(<strong>x</strong>,
+ * <strong>l</strong><sub>1</sub>), ..., k(<strong>x</strong>,
+ * <strong>l</strong><sub>m</sub>))<sup>T</sup><br>
+ * with the landmarks <strong>l</strong><sub>1</sub>..<strong>l</strong>
+ * <sub>m</sub> and their kernel matrix K<sub>mm</sub> = L L<sup>T</sup>
+ * </p>
+ * <p>
+ * The inner product of two mapped samples is the kernel value projected onto
+ * the span of the landmarks in the feature space. A prediction costs m kernel
+ * evaluations, m<sup>2</sup>/2 for the triangular solve and O(m) per decision
+ * function. The model is built by {@linkplain NystromTrainer}.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class NystromModel extends FeatureMapModel
+{
+	/**
+	 * The landmarks.
+	 */
+	protected svm_node[][]	landmarks;
+	/**
+	 * The kernel parameter.
+	 */
+	protected svm_parameter	param;
+	/**
+	 * The lower triangular Cholesky factor of the kernel matrix of the
+	 * landmarks, row-major.
+	 */
+	protected double[]		factor;
+
+	/**
+	 * Construct an instance of <tt>NystromModel</tt> with zero weights.
+	 *
+	 * @param svmType
+	 *            the support vector machine type
+	 * @param nrClass
+	 *            the amount of classes
+	 * @param label
+	 *            the class labels, <code>null</code> for regression and
+	 *            one-class SVM
+	 * @param landmarks
+	 *            the landmarks
+	 * @param param
+	 *            the kernel parameter
+	 * @param factor
+	 *            the lower triangular Cholesky factor of the kernel matrix of
+	 *            the landmarks, row-major
+	 */
+	protected NystromModel(int svmType, int nrClass, int[] label,
+			svm_node[][] landmarks, svm_parameter param, double[] factor)
+	{
+		super(svmType, nrClass, label, landmarks.length);
+		this.landmarks = landmarks;
+		this.param = param;
+		this.factor = factor;
+	}
+
+	/**
+	 * Returns the amount of landmarks.
+	 *
+	 * @return the amount of landmarks
+	 */
+	public int getLandmarkCount()
+	{
+		return landmarks.length;
+	}
+
+	/**
+	 * @see com.frank.svm.approx.FeatureMapModel#map(libsvm.svm_node[],
+	 *      double[])
+	 */
+	@Override
+	protected void map(svm_node[] x, double[] z)
+	{
+		int m = dimension;
+		for (int i = 0; i < m; i++)
+		{
+			double sum = svm.svm_k_function(x, landmarks[i], param);
+			int row = i * m;
+			for (int k = 0; k < i; k++)
+				sum -= factor[row + k] * z[k];
+			z[i] = sum / factor[row + i];
+		}
+	}
+}
@@ -0,0 +1,527 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. NystromTrainer.java is PROPRIETARY/CONFIDENTIAL built in 2013.
+ * Use is subject to license terms.
+ */
+package com.frank.svm.approx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import libsvm.svm;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+import libsvm.svm_problem;
+
+/**
+ * The Nystr&ouml;m low-rank trainer of C-SVC.
+ * <p>
+ * Instead of solving the kernel problem, whose cost grows superlinearly with
+ * the amount of samples, the trainer samples m landmarks, maps every sample
+ * through the Nystr&ouml;m feature map of the kernel of the parameter, and
+ * trains the linear hinge loss SVM of each pair of classes in the
+ * m-dimensional space by dual coordinate descent, the bias being an extra
+ * feature of value 1. The training costs l &times; m kernel evaluations and
+ * O(l &times; m) per pass of the coordinate descent. The mapped samples are
+ * kept as floats up to the cache size, the others are mapped again whenever
+ * the coordinate descent visits them, at the cost of m kernel evaluations and
+ * O(m<sup>2</sup>) operations each. The cost C and the class weights are
+ * taken from the parameter, the tolerance of the coordinate descent is the
+ * one of the trainer.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class NystromTrainer
+{
+	/**
+	 * The size in MB of the cache of the mapped samples (default 1024).
+	 */
+	protected double	cacheSize	= 1024;
+	/**
+	 * The amount of landmarks.
+	 */
+	protected int		landmarks;
+	/**
+	 * The seed of the landmark sampling and of the coordinate order (default
+	 * 0).
+	 */
+	protected long		seed;
+	/**
+	 * The tolerance of the projected gradient of the coordinate descent
+	 * (default 0.1).
+	 */
+	protected double	eps			= 0.1;
+	/**
+	 * The maximal amount of passes of the coordinate descent (default 1000).
+	 */
+	protected int		maxIterations	= 1000;
+	/**
+	 * The ridge of the kernel matrix of the landmarks, relative to its mean
+	 * diagonal (default 1e-8).
+	 */
+	protected double	ridge		= 1e-8;
+
+	/**
+	 * Construct an instance of <tt>NystromTrainer</tt>.
+	 *
+	 * @param landmarks
+	 *            the amount of landmarks, positive
+	 */
+	public NystromTrainer(int landmarks)
+	{
+		setLandmarks(landmarks);
+	}
+
+	/**
+	 * Train the model of the specified problem.
+	 *
+	 * @param prob
+	 *            the training problem
+	 * @param param
+	 *            the C-SVC parameter with its kernel
+	 * @return the Nystr&ouml;m model
+	 */
+	public NystromModel train(svm_problem prob, svm_parameter param)
+	{
+		if (prob == null || prob.l == 0)
+			throw new IllegalArgumentException(
+					"The training problem cannot be empty.");
+		if (param.svm_type != svm_parameter.C_SVC)
+			throw new IllegalArgumentException(
+					"Only C-SVC can be trained with the Nystrom feature map.");
+		if (param.kernel_type == svm_parameter.PRECOMPUTED)
+			throw new IllegalArgumentException(
+					"The precomputed kernel has no Nystrom feature map.");
+		int l = prob.l;
+		param = (svm_parameter) param.clone();
+		param.control = null;
+		if (param.gamma == 0)
+		{
+			// the default 1/features_count of the training
+			int features = 0;
+			for (svm_node[] x : prob.x)
+				for (svm_node node : x)
+					features = Math.max(features, node.index);
+			if (features > 0)
+				param.gamma = 1.0 / features;
+		}
+		Random rand = new Random(seed);
+		// sample the landmarks without replacement
+		int m = Math.min(landmarks, l);
+		if ((long) m * m > Integer.MAX_VALUE)
+			throw new IllegalArgumentException(String.format(
+					"The %d landmarks are too many for their kernel matrix.",
+					m));
+		int[] order = new int[l];
+		for (int i = 0; i < l; i++)
+			order[i] = i;
+		for (int i = 0; i < m; i++)
+		{
+			int j = i + rand.nextInt(l - i);
+			int t = order[i];
+			order[i] = order[j];
+			order[j] = t;
+		}
+		svm_node[][] points = new svm_node[m][];
+		for (int i = 0; i < m; i++)
+			points[i] = prob.x[order[i]];
+		double[] K = new double[m * m];
+		double trace = 0;
+		for (int i = 0; i < m; i++)
+		{
+			for (int j = 0; j < i; j++)
+				K[i * m + j] = K[j * m + i] = svm.svm_k_function(points[i],
+						points[j], param);
+			K[i * m + i] = svm.svm_k_function(points[i], points[i], param);
+			trace += K[i * m + i];
+		}
+		double lambda = ridge * Math.max(trace / m, Double.MIN_NORMAL);
+		double[] L = null;
+		// raise the ridge until the matrix is numerically positive definite
+		for (int attempt = 0; L == null && attempt < 20; attempt++)
+		{
+			L = Cholesky.decompose(K, m, lambda);
+			lambda *= 10;
+		}
+		if (L == null)
+			throw new IllegalArgumentException(
+					"The kernel matrix of the landmarks is degenerate.");
+		// group the classes in the order of their first appearance
+		Map<Integer, List<Integer>> groups = new LinkedHashMap<Integer, List<Integer>>();
+		for (int i = 0; i < l; i++)
+		{
+			List<Integer> members = groups.get((int) prob.y[i]);
+			if (members == null)
+				groups.put((int) prob.y[i], members = new ArrayList<Integer>());
+			members.add(i);
+		}
+		int nr_class = groups.size();
+		int[] label = new int[nr_class];
+		List<List<Integer>> members = new ArrayList<List<Integer>>();
+		int c = 0;
+		for (Map.Entry<Integer, List<Integer>> e : groups.entrySet())
+		{
+			label[c++] = e.getKey();
+			members.add(e.getValue());
+		}
+		NystromModel model = new NystromModel(param.svm_type, nr_class,
+				label, points, param, L);
+		if (nr_class == 1)
+		{
+			// a single class is always predicted
+			return model;
+		}
+		MappedSamples Z = new MappedSamples(model, prob.x, l, m,
+				(long) (cacheSize * (1 << 20)));
+		double[] w = new double[m + 1];
+		int t = 0;
+		for (int i = 0; i < nr_class; i++)
+			for (int j = i + 1; j < nr_class; j++)
+			{
+				solve(Z, m, members.get(i), members.get(j), param.C
+						* weight(param, label[i]), param.C
+						* weight(param, label[j]), w, rand);
+				System.arraycopy(w, 0, model.weight, t * m, m);
+				model.bias[t++] = w[m];
+			}
+		return model;
+	}
+
+	/**
+	 * The mapped samples, the first ones cached as floats in blocks of rows,
+	 * the others mapped again whenever they are read.
+	 */
+	private static class MappedSamples
+	{
+		/**
+		 * The floats of a block of cached rows.
+		 */
+		private static final int	BLOCK	= 1 << 24;
+		private final float[][]		blocks;
+		private final int			cached;
+		private final int			m;
+		private final NystromModel	model;
+		private final int			rowsPerBlock;
+		private final svm_node[][]	x;
+
+		/**
+		 * Map the samples and cache the first ones.
+		 *
+		 * @param model
+		 *            the model of the feature map
+		 * @param x
+		 *            the samples
+		 * @param l
+		 *            the amount of samples
+		 * @param m
+		 *            the dimension of the mapped samples
+		 * @param bytes
+		 *            the size in bytes of the cache
+		 */
+		MappedSamples(NystromModel model, svm_node[][] x, int l, int m,
+				long bytes)
+		{
+			this.model = model;
+			this.x = x;
+			this.m = m;
+			rowsPerBlock = Math.max(1, BLOCK / m);
+			cached = (int) Math.min(l, bytes / (4L * m));
+			blocks = new float[(cached + rowsPerBlock - 1) / rowsPerBlock][];
+			double[] z = new double[m];
+			for (int b = 0; b < blocks.length; b++)
+			{
+				int first = b * rowsPerBlock;
+				int rows = Math.min(rowsPerBlock, cached - first);
+				float[] block = blocks[b] = new float[rows * m];
+				for (int r = 0; r < rows; r++)
+				{
+					model.map(x[first + r], z);
+					for (int k = 0; k < m; k++)
+						block[r * m + k] = (float) z[k];
+				}
+			}
+		}
+
+		/**
+		 * Read the mapped sample i.
+		 *
+		 * @param i
+		 *            the sample
+		 * @param z
+		 *            the mapped sample, overwritten
+		 */
+		void get(int i, double[] z)
+		{
+			if (i >= cached)
+			{
+				model.map(x[i], z);
+				// rounded as the cached rows
+				for (int k = 0; k < m; k++)
+					z[k] = (float) z[k];
+				return;
+			}
+			float[] block = blocks[i / rowsPerBlock];
+			int row = i % rowsPerBlock * m;
+			for (int k = 0; k < m; k++)
+				z[k] = block[row + k];
+		}
+	}
+
+	/**
+	 * Returns the cost weight of the specified class.
+	 *
+	 * @param param
+	 *            the parameter
+	 * @param label
+	 *            the class label
+	 * @return the weight of the cost
+	 */
+	private static double weight(svm_parameter param, int label)
+	{
+		for (int i = 0; i < param.nr_weight; i++)
+			if (param.weight_label[i] == label)
+				return param.weight[i];
+		return 1;
+	}
+
+	/**
+	 * Solve the dual of the binary hinge loss SVM by coordinate descent.
+	 *
+	 * @param Z
+	 *            the mapped samples
+	 * @param m
+	 *            the dimension of the mapped samples
+	 * @param positive
+	 *            the samples labelled +1
+	 * @param negative
+	 *            the samples labelled -1
+	 * @param Cp
+	 *            the cost of the positive samples
+	 * @param Cn
+	 *            the cost of the negative samples
+	 * @param w
+	 *            the weights and the bias as the last element, overwritten
+	 * @param rand
+	 *            the random generator of the coordinate order
+	 */
+	private void solve(MappedSamples Z, int m, List<Integer> positive,
+			List<Integer> negative, double Cp, double Cn, double[] w,
+			Random rand)
+	{
+		int n = positive.size() + negative.size();
+		int[] index = new int[n];
+		byte[] y = new byte[n];
+		for (int i = 0; i < n; i++)
+		{
+			boolean p = i < positive.size();
+			index[i] = p ? positive.get(i) : negative.get(i - positive.size());
+			y[i] = (byte) (p ? 1 : -1);
+		}
+		double[] alpha = new double[n];
+		double[] QD = new double[n];
+		double[] z = new double[m];
+		for (int i = 0; i < n; i++)
+		{
+			Z.get(index[i], z);
+			double sum = 1; // the bias feature
+			for (int k = 0; k < m; k++)
+				sum += z[k] * z[k];
+			QD[i] = sum;
+		}
+		Arrays.fill(w, 0);
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		for (int iter = 0; iter < maxIterations; iter++)
+		{
+			for (int i = 0; i < n; i++)
+			{
+				int j = i + rand.nextInt(n - i);
+				int s = order[i];
+				order[i] = order[j];
+				order[j] = s;
+			}
+			double PGmax = Double.NEGATIVE_INFINITY;
+			double PGmin = Double.POSITIVE_INFINITY;
+			for (int s = 0; s < n; s++)
+			{
+				int i = order[s];
+				Z.get(index[i], z);
+				double U = y[i] > 0 ? Cp : Cn;
+				double G = w[m];
+				for (int k = 0; k < m; k++)
+					G += w[k] * z[k];
+				G = y[i] * G - 1;
+				double PG = G;
+				if (alpha[i] == 0)
+					PG = Math.min(G, 0);
+				else if (alpha[i] == U)
+					PG = Math.max(G, 0);
+				PGmax = Math.max(PGmax, PG);
+				PGmin = Math.min(PGmin, PG);
+				if (Math.abs(PG) > 1e-12)
+				{
+					double old = alpha[i];
+					alpha[i] = Math.min(Math.max(old - G / QD[i], 0), U);
+					double d = (alpha[i] - old) * y[i];
+					for (int k = 0; k < m; k++)
+						w[k] += d * z[k];
+					w[m] += d;
+				}
+			}
+			if (PGmax - PGmin <= eps)
+				break;
+		}
+	}
+
+	/**
+	 * Returns the size in MB of the cache of the mapped samples.
+	 *
+	 * @return the cache size
+	 */
+	public double getCacheSize()
+	{
+		return cacheSize;
+	}
+
+	/**
+	 * Set the size in MB of the cache of the mapped samples. The samples
+	 * beyond the cache are mapped again whenever they are visited.
+	 *
+	 * @param cacheSize
+	 *            the cache size, non-negative
+	 */
+	public void setCacheSize(double cacheSize)
+	{
+		if (cacheSize < 0)
+			throw new IllegalArgumentException(String.format(
+					"The cache size %g cannot be negative.", cacheSize));
+		this.cacheSize = cacheSize;
+	}
+
+	/**
+	 * Returns the amount of landmarks.
+	 *
+	 * @return the amount of landmarks
+	 */
+	public int getLandmarks()
+	{
+		return landmarks;
+	}
+
+	/**
+	 * Set the amount of landmarks.
+	 *
+	 * @param landmarks
+	 *            the amount of landmarks, positive
+	 */
+	public void setLandmarks(int landmarks)
+	{
+		if (landmarks <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The amount of landmarks %d must be positive.", landmarks));
+		this.landmarks = landmarks;
+	}
+
+	/**
+	 * Returns the seed of the landmark sampling and of the coordinate order.
+	 *
+	 * @return the seed
+	 */
+	public long getSeed()
+	{
+		return seed;
+	}
+
+	/**
+	 * Set the seed of the landmark sampling and of the coordinate order.
+	 *
+	 * @param seed
+	 *            the seed
+	 */
+	public void setSeed(long seed)
+	{
+		this.seed = seed;
+	}
+
+	/**
+	 * Returns the tolerance of the projected gradient of the coordinate
+	 * descent.
+	 *
+	 * @return the tolerance
+	 */
+	public double getEps()
+	{
+		return eps;
+	}
+
+	/**
+	 * Set the tolerance of the projected gradient of the coordinate descent.
+	 *
+	 * @param eps
+	 *            the tolerance, positive
+	 */
+	public void setEps(double eps)
+	{
+		if (eps <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The tolerance %g must be positive.", eps));
+		this.eps = eps;
+	}
+
+	/**
+	 * Returns the maximal amount of passes of the coordinate descent.
+	 *
+	 * @return the maximal amount of passes
+	 */
+	public int getMaxIterations()
+	{
+		return maxIterations;
+	}
+
+	/**
+	 * Set the maximal amount of passes of the coordinate descent.
+	 *
+	 * @param maxIterations
+	 *            the maximal amount of passes, positive
+	 */
+	public void setMaxIterations(int maxIterations)
+	{
+		if (maxIterations <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The maximal amount of iterations %d must be positive.",
+					maxIterations));
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * Returns the ridge of the kernel matrix of the landmarks.
+	 *
+	 * @return the relative ridge
+	 */
+	public double getRidge()
+	{
+		return ridge;
+	}
+
+	/**
+	 * Set the ridge of the kernel matrix of the landmarks, relative to its
+	 * mean diagonal.
+	 *
+	 * @param ridge
+	 *            the relative ridge, positive
+	 */
+	public void setRidge(double ridge)
+	{
+		if (ridge <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The ridge %g must be positive.", ridge));
+		this.ridge = ridge;
+	}
+}
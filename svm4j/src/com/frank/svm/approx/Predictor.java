@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. Predictor.java is PROPRIETARY/CONFIDENTIAL built in 2013. Use is
+ * subject to license terms.
+ */
+package com.frank.svm.approx;
+
+import libsvm.svm_node;
+
+/**
+ * The predictor of a trained model.
+ * <p>
+ * A predictor evaluates the decision functions of a model in the layout of
+ * {@linkplain libsvm.svm#svm_predict_values(libsvm.svm_model, svm_node[], double[])}:
+ * for a classification model with k classes there are k&times;(k-1)/2
+ * decision functions, one per pair of classes i &lt; j ordered by i then j;
+ * for the other models there is a single one. The exact predictor of a
+ * {@linkplain libsvm.svm_model} and its approximations share this interface,
+ * so that they can replace each other.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public interface Predictor
+{
+	/**
+	 * Returns the amount of decision functions.
+	 * 
+	 * @return the amount of decision values of a prediction
+	 */
+	public int getDecisionCount();
+
+	/**
+	 * Predict the specified sample.
+	 * 
+	 * @param x
+	 *            the feature vector of the sample
+	 * @return the predicted label for classification, the predicted value for
+	 *         regression, +1 or -1 for one-class SVM
+	 */
+	public double predict(svm_node[] x);
+
+	/**
+	 * Predict the specified sample and store its decision values.
+	 * 
+	 * @param x
+	 *            the feature vector of the sample
+	 * @param decValues
+	 *            the decision values, of length {@link #getDecisionCount()}
+	 *            at least
+	 * @return the predicted label for classification, the predicted value for
+	 *         regression, +1 or -1 for one-class SVM
+	 */
+	public double predictValues(svm_node[] x, double[] decValues);
+}
@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. package-info.java is PROPRIETARY/CONFIDENTIAL built in 2013. Use is
+ * subject to license terms.
+ */
+/**
+ * The approximation package of LIBSVM models.
+ * <p>
+ * In this package, trained models are turned into cheaper ones, whose
+ * decision values stay within a tolerance of the original ones on a
+ * validation set.
+ * </p>
+ * <p>
+ * The exact models and their approximations are all scored through the
+ * {@linkplain com.frank.svm.approx.Predictor} interface.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+package com.frank.svm.approx;
@@ -0,0 +1,646 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. CascadeTrainer.java is PROPRIETARY/CONFIDENTIAL built in 2013.
+ * Use is subject to license terms.
+ */
+package com.frank.svm.cascade;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+import libsvm.svm_problem;
+import libsvm.svm_store;
+import libsvm.svm_train_control;
+
+/**
+ * The cascade trainer of LIBSVM models.
+ * <p>
+ * The problem is split into partitions, stratified by the class labels for
+ * the classification, which are trained in parallel. The support vectors of
+ * each pair of sibling partitions are merged into a partition of the next
+ * layer, which is trained again, until a single partition remains, whose
+ * model is the result. The non-support vectors of a partition are unlikely to
+ * be support vectors of the whole problem, so that each layer trains much
+ * smaller problems than the whole one.
+ * </p>
+ * <p>
+ * With the feedback, the support vectors of the result are added to every
+ * partition of the first layer and the cascade is trained again, until its
+ * set of support vectors is stable or the maximal amount of passes is
+ * reached. The solutions of a cascade with the feedback converge to the one
+ * of the whole problem.
+ * </p>
+ * <p>
+ * The partitions are trained either by the threads of the trainer, or by
+ * worker JVMs forked on the local machine, which run
+ * {@linkplain CascadeWorker} on the class path of the current JVM, with the
+ * options of the trainer, e.g. their heap size. The problems and the models
+ * are exchanged through serialized temporary files. The probability
+ * estimates are only trained at the top of the cascade. The linear kernel is
+ * always trained by SMO, whose models keep their support vectors.
+ * </p>
+ * <p>
+ * The training control of the parameter, if any, is checked between the
+ * layers, where it throws a {@link CancellationException} under
+ * {@link svm_train_control#ABORT} and ends the feedback under
+ * {@link svm_train_control#RETURN_PARTIAL}, returning the model of the last
+ * pass if any. The threads of the trainer also
+ * pass it to the solvers of their partitions, which stop at their next
+ * check, and call its progress receiver concurrently. The worker processes
+ * are not controlled, so that the {@linkplain #PROCESSES} mode only supports
+ * the cancellation between the layers.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class CascadeTrainer
+{
+	/**
+	 * The partitions trained by the threads of the trainer.
+	 */
+	public static final int	THREADS		= 0;
+	/**
+	 * The partitions trained by local worker processes.
+	 */
+	public static final int	PROCESSES	= 1;
+	/**
+	 * The amount of partitions of the first layer (default 8).
+	 */
+	protected int			partitions	= 8;
+	/**
+	 * The way of training the partitions (default {@linkplain #THREADS}).
+	 */
+	protected int			mode		= THREADS;
+	/**
+	 * The amount of partitions trained at the same time (default the amount
+	 * of processors).
+	 */
+	protected int			workers		= Runtime.getRuntime()
+												.availableProcessors();
+	/**
+	 * The maximal amount of passes over the cascade, 1 for no feedback
+	 * (default 1).
+	 */
+	protected int			maxPasses	= 1;
+	/**
+	 * The seed of the partitioning (default 0).
+	 */
+	protected long			seed;
+	/**
+	 * The JVM options of the worker processes (default none).
+	 */
+	protected String[]		workerOptions	= new String[0];
+	/**
+	 * The amount of passes of the last training.
+	 */
+	protected int			passes;
+
+	/**
+	 * Construct a default <tt>CascadeTrainer</tt>.
+	 */
+	public CascadeTrainer()
+	{
+	}
+
+	/**
+	 * Construct an instance of <tt>CascadeTrainer</tt>.
+	 *
+	 * @param partitions
+	 *            the amount of partitions of the first layer, positive
+	 * @param mode
+	 *            {@linkplain #THREADS} or {@linkplain #PROCESSES}
+	 */
+	public CascadeTrainer(int partitions, int mode)
+	{
+		setPartitions(partitions);
+		setMode(mode);
+	}
+
+	/**
+	 * Train the model of the specified problem through the cascade.
+	 *
+	 * @param prob
+	 *            the training problem
+	 * @param param
+	 *            the parameter
+	 * @return the model, whose support vectors are the feature vectors of the
+	 *         problem, read into the heap for a problem of a store
+	 * @throws IOException
+	 *             if a worker process fails
+	 * @throws InterruptedException
+	 *             if the current thread is interrupted while waiting for the
+	 *             partitions
+	 * @throws CancellationException
+	 *             if the training control stops the training under
+	 *             {@link svm_train_control#ABORT}
+	 */
+	public svm_model train(svm_problem prob, svm_parameter param)
+			throws IOException, InterruptedException
+	{
+		if (prob == null || prob.l == 0)
+			throw new IllegalArgumentException(
+					"The training problem cannot be empty.");
+		String error = svm.svm_check_parameter(prob, param);
+		if (error != null)
+			throw new IllegalArgumentException(error);
+		param = (svm_parameter) param.clone();
+		// the layers merge the support vectors of the partitions, which the
+		// collapsed models of the linear solvers do not have
+		param.linear_solver = svm_parameter.SMO;
+		svm_train_control control = param.control;
+		svm_parameter layer = (svm_parameter) param.clone();
+		layer.probability = 0;
+		List<int[]> first = partition(prob, param);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(
+				workers, first.size()));
+		try
+		{
+			svm_model model = null;
+			int[] previous = null;
+			boolean[] mark = new boolean[prob.l];
+			for (passes = 1;; passes++)
+			{
+				List<int[]> sets = new ArrayList<int[]>();
+				for (int[] set : first)
+					sets.add(previous == null ? set : union(set, previous, mark));
+				while (sets.size() > 1)
+				{
+					if (stopped(control) && model != null)
+						return model;
+					List<Future<svm_model>> results = new ArrayList<Future<svm_model>>();
+					for (int[] set : sets)
+						results.add(executor.submit(task(prob, set, layer)));
+					List<int[]> next = new ArrayList<int[]>();
+					for (int i = 0; i < results.size(); i += 2)
+					{
+						int[] left = supportVectors(results.get(i), sets.get(i));
+						next.add(i + 1 < results.size() ? union(left,
+								supportVectors(results.get(i + 1),
+										sets.get(i + 1)), mark) : left);
+					}
+					sets = next;
+				}
+				if (stopped(control) && model != null)
+					return model;
+				model = task(prob, sets.get(0), param).call();
+				int[] sv = supportVectors(model);
+				if (previous != null && Arrays.equals(sv, previous)
+						|| passes >= maxPasses || stopped(control))
+					break;
+				previous = sv;
+			}
+			return model;
+		}
+		catch (IOException e)
+		{
+			throw e;
+		}
+		catch (RuntimeException e)
+		{
+			throw e;
+		}
+		catch (InterruptedException e)
+		{
+			throw e;
+		}
+		catch (Exception e)
+		{
+			throw new IllegalStateException(e);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Split the samples of the specified problem into the partitions of the
+	 * first layer, dealing the shuffled samples of each class in turn for the
+	 * classification.
+	 *
+	 * @param prob
+	 *            the problem
+	 * @param param
+	 *            the parameter
+	 * @return the sorted samples of each partition
+	 */
+	private List<int[]> partition(svm_problem prob, svm_parameter param)
+	{
+		int l = prob.l;
+		List<Integer> order = new ArrayList<Integer>(l);
+		for (int i = 0; i < l; i++)
+			order.add(i);
+		Collections.shuffle(order, new Random(seed));
+		if (param.svm_type == svm_parameter.C_SVC
+				|| param.svm_type == svm_parameter.NU_SVC)
+		{
+			Map<Double, List<Integer>> classes = new LinkedHashMap<Double, List<Integer>>();
+			for (int i : order)
+			{
+				List<Integer> members = classes.get(prob.y[i]);
+				if (members == null)
+					classes.put(prob.y[i], members = new ArrayList<Integer>());
+				members.add(i);
+			}
+			order.clear();
+			for (List<Integer> members : classes.values())
+				order.addAll(members);
+		}
+		int n = Math.min(partitions, l);
+		int[] size = new int[n];
+		for (int i = 0; i < l; i++)
+			size[i % n]++;
+		int[][] sets = new int[n][];
+		for (int p = 0; p < n; p++)
+			sets[p] = new int[size[p]];
+		for (int i = 0; i < l; i++)
+			sets[i % n][i / n] = order.get(i);
+		List<int[]> result = new ArrayList<int[]>(n);
+		for (int[] set : sets)
+		{
+			Arrays.sort(set);
+			result.add(set);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the training of the specified samples of the problem.
+	 *
+	 * @param prob
+	 *            the problem
+	 * @param set
+	 *            the sorted samples
+	 * @param param
+	 *            the parameter
+	 * @return the training, whose model refers to the samples of the problem
+	 */
+	private Callable<svm_model> task(final svm_problem prob, final int[] set,
+			final svm_parameter param)
+	{
+		return new Callable<svm_model>()
+		{
+			@Override
+			public svm_model call() throws IOException, InterruptedException
+			{
+				svm_problem sub = new svm_problem();
+				sub.l = set.length;
+				sub.x = new svm_node[sub.l][];
+				sub.y = new double[sub.l];
+				for (int i = 0; i < sub.l; i++)
+				{
+					// the handles of a store cannot be sent to a worker
+					sub.x[i] = mode == PROCESSES ? svm_store
+							.resolve(prob.x[set[i]]) : prob.x[set[i]];
+					sub.y[i] = prob.y[set[i]];
+				}
+				svm_model model = mode == PROCESSES ? fork(sub, param) : svm
+						.svm_train(sub, param);
+				// refer to the positions of the problem, and to the sent rows
+				// instead of the copies of the worker; svm_train keeps the
+				// rows of the problem, read from the store if any
+				for (int i = 0; i < model.l; i++)
+				{
+					int k = model.sv_indices[i] - 1;
+					model.sv_indices[i] = set[k] + 1;
+					if (mode == PROCESSES)
+						model.SV[i] = sub.x[k];
+				}
+				return model;
+			}
+		};
+	}
+
+	/**
+	 * Train the specified problem in a worker process.
+	 *
+	 * @param prob
+	 *            the problem
+	 * @param param
+	 *            the parameter
+	 * @return the model
+	 * @throws IOException
+	 *             if the worker fails
+	 * @throws InterruptedException
+	 *             if the current thread is interrupted while waiting for the
+	 *             worker
+	 */
+	private svm_model fork(svm_problem prob, svm_parameter param)
+			throws IOException, InterruptedException
+	{
+		File input = File.createTempFile("svm-cascade", ".problem");
+		File output = File.createTempFile("svm-cascade", ".model");
+		try
+		{
+			ObjectOutputStream out = new ObjectOutputStream(
+					new BufferedOutputStream(new FileOutputStream(input)));
+			try
+			{
+				out.writeObject(prob);
+				out.writeObject(param);
+			}
+			finally
+			{
+				out.close();
+			}
+			List<String> command = new ArrayList<String>();
+			command.add(new File(new File(System.getProperty("java.home"),
+					"bin"), "java").getPath());
+			Collections.addAll(command, workerOptions);
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(CascadeWorker.class.getName());
+			command.add(input.getPath());
+			command.add(output.getPath());
+			Process process = new ProcessBuilder(command).inheritIO().start();
+			int status;
+			try
+			{
+				status = process.waitFor();
+			}
+			catch (InterruptedException e)
+			{
+				process.destroy();
+				throw e;
+			}
+			if (status != 0)
+				throw new IOException(String.format(
+						"The cascade worker failed with the status %d.", status));
+			ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(
+					new FileInputStream(output)));
+			try
+			{
+				return (svm_model) in.readObject();
+			}
+			catch (ClassNotFoundException e)
+			{
+				throw new IOException(e);
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		finally
+		{
+			input.delete();
+			output.delete();
+		}
+	}
+
+	/**
+	 * Returns the result of the specified training.
+	 */
+	private static svm_model get(Future<svm_model> result)
+			throws Exception
+	{
+		try
+		{
+			return result.get();
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the specified control has stopped the training,
+	 * throwing a {@link CancellationException} under
+	 * {@link svm_train_control#ABORT}.
+	 */
+	private static boolean stopped(svm_train_control control)
+	{
+		if (control == null || !control.is_stopped())
+			return false;
+		if (control.policy == svm_train_control.ABORT)
+			throw new CancellationException("training "
+					+ control.stop_reason());
+		return true;
+	}
+
+	/**
+	 * Returns the sorted support vectors of the specified training of the
+	 * samples, or the samples if it has none, e.g. when its solver has been
+	 * stopped by the training control.
+	 */
+	private static int[] supportVectors(Future<svm_model> result, int[] set)
+			throws Exception
+	{
+		int[] sv = supportVectors(get(result));
+		return sv.length == 0 ? set : sv;
+	}
+
+	/**
+	 * Returns the sorted positions of the support vectors of the specified
+	 * model in the problem.
+	 */
+	private static int[] supportVectors(svm_model model)
+	{
+		int[] sv = new int[model.l];
+		for (int i = 0; i < model.l; i++)
+			sv[i] = model.sv_indices[i] - 1;
+		Arrays.sort(sv);
+		return sv;
+	}
+
+	/**
+	 * Returns the sorted union of the specified sorted samples.
+	 */
+	private static int[] union(int[] a, int[] b, boolean[] mark)
+	{
+		int n = 0;
+		int[] result = new int[a.length + b.length];
+		for (int i : a)
+		{
+			mark[i] = true;
+			result[n++] = i;
+		}
+		for (int i : b)
+			if (!mark[i])
+				result[n++] = i;
+		for (int i : a)
+			mark[i] = false;
+		result = Arrays.copyOf(result, n);
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * Returns the amount of passes over the cascade of the last training.
+	 *
+	 * @return the amount of passes
+	 */
+	public int getPasses()
+	{
+		return passes;
+	}
+
+	/**
+	 * Returns the amount of partitions of the first layer.
+	 *
+	 * @return the amount of partitions
+	 */
+	public int getPartitions()
+	{
+		return partitions;
+	}
+
+	/**
+	 * Set the amount of partitions of the first layer.
+	 *
+	 * @param partitions
+	 *            the amount of partitions, positive
+	 */
+	public void setPartitions(int partitions)
+	{
+		if (partitions <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The amount of partitions %d must be positive.", partitions));
+		this.partitions = partitions;
+	}
+
+	/**
+	 * Returns the way of training the partitions.
+	 *
+	 * @return {@linkplain #THREADS} or {@linkplain #PROCESSES}
+	 */
+	public int getMode()
+	{
+		return mode;
+	}
+
+	/**
+	 * Set the way of training the partitions.
+	 *
+	 * @param mode
+	 *            {@linkplain #THREADS} or {@linkplain #PROCESSES}
+	 */
+	public void setMode(int mode)
+	{
+		if (mode != THREADS && mode != PROCESSES)
+			throw new IllegalArgumentException(String.format(
+					"The mode %d is unknown.", mode));
+		this.mode = mode;
+	}
+
+	/**
+	 * Returns the amount of partitions trained at the same time.
+	 *
+	 * @return the amount of workers
+	 */
+	public int getWorkers()
+	{
+		return workers;
+	}
+
+	/**
+	 * Set the amount of partitions trained at the same time.
+	 *
+	 * @param workers
+	 *            the amount of workers, positive
+	 */
+	public void setWorkers(int workers)
+	{
+		if (workers <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The amount of workers %d must be positive.", workers));
+		this.workers = workers;
+	}
+
+	/**
+	 * Returns the maximal amount of passes over the cascade.
+	 *
+	 * @return the maximal amount of passes, 1 for no feedback
+	 */
+	public int getMaxPasses()
+	{
+		return maxPasses;
+	}
+
+	/**
+	 * Set the maximal amount of passes over the cascade, the feedback
+	 * stopping earlier once the support vectors are stable.
+	 *
+	 * @param maxPasses
+	 *            the maximal amount of passes, 1 for no feedback
+	 */
+	public void setMaxPasses(int maxPasses)
+	{
+		if (maxPasses <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The maximal amount of passes %d must be positive.",
+					maxPasses));
+		this.maxPasses = maxPasses;
+	}
+
+	/**
+	 * Returns the seed of the partitioning.
+	 *
+	 * @return the seed
+	 */
+	public long getSeed()
+	{
+		return seed;
+	}
+
+	/**
+	 * Set the seed of the partitioning.
+	 *
+	 * @param seed
+	 *            the seed
+	 */
+	public void setSeed(long seed)
+	{
+		this.seed = seed;
+	}
+
+	/**
+	 * Returns the JVM options of the worker processes.
+	 *
+	 * @return the options
+	 */
+	public String[] getWorkerOptions()
+	{
+		return workerOptions;
+	}
+
+	/**
+	 * Set the JVM options of the worker processes, e.g.
+	 * <code>-Xmx4g</code>.
+	 *
+	 * @param workerOptions
+	 *            the options, <code>null</code> for none
+	 */
+	public void setWorkerOptions(String... workerOptions)
+	{
+		this.workerOptions = workerOptions == null ? new String[0]
+				: workerOptions;
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. CascadeWorker.java is PROPRIETARY/CONFIDENTIAL built in 2013. Use
+ * is subject to license terms.
+ */
+package com.frank.svm.cascade;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_parameter;
+import libsvm.svm_print_interface;
+import libsvm.svm_problem;
+
+/**
+ * The worker process of the cascade training.
+ * <p>
+ * The worker reads the serialized problem and parameter of its input file,
+ * trains the model and writes it serialized to its output file. It exits
+ * with the status 1 on any failure, the cause being printed to the standard
+ * error.
+ * </p>
+ * <p>
+ * <strong>usage:</strong> <code>java com.frank.svm.cascade.CascadeWorker
+ * input output</code>
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public final class CascadeWorker
+{
+	private CascadeWorker()
+	{
+	}
+
+	/**
+	 * Train the problem of the input file into the output file.
+	 *
+	 * @param args
+	 *            the input and the output files
+	 */
+	public static void main(String[] args)
+	{
+		if (args.length != 2)
+		{
+			System.err.println("Usage: CascadeWorker input output");
+			System.exit(1);
+		}
+		try
+		{
+			svm.svm_set_print_string_function(new svm_print_interface()
+			{
+				@Override
+				public void print(String s)
+				{
+				}
+			});
+			svm_problem prob;
+			svm_parameter param;
+			ObjectInputStream in = new ObjectInputStream(
+					new BufferedInputStream(new FileInputStream(args[0])));
+			try
+			{
+				prob = (svm_problem) in.readObject();
+				param = (svm_parameter) in.readObject();
+			}
+			finally
+			{
+				in.close();
+			}
+			svm_model model = svm.svm_train(prob, param);
+			ObjectOutputStream out = new ObjectOutputStream(
+					new BufferedOutputStream(new FileOutputStream(args[1])));
+			try
+			{
+				out.writeObject(model);
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,17 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. package-info.java is PROPRIETARY/CONFIDENTIAL built in 2013. Use is
+ * subject to license terms.
+ */
+/**
+ * The cascade training package of LIBSVM models.
+ * <p>
+ * In this package, a training problem is split into partitions trained in
+ * parallel, by threads or by local worker processes, whose support vectors
+ * are merged and retrained layer by layer up to a single model.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+package com.frank.svm.cascade;
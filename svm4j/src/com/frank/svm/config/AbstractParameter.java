@@ -20,6 +20,12 @@ import libsvm.svm_print_interface;
  */
 public abstract class AbstractParameter
 {
+	/**
+	 * The solver of the linear kernel chosen by the kernel: the dual
+	 * coordinate descent with the hinge loss for {@linkplain KernelLinear},
+	 * SMO otherwise.
+	 */
+	public static final int			AUTO_SOLVER				= -1;
 	/**
 	 * The support vector machine type. This value should be initialized in the
 	 * constructors of the sub-classes.
@@ -64,6 +70,39 @@ public abstract class AbstractParameter
 	 * The kernel type of the SVM.
 	 */
 	protected Kernel				kernel					= new KernelRBF();
+	/**
+	 * The amount of threads sharing the inner loops of the solver (default 1).
+	 */
+	protected int					threads					= 1;
+	/**
+	 * The amount of variables optimized in each solver iteration (default 2).
+	 */
+	protected int					workingSetSize			= 2;
+	/**
+	 * The flag for whether the shrinking interval is adapted during the
+	 * training (default <tt>false</tt>).
+	 */
+	protected boolean				adaptiveShrinking		= false;
+	/**
+	 * The amount of cross-validation folds fitting the probability estimates
+	 * (default 5).
+	 */
+	protected int					probabilityFolds		= 5;
+	/**
+	 * The seed of the fold assignment of the probability estimates (default 0
+	 * for a random assignment).
+	 */
+	protected long					probabilitySeed			= 0;
+	/**
+	 * The solver of C-SVC and &epsilon;-SVR with the linear kernel (default
+	 * {@linkplain #AUTO_SOLVER}).
+	 */
+	protected int					linearSolver			= AUTO_SOLVER;
+	/**
+	 * The tolerance of termination criterion of the dual coordinate descent
+	 * solvers (default 0.1).
+	 */
+	protected double				linearTolerance			= 0.1;
 
 	/**
 	 * Configure the specified LIBSVM parameter with current parameter settings.
@@ -76,8 +115,18 @@ public abstract class AbstractParameter
 		param.svm_type = svmType;
 		param.cache_size = cacheSize;
 		param.eps = tolerance;
-		param.shrinking = useShrinking ? 1 : 0;
+		param.shrinking = useShrinking ? adaptiveShrinking ? 2 : 1 : 0;
 		param.probability = useProbabilityEstimates ? 1 : 0;
+		param.working_set_size = workingSetSize;
+		param.nr_threads = threads;
+		param.probability_folds = probabilityFolds;
+		param.probability_seed = probabilitySeed;
+		param.linear_eps = linearTolerance;
+		if (linearSolver != AUTO_SOLVER)
+			param.linear_solver = linearSolver;
+		else
+			param.linear_solver = kernel instanceof KernelLinear ? svm_parameter.DUAL_CD_L1
+					: svm_parameter.SMO;
 		printer = new svm_print_interface()
 		{
 			@Override
@@ -287,4 +336,223 @@ public abstract class AbstractParameter
 	{
 		this.svmType = svmType;
 	}
+
+	/**
+	 * Returns the amount of threads sharing the inner loops of the solver.
+	 * 
+	 * @return the amount of threads
+	 */
+	public int getThreads()
+	{
+		return threads;
+	}
+
+	/**
+	 * Set the amount of threads sharing the inner loops of the solver (default
+	 * 1).
+	 * <p>
+	 * With more than one thread the gradient updates and the working set
+	 * selection of every solver iteration are split over a pool of worker
+	 * threads which lives as long as the optimization. It only pays off on
+	 * large problems, small ones are still solved on the calling thread.
+	 * </p>
+	 * 
+	 * @param threads
+	 *            the amount of threads, positive
+	 */
+	public void setThreads(int threads)
+	{
+		if (threads < 1)
+			throw new IllegalArgumentException(String.format(
+					"The amount of threads %d must be positive.", threads));
+		this.threads = threads;
+	}
+
+	/**
+	 * Returns the amount of variables optimized in each solver iteration.
+	 * 
+	 * @return the working set size
+	 */
+	public int getWorkingSetSize()
+	{
+		return workingSetSize;
+	}
+
+	/**
+	 * Set the amount of variables optimized in each solver iteration (default
+	 * 2).
+	 * <p>
+	 * The default 2 is the standard pairwise SMO. A larger value selects a
+	 * block of the most violating variables in each iteration and solves it as
+	 * a small dense sub-problem, which pays off when the training is bound by
+	 * kernel cache misses. The cache should be able to hold at least that many
+	 * kernel columns. It applies to C-SVC, &epsilon;-SVR and one-class SVM; the
+	 * &nu; formulations are always solved pairwise.
+	 * </p>
+	 * 
+	 * @param workingSetSize
+	 *            the working set size, not less than 2
+	 */
+	public void setWorkingSetSize(int workingSetSize)
+	{
+		if (workingSetSize < 2)
+			throw new IllegalArgumentException(String.format(
+					"The working set size %d must not be less than 2.",
+					workingSetSize));
+		this.workingSetSize = workingSetSize;
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the shrinking interval is adapted during the
+	 * training, otherwise <tt>false</tt>.
+	 * 
+	 * @return <tt>true</tt> if the shrinking interval is adapted
+	 */
+	public boolean isAdaptiveShrinking()
+	{
+		return adaptiveShrinking;
+	}
+
+	/**
+	 * Set whether the shrinking interval is adapted during the training
+	 * (default <tt>false</tt>).
+	 * <p>
+	 * By default the solver shrinks the active set every min(l, 1000)
+	 * iterations. With the adaptive schedule the interval is shortened while
+	 * the passes remove a large share of the active set, lengthened while they
+	 * remove almost nothing or the shrunk variables have to be brought back,
+	 * and shrinking is turned off when the gradient reconstructions keep
+	 * being expensive. The decisions are recorded in the training metrics of
+	 * the model. It has no effect if the shrinking technology is not used.
+	 * </p>
+	 * 
+	 * @param adaptiveShrinking
+	 *            <tt>true</tt> for adapting the shrinking interval
+	 */
+	public void setAdaptiveShrinking(boolean adaptiveShrinking)
+	{
+		this.adaptiveShrinking = adaptiveShrinking;
+	}
+
+	/**
+	 * Returns the amount of cross-validation folds fitting the probability
+	 * estimates.
+	 * 
+	 * @return the amount of folds
+	 */
+	public int getProbabilityFolds()
+	{
+		return probabilityFolds;
+	}
+
+	/**
+	 * Set the amount of cross-validation folds fitting the probability
+	 * estimates of classification (default 5).
+	 * <p>
+	 * With more than one {@linkplain #setThreads(int) thread} the folds and
+	 * the training of each pair of classes run concurrently.
+	 * </p>
+	 * 
+	 * @param probabilityFolds
+	 *            the amount of folds, not less than 2
+	 */
+	public void setProbabilityFolds(int probabilityFolds)
+	{
+		if (probabilityFolds < 2)
+			throw new IllegalArgumentException(String.format(
+					"The fold amount %d must not be less than 2.",
+					probabilityFolds));
+		this.probabilityFolds = probabilityFolds;
+	}
+
+	/**
+	 * Returns the seed of the fold assignment of the probability estimates.
+	 * 
+	 * @return the seed, 0 for a random assignment
+	 */
+	public long getProbabilitySeed()
+	{
+		return probabilitySeed;
+	}
+
+	/**
+	 * Set the seed of the fold assignment of the probability estimates of
+	 * classification (default 0 for a random assignment). With a non-zero
+	 * seed the estimates are repeatable, whatever the amount of threads.
+	 * 
+	 * @param probabilitySeed
+	 *            the seed, 0 for a random assignment
+	 */
+	public void setProbabilitySeed(long probabilitySeed)
+	{
+		this.probabilitySeed = probabilitySeed;
+	}
+
+	/**
+	 * Returns the solver of C-SVC and &epsilon;-SVR with the linear kernel.
+	 * 
+	 * @return the solver
+	 */
+	public int getLinearSolver()
+	{
+		return linearSolver;
+	}
+
+	/**
+	 * Set the solver of C-SVC and &epsilon;-SVR with the linear kernel
+	 * (default {@linkplain #AUTO_SOLVER}).
+	 * <p>
+	 * The dual coordinate descent of LIBLINEAR works on the weight vector
+	 * instead of the kernel matrix, so that large sparse problems train in a
+	 * few passes over their non-zero features. Its bias is regularized, hence
+	 * the model may slightly differ from the one of SMO. The squared losses
+	 * of {@linkplain svm_parameter#DUAL_CD_L2} train a different problem.
+	 * </p>
+	 * 
+	 * @param linearSolver
+	 *            {@linkplain #AUTO_SOLVER}, {@linkplain svm_parameter#SMO},
+	 *            {@linkplain svm_parameter#DUAL_CD_L1} or
+	 *            {@linkplain svm_parameter#DUAL_CD_L2}
+	 */
+	public void setLinearSolver(int linearSolver)
+	{
+		if (linearSolver != AUTO_SOLVER && linearSolver != svm_parameter.SMO
+				&& linearSolver != svm_parameter.DUAL_CD_L1
+				&& linearSolver != svm_parameter.DUAL_CD_L2)
+			throw new IllegalArgumentException(String.format(
+					"The linear solver %d is unknown.", linearSolver));
+		this.linearSolver = linearSolver;
+	}
+
+	/**
+	 * Returns the tolerance of termination criterion of the dual coordinate
+	 * descent solvers.
+	 * 
+	 * @return the tolerance
+	 */
+	public double getLinearTolerance()
+	{
+		return linearTolerance;
+	}
+
+	/**
+	 * Set the tolerance of termination criterion of the dual coordinate
+	 * descent solvers (default 0.1, as in LIBLINEAR).
+	 * <p>
+	 * The coordinate descent stops when the spread of its projected gradient
+	 * is below the tolerance for C-SVC, or the gradient violation has
+	 * decreased by the tolerance factor for &epsilon;-SVR, and after 1000
+	 * passes otherwise. The tolerance of SMO does not apply to it.
+	 * </p>
+	 * 
+	 * @param linearTolerance
+	 *            the tolerance, positive
+	 */
+	public void setLinearTolerance(double linearTolerance)
+	{
+		if (linearTolerance <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The tolerance %g must be positive.", linearTolerance));
+		this.linearTolerance = linearTolerance;
+	}
 }
@@ -24,6 +24,12 @@ import libsvm.svm_parameter;
  */
 public class KernelRBF extends KernelGamma
 {
+	/**
+	 * Evaluate the kernel with the fast approximation of <code>exp</code>
+	 * (default <tt>false</tt>).
+	 */
+	protected boolean	fastMath;
+
 	/**
 	 * Construct a default <tt>KernelRBF</tt>.
 	 */
@@ -51,5 +57,32 @@ public class KernelRBF extends KernelGamma
 	{
 		param.kernel_type = svm_parameter.RBF;
 		param.gamma = gamma;
+		param.fast_math = fastMath ? 1 : 0;
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the kernel is evaluated with the fast
+	 * approximation of <code>exp</code> (default <tt>false</tt>).
+	 * 
+	 * @return <tt>true</tt> if the approximation is used
+	 * @see svm_parameter#fast_math
+	 */
+	public boolean isFastMath()
+	{
+		return fastMath;
+	}
+
+	/**
+	 * Set whether the kernel is evaluated with the fast approximation of
+	 * <code>exp</code>, within a relative error of 5e-11, in the training and
+	 * in the predictions.
+	 * 
+	 * @param fastMath
+	 *            <tt>true</tt> to use the approximation
+	 * @see svm_parameter#fast_math
+	 */
+	public void setFastMath(boolean fastMath)
+	{
+		this.fastMath = fastMath;
 	}
 }
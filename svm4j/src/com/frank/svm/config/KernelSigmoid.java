@@ -30,6 +30,11 @@ public class KernelSigmoid extends KernelGamma
 	 * The offset coefficient {@code b} (default 0).
 	 */
 	protected double	b;
+	/**
+	 * Evaluate the kernel with the fast approximation of <code>tanh</code>
+	 * (default <tt>false</tt>).
+	 */
+	protected boolean	fastMath;
 
 	/**
 	 * Construct a default of <tt>KernelSigmoid</tt>.
@@ -68,6 +73,7 @@ public class KernelSigmoid extends KernelGamma
 		param.kernel_type = svm_parameter.SIGMOID;
 		param.gamma = gamma;
 		param.coef0 = b;
+		param.fast_math = fastMath ? 1 : 0;
 	}
 
 	/**
@@ -90,4 +96,30 @@ public class KernelSigmoid extends KernelGamma
 	{
 		this.b = b;
 	}
+
+	/**
+	 * Returns <tt>true</tt> if the kernel is evaluated with the fast
+	 * approximation of <code>tanh</code> (default <tt>false</tt>).
+	 * 
+	 * @return <tt>true</tt> if the approximation is used
+	 * @see svm_parameter#fast_math
+	 */
+	public boolean isFastMath()
+	{
+		return fastMath;
+	}
+
+	/**
+	 * Set whether the kernel is evaluated with the fast approximation of
+	 * <code>tanh</code>, within a relative error of 5e-10, in the training and
+	 * in the predictions.
+	 * 
+	 * @param fastMath
+	 *            <tt>true</tt> to use the approximation
+	 * @see svm_parameter#fast_math
+	 */
+	public void setFastMath(boolean fastMath)
+	{
+		this.fastMath = fastMath;
+	}
 }
@@ -0,0 +1,468 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. BudgetedSVC.java is PROPRIETARY/CONFIDENTIAL built in 2013. Use is
+ * subject to license terms.
+ */
+package com.frank.svm.online;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+
+import com.frank.svm.Sample;
+
+/**
+ * The budgeted online trainer of a binary kernel SVM.
+ * <p>
+ * The trainer runs the budgeted stochastic gradient descent of the kernel
+ * Pegasos (Wang, Crammer and Vucetic, 2012) over a stream of samples: the
+ * t-th sample shrinks all the coefficients by the factor 1 - 1/t, and becomes
+ * a support vector of coefficient y/(&lambda;t) if its margin is below 1.
+ * Beyond the budget of B support vectors, the one of the smallest
+ * coefficient is either removed, or merged with its nearest support vector of
+ * the same class into a single point of the segment between them, the
+ * position maximizing the coefficient of the merged point as in the RBF
+ * merging of the paper. The memory and the cost of an update are therefore
+ * O(B), whatever the length of the stream.
+ * </p>
+ * <p>
+ * The regularization &lambda; of the trainer replaces the cost C of the
+ * parameter, whose kernel is used. The decision function has no bias. The
+ * first label becomes the first class of the model, as in LIBSVM. The trainer
+ * is not safe to be updated from several threads at the same time, the
+ * models it returns are independent snapshots.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class BudgetedSVC
+{
+	/**
+	 * The budget maintenance removing the support vector of the smallest
+	 * coefficient.
+	 */
+	public static final int				REMOVAL		= 0;
+	/**
+	 * The budget maintenance merging the support vector of the smallest
+	 * coefficient with its nearest support vector of the same class, for the
+	 * RBF kernel only.
+	 */
+	public static final int				MERGING		= 1;
+	/**
+	 * The parameter.
+	 */
+	protected final svm_parameter		param;
+	/**
+	 * The maximal amount of support vectors.
+	 */
+	protected final int					budget;
+	/**
+	 * The regularization &lambda; (default 1e-4).
+	 */
+	protected double					lambda		= 1e-4;
+	/**
+	 * The budget maintenance (default {@linkplain #MERGING} for the RBF
+	 * kernel, {@linkplain #REMOVAL} otherwise).
+	 */
+	protected int						maintenance;
+	/**
+	 * The two labels, in the order of their first appearance.
+	 */
+	private final double[]				label		= new double[2];
+	/**
+	 * The amount of known labels.
+	 */
+	private int							labels;
+	/**
+	 * The support vectors.
+	 */
+	private final List<svm_node[]>		sv;
+	/**
+	 * The coefficients of the support vectors, divided by the scale.
+	 */
+	private final double[]				alpha;
+	/**
+	 * The common factor of the coefficients, so that the shrinking of all the
+	 * coefficients costs O(1).
+	 */
+	private double						scale		= 1;
+	/**
+	 * The amount of consumed samples.
+	 */
+	private long						t;
+	/**
+	 * The amount of budget maintenances.
+	 */
+	private long						maintenances;
+
+	/**
+	 * Construct an instance of <tt>BudgetedSVC</tt>.
+	 *
+	 * @param param
+	 *            the parameter of the kernel
+	 * @param budget
+	 *            the maximal amount of support vectors, positive
+	 */
+	public BudgetedSVC(svm_parameter param, int budget)
+	{
+		if (param == null)
+			throw new NullPointerException("The parameter cannot be null.");
+		if (param.kernel_type == svm_parameter.PRECOMPUTED)
+			throw new IllegalArgumentException(
+					"The precomputed kernel cannot be trained online.");
+		if (param.kernel_type != svm_parameter.LINEAR && param.gamma <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The gamma %g must be positive.", param.gamma));
+		if (budget <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The budget %d must be positive.", budget));
+		this.param = (svm_parameter) param.clone();
+		this.param.control = null;
+		this.budget = budget;
+		maintenance = param.kernel_type == svm_parameter.RBF ? MERGING
+				: REMOVAL;
+		sv = new ArrayList<svm_node[]>(budget + 1);
+		alpha = new double[budget + 1];
+	}
+
+	/**
+	 * Consume all the samples of the specified iterator.
+	 *
+	 * @param samples
+	 *            the samples
+	 * @return the amount of samples with a margin below 1
+	 */
+	public long train(Iterator<Sample> samples)
+	{
+		long violations = 0;
+		while (samples.hasNext())
+		{
+			Sample sample = samples.next();
+			if (update(sample.x(), sample.y()))
+				violations++;
+		}
+		return violations;
+	}
+
+	/**
+	 * Consume the specified sample.
+	 *
+	 * @param x
+	 *            the feature vector of the sample
+	 * @param value
+	 *            the label of the sample
+	 * @return <code>true</code> if its margin was below 1, i.e. the model has
+	 *         been corrected
+	 */
+	public boolean update(svm_node[] x, double value)
+	{
+		if (x == null)
+			throw new NullPointerException("The sample cannot be null.");
+		int y;
+		if (labels > 0 && value == label[0])
+			y = 1;
+		else if (labels > 1 && value == label[1])
+			y = -1;
+		else if (labels < 2)
+		{
+			label[labels++] = value;
+			y = labels == 1 ? 1 : -1;
+		}
+		else
+			throw new IllegalArgumentException(String.format(
+					"The label %g is a third class of a binary SVM.", value));
+		double margin = y * decisionValue(x);
+		t++;
+		// shrink all the coefficients by 1 - 1/t, none before the first one
+		if (t > 1)
+			scale *= 1 - 1.0 / t;
+		if (scale < 1e-9)
+		{
+			for (int i = 0; i < sv.size(); i++)
+				alpha[i] *= scale;
+			scale = 1;
+		}
+		if (margin >= 1)
+			return false;
+		sv.add(x);
+		alpha[sv.size() - 1] = y / (lambda * t) / scale;
+		if (sv.size() > budget)
+		{
+			maintain();
+			maintenances++;
+		}
+		return true;
+	}
+
+	/**
+	 * Bring the support vectors back within the budget.
+	 */
+	private void maintain()
+	{
+		int n = sv.size();
+		int m = 0;
+		for (int i = 1; i < n; i++)
+			if (Math.abs(alpha[i]) < Math.abs(alpha[m]))
+				m = i;
+		int partner = -1;
+		double k = 0;
+		if (maintenance == MERGING)
+			for (int i = 0; i < n; i++)
+				if (i != m && alpha[i] * alpha[m] > 0)
+				{
+					double value = svm.svm_k_function(sv.get(m), sv.get(i),
+							param);
+					if (partner < 0 || value > k)
+					{
+						partner = i;
+						k = value;
+					}
+				}
+		if (partner >= 0)
+		{
+			// maximize |a(h)| = |a_m| k^((1-h)^2) + |a_n| k^(h^2) over [0, 1]
+			double sign = Math.signum(alpha[m]);
+			double a_m = Math.abs(alpha[m]), a_n = Math.abs(alpha[partner]);
+			double lo = 0, hi = 1;
+			double g = (Math.sqrt(5) - 1) / 2;
+			double h1 = hi - g * (hi - lo), h2 = lo + g * (hi - lo);
+			double f1 = merged(a_m, a_n, k, h1), f2 = merged(a_m, a_n, k, h2);
+			for (int iter = 0; iter < 30; iter++)
+				if (f1 > f2)
+				{
+					hi = h2;
+					h2 = h1;
+					f2 = f1;
+					h1 = hi - g * (hi - lo);
+					f1 = merged(a_m, a_n, k, h1);
+				}
+				else
+				{
+					lo = h1;
+					h1 = h2;
+					f1 = f2;
+					h2 = lo + g * (hi - lo);
+					f2 = merged(a_m, a_n, k, h2);
+				}
+			double h = (lo + hi) / 2;
+			sv.set(partner, combine(sv.get(m), sv.get(partner), h));
+			alpha[partner] = sign * merged(a_m, a_n, k, h);
+		}
+		// drop the support vector m, the last one taking its place
+		int last = n - 1;
+		sv.set(m, sv.get(last));
+		alpha[m] = alpha[last];
+		sv.remove(last);
+		alpha[last] = 0;
+	}
+
+	/**
+	 * Returns the coefficient of the merge of two RBF support vectors at the
+	 * specified position.
+	 *
+	 * @param a_m
+	 *            the coefficient of the first support vector
+	 * @param a_n
+	 *            the coefficient of the second support vector
+	 * @param k
+	 *            the kernel value of the two support vectors
+	 * @param h
+	 *            the position of the merged point, 1 for the first one and 0
+	 *            for the second one
+	 * @return the coefficient
+	 */
+	private static double merged(double a_m, double a_n, double k, double h)
+	{
+		return a_m * Math.pow(k, (1 - h) * (1 - h)) + a_n
+				* Math.pow(k, h * h);
+	}
+
+	/**
+	 * Returns h &times; u + (1 - h) &times; v.
+	 *
+	 * @param u
+	 *            the first sparse vector
+	 * @param v
+	 *            the second sparse vector
+	 * @param h
+	 *            the weight of the first vector
+	 * @return the combination
+	 */
+	private static svm_node[] combine(svm_node[] u, svm_node[] v, double h)
+	{
+		List<svm_node> z = new ArrayList<svm_node>(u.length + v.length);
+		int i = 0, j = 0;
+		while (i < u.length || j < v.length)
+		{
+			svm_node node = new svm_node();
+			if (j == v.length || i < u.length && u[i].index < v[j].index)
+			{
+				node.index = u[i].index;
+				node.value = h * u[i++].value;
+			}
+			else if (i == u.length || v[j].index < u[i].index)
+			{
+				node.index = v[j].index;
+				node.value = (1 - h) * v[j++].value;
+			}
+			else
+			{
+				node.index = u[i].index;
+				node.value = h * u[i++].value + (1 - h) * v[j++].value;
+			}
+			z.add(node);
+		}
+		return z.toArray(new svm_node[z.size()]);
+	}
+
+	/**
+	 * Returns the decision value of the specified sample, positive for the
+	 * first class.
+	 *
+	 * @param x
+	 *            the feature vector of the sample
+	 * @return the decision value
+	 */
+	public double decisionValue(svm_node[] x)
+	{
+		double sum = 0;
+		for (int i = 0; i < sv.size(); i++)
+			sum += alpha[i] * svm.svm_k_function(sv.get(i), x, param);
+		return sum * scale;
+	}
+
+	/**
+	 * Returns a snapshot of the current model.
+	 *
+	 * @return the model
+	 */
+	public svm_model getModel()
+	{
+		if (labels < 2)
+			throw new IllegalStateException(
+					"Both classes are needed to build the model.");
+		svm_model model = new svm_model();
+		model.param = (svm_parameter) param.clone();
+		model.param.svm_type = svm_parameter.C_SVC;
+		model.nr_class = 2;
+		model.label = new int[] { (int) label[0], (int) label[1] };
+		model.rho = new double[] { 0 };
+		model.nSV = new int[2];
+		int n = sv.size();
+		for (int i = 0; i < n; i++)
+			if (alpha[i] != 0)
+				model.nSV[alpha[i] > 0 ? 0 : 1]++;
+		model.l = model.nSV[0] + model.nSV[1];
+		model.SV = new svm_node[model.l][];
+		model.sv_coef = new double[1][model.l];
+		int[] p = { 0, model.nSV[0] };
+		for (int i = 0; i < n; i++)
+			if (alpha[i] != 0)
+			{
+				int k = p[alpha[i] > 0 ? 0 : 1]++;
+				model.SV[k] = sv.get(i);
+				model.sv_coef[0][k] = alpha[i] * scale;
+			}
+		return model;
+	}
+
+	/**
+	 * Returns the amount of support vectors.
+	 *
+	 * @return the amount of support vectors
+	 */
+	public int getSupportVectorCount()
+	{
+		return sv.size();
+	}
+
+	/**
+	 * Returns the maximal amount of support vectors.
+	 *
+	 * @return the budget
+	 */
+	public int getBudget()
+	{
+		return budget;
+	}
+
+	/**
+	 * Returns the amount of consumed samples.
+	 *
+	 * @return the amount of samples
+	 */
+	public long getSampleCount()
+	{
+		return t;
+	}
+
+	/**
+	 * Returns the amount of budget maintenances.
+	 *
+	 * @return the amount of removals or merges
+	 */
+	public long getMaintenanceCount()
+	{
+		return maintenances;
+	}
+
+	/**
+	 * Returns the regularization &lambda;.
+	 *
+	 * @return the regularization
+	 */
+	public double getLambda()
+	{
+		return lambda;
+	}
+
+	/**
+	 * Set the regularization &lambda;, i.e. 1/(C &times; n) for the cost C of
+	 * n samples.
+	 *
+	 * @param lambda
+	 *            the regularization, positive
+	 */
+	public void setLambda(double lambda)
+	{
+		if (lambda <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The regularization %g must be positive.", lambda));
+		this.lambda = lambda;
+	}
+
+	/**
+	 * Returns the budget maintenance.
+	 *
+	 * @return {@linkplain #REMOVAL} or {@linkplain #MERGING}
+	 */
+	public int getMaintenance()
+	{
+		return maintenance;
+	}
+
+	/**
+	 * Set the budget maintenance.
+	 *
+	 * @param maintenance
+	 *            {@linkplain #REMOVAL}, or {@linkplain #MERGING} for the RBF
+	 *            kernel
+	 */
+	public void setMaintenance(int maintenance)
+	{
+		if (maintenance != REMOVAL && maintenance != MERGING)
+			throw new IllegalArgumentException(String.format(
+					"The budget maintenance %d is unknown.", maintenance));
+		if (maintenance == MERGING
+				&& param.kernel_type != svm_parameter.RBF)
+			throw new IllegalArgumentException(
+					"Only the RBF support vectors can be merged.");
+		this.maintenance = maintenance;
+	}
+}
@@ -0,0 +1,647 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. IncrementalSVC.java is PROPRIETARY/CONFIDENTIAL built in 2013.
+ * Use is subject to license terms.
+ */
+package com.frank.svm.online;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+
+/**
+ * The incremental and decremental trainer of a binary C-SVC.
+ * <p>
+ * The trainer keeps the state of the solver between the updates: the
+ * coefficients &alpha;, the gradient of the dual objective and a cache of
+ * the kernel rows. An added sample starts with &alpha; = 0, its gradient
+ * being computed from the support vectors only, so that it changes nothing
+ * while it satisfies the KKT conditions. A removed support vector has its
+ * coefficient withdrawn from the gradient and balanced by the coefficients of
+ * the opposite class to keep the equality constraint. The optimality is then
+ * restored by the SMO of LIBSVM warm started from the current coefficients,
+ * whose working set selection picks the violating samples, so that the
+ * update usually touches a few variables near the changed ones instead of
+ * training the whole problem again.
+ * </p>
+ * <p>
+ * The cost C, the class weights, the kernel, the tolerance and the cache size
+ * are taken from the parameter. The first label becomes the first class of
+ * the model, as in LIBSVM. The samples are identified by the handles returned
+ * on their addition. The trainer is not safe to be updated from several
+ * threads at the same time.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class IncrementalSVC
+{
+	/**
+	 * The lower bound of the quadratic coefficient of a pair.
+	 */
+	private static final double				TAU			= 1e-12;
+	/**
+	 * The parameter.
+	 */
+	protected final svm_parameter			param;
+	/**
+	 * The two labels, in the order of their first appearance.
+	 */
+	private final double[]					label		= new double[2];
+	/**
+	 * The weighted cost of each label.
+	 */
+	private final double[]					cost		= new double[2];
+	/**
+	 * The amount of known labels.
+	 */
+	private int								labels;
+	/**
+	 * The amount of samples.
+	 */
+	private int								n;
+	private svm_node[][]					x			= new svm_node[16][];
+	private byte[]							y			= new byte[16];
+	private double[]						alpha		= new double[16];
+	/**
+	 * The gradient of the dual objective.
+	 */
+	private double[]						G			= new double[16];
+	/**
+	 * The diagonal of the kernel matrix.
+	 */
+	private double[]						QD			= new double[16];
+	/**
+	 * The handle of each sample.
+	 */
+	private int[]							handle		= new int[16];
+	/**
+	 * The position of each handle.
+	 */
+	private final Map<Integer, Integer>		position	= new HashMap<Integer, Integer>();
+	private int								nextHandle;
+	/**
+	 * The cached rows of the signed kernel matrix, in least recently used
+	 * order.
+	 */
+	private final LinkedHashMap<Integer, double[]>	cache	= new LinkedHashMap<Integer, double[]>(
+																16, 0.75f, true);
+	/**
+	 * The bias of the last optimization.
+	 */
+	private double							rho;
+	/**
+	 * The amount of SMO iterations of the last update.
+	 */
+	private int								iterations;
+
+	/**
+	 * Construct an instance of <tt>IncrementalSVC</tt>.
+	 *
+	 * @param param
+	 *            the C-SVC parameter with its kernel
+	 */
+	public IncrementalSVC(svm_parameter param)
+	{
+		if (param == null)
+			throw new NullPointerException("The parameter cannot be null.");
+		if (param.svm_type != svm_parameter.C_SVC)
+			throw new IllegalArgumentException(
+					"Only C-SVC can be trained incrementally.");
+		if (param.kernel_type == svm_parameter.PRECOMPUTED)
+			throw new IllegalArgumentException(
+					"The precomputed kernel cannot be trained incrementally.");
+		if (param.kernel_type != svm_parameter.LINEAR && param.gamma <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The gamma %g must be positive.", param.gamma));
+		if (param.C <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The cost %g must be positive.", param.C));
+		if (param.eps <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The tolerance %g must be positive.", param.eps));
+		this.param = (svm_parameter) param.clone();
+		this.param.control = null;
+	}
+
+	/**
+	 * Add the specified sample and restore the optimality.
+	 *
+	 * @param x
+	 *            the feature vector of the sample
+	 * @param label
+	 *            the label of the sample
+	 * @return the handle of the sample
+	 */
+	public int add(svm_node[] x, double label)
+	{
+		int h = append(x, label);
+		optimize();
+		return h;
+	}
+
+	/**
+	 * Add the specified samples and restore the optimality once.
+	 *
+	 * @param x
+	 *            the feature vectors of the samples
+	 * @param labels
+	 *            the labels of the samples
+	 * @return the handles of the samples
+	 */
+	public int[] addAll(svm_node[][] x, double[] labels)
+	{
+		if (x.length != labels.length)
+			throw new IllegalArgumentException(String.format(
+					"The amount of labels %d differs from the amount of samples %d.",
+					labels.length, x.length));
+		int[] handles = new int[x.length];
+		for (int i = 0; i < x.length; i++)
+			handles[i] = append(x[i], labels[i]);
+		optimize();
+		return handles;
+	}
+
+	/**
+	 * Remove the sample of the specified handle and restore the optimality.
+	 *
+	 * @param h
+	 *            the handle of the sample
+	 */
+	public void remove(int h)
+	{
+		Integer p = position.remove(h);
+		if (p == null)
+			throw new IllegalArgumentException(String.format(
+					"The sample %d is unknown.", h));
+		int i = p;
+		if (alpha[i] > 0)
+		{
+			// withdraw the coefficient from the gradient
+			double a = alpha[i];
+			update(i, -a);
+			// keep the sum of y * alpha null with the opposite class
+			double remaining = a;
+			while (remaining > 0)
+			{
+				int j = -1;
+				for (int k = 0; k < n; k++)
+					if (y[k] != y[i] && alpha[k] > 0
+							&& (j < 0 || alpha[k] > alpha[j]))
+						j = k;
+				if (j < 0)
+					break;
+				double d = Math.min(alpha[j], remaining);
+				update(j, -d);
+				remaining -= d;
+			}
+		}
+		// move the last sample into the removed one
+		int last = --n;
+		cache.remove(i);
+		if (i != last)
+		{
+			x[i] = x[last];
+			y[i] = y[last];
+			alpha[i] = alpha[last];
+			G[i] = G[last];
+			QD[i] = QD[last];
+			handle[i] = handle[last];
+			position.put(handle[i], i);
+			for (double[] row : cache.values())
+				row[i] = row[last];
+			double[] row = cache.remove(last);
+			if (row != null)
+				cache.put(i, row);
+		}
+		x[last] = null;
+		optimize();
+	}
+
+	/**
+	 * Change the coefficient of the specified sample, updating the gradient.
+	 *
+	 * @param i
+	 *            the sample
+	 * @param delta
+	 *            the change of its coefficient
+	 */
+	private void update(int i, double delta)
+	{
+		double[] Q_i = row(i);
+		for (int k = 0; k < n; k++)
+			G[k] += Q_i[k] * delta;
+		alpha[i] = Math.max(alpha[i] + delta, 0);
+	}
+
+	/**
+	 * Append the specified sample with a null coefficient.
+	 *
+	 * @param sample
+	 *            the feature vector of the sample
+	 * @param value
+	 *            the label of the sample
+	 * @return the handle of the sample
+	 */
+	private int append(svm_node[] sample, double value)
+	{
+		if (sample == null)
+			throw new NullPointerException("The sample cannot be null.");
+		byte sign;
+		if (labels > 0 && value == label[0])
+			sign = 1;
+		else if (labels > 1 && value == label[1])
+			sign = -1;
+		else if (labels < 2)
+		{
+			label[labels] = value;
+			cost[labels++] = param.C * weight(value);
+			sign = (byte) (labels == 1 ? 1 : -1);
+		}
+		else
+			throw new IllegalArgumentException(String.format(
+					"The label %g is a third class of a binary C-SVC.", value));
+		if (n == x.length)
+			grow(2 * n);
+		int t = n;
+		x[t] = sample;
+		y[t] = sign;
+		alpha[t] = 0;
+		QD[t] = svm.svm_k_function(sample, sample, param);
+		// the gradient only depends on the support vectors
+		double sum = 0;
+		for (int j = 0; j < t; j++)
+			if (alpha[j] > 0)
+				sum += y[j] * alpha[j]
+						* svm.svm_k_function(x[j], sample, param);
+		G[t] = sign * sum - 1;
+		for (Map.Entry<Integer, double[]> e : cache.entrySet())
+		{
+			int j = e.getKey();
+			e.getValue()[t] = y[j] * sign
+					* svm.svm_k_function(x[j], sample, param);
+		}
+		handle[t] = nextHandle;
+		position.put(nextHandle, t);
+		n++;
+		return nextHandle++;
+	}
+
+	/**
+	 * Grow the arrays of the samples to the specified capacity.
+	 *
+	 * @param capacity
+	 *            the new capacity
+	 */
+	private void grow(int capacity)
+	{
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		alpha = Arrays.copyOf(alpha, capacity);
+		G = Arrays.copyOf(G, capacity);
+		QD = Arrays.copyOf(QD, capacity);
+		handle = Arrays.copyOf(handle, capacity);
+		for (Map.Entry<Integer, double[]> e : cache.entrySet())
+			e.setValue(Arrays.copyOf(e.getValue(), capacity));
+	}
+
+	/**
+	 * Returns the row of the signed kernel matrix of the specified sample,
+	 * valid over the current samples.
+	 *
+	 * @param i
+	 *            the sample
+	 * @return the row
+	 */
+	private double[] row(int i)
+	{
+		double[] row = cache.get(i);
+		if (row != null)
+			return row;
+		row = new double[x.length];
+		for (int j = 0; j < n; j++)
+			row[j] = y[i] * y[j] * svm.svm_k_function(x[i], x[j], param);
+		long rows = Math.max(2, (long) (param.cache_size * (1 << 20))
+				/ (8L * x.length));
+		for (Iterator<double[]> it = cache.values().iterator(); cache.size() >= rows
+				&& it.hasNext();)
+		{
+			it.next();
+			it.remove();
+		}
+		cache.put(i, row);
+		return row;
+	}
+
+	/**
+	 * Returns the cost of the specified sample.
+	 *
+	 * @param i
+	 *            the sample
+	 * @return the upper bound of its coefficient
+	 */
+	private double cost(int i)
+	{
+		return y[i] > 0 ? cost[0] : cost[1];
+	}
+
+	/**
+	 * Returns the cost weight of the specified label.
+	 *
+	 * @param value
+	 *            the label
+	 * @return the weight of the cost
+	 */
+	private double weight(double value)
+	{
+		for (int k = 0; k < param.nr_weight; k++)
+			if (param.weight_label[k] == value)
+				return param.weight[k];
+		return 1;
+	}
+
+	/**
+	 * Restore the optimality by the warm started SMO, with the second order
+	 * working set selection of LIBSVM.
+	 */
+	private void optimize()
+	{
+		iterations = 0;
+		int max = Math.max(10000000, 100 * n);
+		double eps = param.eps;
+		while (iterations < max)
+		{
+			// select the maximal violating pair
+			double Gmax = Double.NEGATIVE_INFINITY, Gmax2 = Double.NEGATIVE_INFINITY;
+			int i = -1, j = -1;
+			for (int t = 0; t < n; t++)
+				if (y[t] > 0)
+				{
+					if (alpha[t] < cost(t) && -G[t] >= Gmax)
+					{
+						Gmax = -G[t];
+						i = t;
+					}
+				}
+				else if (alpha[t] > 0 && G[t] >= Gmax)
+				{
+					Gmax = G[t];
+					i = t;
+				}
+			if (i < 0)
+				break;
+			double[] Q_i = row(i);
+			double obj_diff_min = Double.POSITIVE_INFINITY;
+			for (int t = 0; t < n; t++)
+				if (y[t] > 0)
+				{
+					if (alpha[t] > 0)
+					{
+						double grad_diff = Gmax + G[t];
+						Gmax2 = Math.max(Gmax2, G[t]);
+						if (grad_diff > 0)
+						{
+							double quad = QD[i] + QD[t] - 2.0 * y[i] * Q_i[t];
+							double obj_diff = -(grad_diff * grad_diff)
+									/ (quad > 0 ? quad : TAU);
+							if (obj_diff <= obj_diff_min)
+							{
+								j = t;
+								obj_diff_min = obj_diff;
+							}
+						}
+					}
+				}
+				else if (alpha[t] < cost(t))
+				{
+					double grad_diff = Gmax - G[t];
+					Gmax2 = Math.max(Gmax2, -G[t]);
+					if (grad_diff > 0)
+					{
+						double quad = QD[i] + QD[t] + 2.0 * y[i] * Q_i[t];
+						double obj_diff = -(grad_diff * grad_diff)
+								/ (quad > 0 ? quad : TAU);
+						if (obj_diff <= obj_diff_min)
+						{
+							j = t;
+							obj_diff_min = obj_diff;
+						}
+					}
+				}
+			if (Gmax + Gmax2 < eps || j < 0)
+				break;
+			iterations++;
+			// update alpha[i] and alpha[j]
+			double[] Q_j = row(j);
+			double C_i = cost(i), C_j = cost(j);
+			double old_alpha_i = alpha[i], old_alpha_j = alpha[j];
+			if (y[i] != y[j])
+			{
+				double quad = QD[i] + QD[j] + 2 * Q_i[j];
+				double delta = (-G[i] - G[j]) / (quad > 0 ? quad : TAU);
+				double diff = alpha[i] - alpha[j];
+				alpha[i] += delta;
+				alpha[j] += delta;
+				if (diff > 0)
+				{
+					if (alpha[j] < 0)
+					{
+						alpha[j] = 0;
+						alpha[i] = diff;
+					}
+				}
+				else if (alpha[i] < 0)
+				{
+					alpha[i] = 0;
+					alpha[j] = -diff;
+				}
+				if (diff > C_i - C_j)
+				{
+					if (alpha[i] > C_i)
+					{
+						alpha[i] = C_i;
+						alpha[j] = C_i - diff;
+					}
+				}
+				else if (alpha[j] > C_j)
+				{
+					alpha[j] = C_j;
+					alpha[i] = C_j + diff;
+				}
+			}
+			else
+			{
+				double quad = QD[i] + QD[j] - 2 * Q_i[j];
+				double delta = (G[i] - G[j]) / (quad > 0 ? quad : TAU);
+				double sum = alpha[i] + alpha[j];
+				alpha[i] -= delta;
+				alpha[j] += delta;
+				if (sum > C_i)
+				{
+					if (alpha[i] > C_i)
+					{
+						alpha[i] = C_i;
+						alpha[j] = sum - C_i;
+					}
+				}
+				else if (alpha[j] < 0)
+				{
+					alpha[j] = 0;
+					alpha[i] = sum;
+				}
+				if (sum > C_j)
+				{
+					if (alpha[j] > C_j)
+					{
+						alpha[j] = C_j;
+						alpha[i] = sum - C_j;
+					}
+				}
+				else if (alpha[i] < 0)
+				{
+					alpha[i] = 0;
+					alpha[j] = sum;
+				}
+			}
+			double delta_i = alpha[i] - old_alpha_i;
+			double delta_j = alpha[j] - old_alpha_j;
+			for (int k = 0; k < n; k++)
+				G[k] += Q_i[k] * delta_i + Q_j[k] * delta_j;
+		}
+		rho = calculateRho();
+	}
+
+	/**
+	 * Returns the bias of the decision function, as in LIBSVM.
+	 *
+	 * @return the bias
+	 */
+	private double calculateRho()
+	{
+		double ub = Double.POSITIVE_INFINITY, lb = Double.NEGATIVE_INFINITY;
+		double sum_free = 0;
+		int nr_free = 0;
+		for (int i = 0; i < n; i++)
+		{
+			double yG = y[i] * G[i];
+			if (alpha[i] >= cost(i))
+			{
+				if (y[i] < 0)
+					ub = Math.min(ub, yG);
+				else
+					lb = Math.max(lb, yG);
+			}
+			else if (alpha[i] <= 0)
+			{
+				if (y[i] > 0)
+					ub = Math.min(ub, yG);
+				else
+					lb = Math.max(lb, yG);
+			}
+			else
+			{
+				++nr_free;
+				sum_free += yG;
+			}
+		}
+		if (nr_free > 0)
+			return sum_free / nr_free;
+		return (ub + lb) / 2;
+	}
+
+	/**
+	 * Returns the model of the current samples. The support vectors are the
+	 * feature vectors of the samples, and the support vector indices are
+	 * their handles plus one.
+	 *
+	 * @return the model
+	 */
+	public svm_model getModel()
+	{
+		if (labels < 2)
+			throw new IllegalStateException(
+					"Both classes are needed to build the model.");
+		svm_model model = new svm_model();
+		model.param = (svm_parameter) param.clone();
+		model.nr_class = 2;
+		model.label = new int[] { (int) label[0], (int) label[1] };
+		model.rho = new double[] { rho };
+		model.nSV = new int[2];
+		for (int i = 0; i < n; i++)
+			if (alpha[i] > 0)
+				model.nSV[y[i] > 0 ? 0 : 1]++;
+		model.l = model.nSV[0] + model.nSV[1];
+		model.SV = new svm_node[model.l][];
+		model.sv_coef = new double[1][model.l];
+		model.sv_indices = new int[model.l];
+		int[] p = { 0, model.nSV[0] };
+		for (int i = 0; i < n; i++)
+			if (alpha[i] > 0)
+			{
+				int k = p[y[i] > 0 ? 0 : 1]++;
+				model.SV[k] = x[i];
+				model.sv_coef[0][k] = y[i] * alpha[i];
+				model.sv_indices[k] = handle[i] + 1;
+			}
+		return model;
+	}
+
+	/**
+	 * Returns the decision value of the specified sample, positive for the
+	 * first class.
+	 *
+	 * @param sample
+	 *            the feature vector of the sample
+	 * @return the decision value
+	 */
+	public double decisionValue(svm_node[] sample)
+	{
+		double sum = 0;
+		for (int i = 0; i < n; i++)
+			if (alpha[i] > 0)
+				sum += y[i] * alpha[i] * svm.svm_k_function(x[i], sample, param);
+		return sum - rho;
+	}
+
+	/**
+	 * Returns the amount of samples.
+	 *
+	 * @return the amount of samples
+	 */
+	public int getSampleCount()
+	{
+		return n;
+	}
+
+	/**
+	 * Returns the amount of support vectors.
+	 *
+	 * @return the amount of support vectors
+	 */
+	public int getSupportVectorCount()
+	{
+		int count = 0;
+		for (int i = 0; i < n; i++)
+			if (alpha[i] > 0)
+				count++;
+		return count;
+	}
+
+	/**
+	 * Returns the amount of SMO iterations of the last update.
+	 *
+	 * @return the amount of iterations
+	 */
+	public int getIterations()
+	{
+		return iterations;
+	}
+}
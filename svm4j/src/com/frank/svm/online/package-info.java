@@ -0,0 +1,17 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. package-info.java is PROPRIETARY/CONFIDENTIAL built in 2013. Use is
+ * subject to license terms.
+ */
+/**
+ * The online training package of LIBSVM models.
+ * <p>
+ * In this package, models are kept up to date while the training samples
+ * arrive or leave, instead of being trained again from scratch, and the
+ * current model is available at any moment as an <code>svm_model</code>.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+package com.frank.svm.online;
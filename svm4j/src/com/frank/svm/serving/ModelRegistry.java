@@ -0,0 +1,439 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. ModelRegistry.java is PROPRIETARY/CONFIDENTIAL built in 2013. Use
+ * is subject to license terms.
+ */
+package com.frank.svm.serving;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+import libsvm.svm_store;
+
+import com.frank.svm.approx.ModelPredictor;
+import com.frank.svm.approx.Predictor;
+
+/**
+ * The registry of the live version of a model, swapped under traffic.
+ * <p>
+ * Each published predictor becomes a version, referenced through an atomic
+ * reference. A reader pins the current version by a {@linkplain Lease},
+ * which increments the reference count of the version by a compare and set,
+ * so that reading takes no lock; the predictions of a lease all use the same
+ * version, even across a swap. A publication first warms the new version by
+ * predicting the warm up samples, so that its first live requests do not pay
+ * for the class loading and the compilation, then flips the reference. The
+ * previous version retires once its last lease is released, and is then left
+ * to the garbage collector.
+ * </p>
+ * <p>
+ * The published models are copied at their publication, so that the later
+ * changes of the caller never reach a live version. The published predictors
+ * are not copied, so that they must not be modified after their
+ * publication. The registry is itself a {@linkplain Predictor},
+ * each prediction pinning the current version for its duration.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class ModelRegistry implements Predictor
+{
+	/**
+	 * The current version.
+	 */
+	private final AtomicReference<Generation>	current		= new AtomicReference<Generation>();
+	/**
+	 * The swapped out versions still pinned by some leases.
+	 */
+	private final Map<Long, Generation>			retiring	= new ConcurrentHashMap<Long, Generation>();
+	/**
+	 * The warm up samples of the publications.
+	 */
+	protected svm_node[][]						warmup		= new svm_node[0][];
+
+	/**
+	 * Construct an instance of <tt>ModelRegistry</tt>.
+	 *
+	 * @param predictor
+	 *            the initial predictor
+	 */
+	public ModelRegistry(Predictor predictor)
+	{
+		publish(predictor);
+	}
+
+	/**
+	 * Construct an instance of <tt>ModelRegistry</tt>.
+	 *
+	 * @param model
+	 *            the initial model
+	 */
+	public ModelRegistry(svm_model model)
+	{
+		publish(model);
+	}
+
+	/**
+	 * Publish a copy of the specified model as the new version.
+	 *
+	 * @param model
+	 *            the model
+	 * @return the new version
+	 */
+	public long publish(svm_model model)
+	{
+		if (model == null)
+			throw new NullPointerException("The model cannot be null.");
+		return publish(new ModelPredictor(copy(model)));
+	}
+
+	/**
+	 * Load the model of the specified file and publish it as the new version.
+	 *
+	 * @param file
+	 *            the model file
+	 * @return the new version
+	 * @throws IOException
+	 *             if the model cannot be read
+	 */
+	public long load(String file) throws IOException
+	{
+		// a loaded model is owned by the registry, hence not copied
+		return publish(new ModelPredictor(svm.svm_load_model(file)));
+	}
+
+	/**
+	 * Warm the specified predictor up and publish it as the new version. The
+	 * publications are serialized, the readers are never blocked.
+	 *
+	 * @param predictor
+	 *            the predictor, which must not be modified afterwards
+	 * @return the new version
+	 */
+	public synchronized long publish(Predictor predictor)
+	{
+		if (predictor == null)
+			throw new NullPointerException("The predictor cannot be null.");
+		double[] decValues = new double[predictor.getDecisionCount()];
+		for (svm_node[] x : warmup)
+			predictor.predictValues(x, decValues);
+		Generation previous = current.get();
+		Generation next = new Generation(predictor, previous == null ? 0
+				: previous.version + 1);
+		current.set(next);
+		if (previous != null)
+		{
+			retiring.put(previous.version, previous);
+			// drop the reference of the registry
+			previous.release();
+		}
+		return next.version;
+	}
+
+	/**
+	 * Returns a deep copy of the specified model, whose support vectors are
+	 * read into the heap if they are the rows of a store.
+	 *
+	 * @param model
+	 *            the model
+	 * @return the copy
+	 */
+	private static svm_model copy(svm_model model)
+	{
+		svm_model copy = new svm_model();
+		copy.param = (svm_parameter) model.param.clone();
+		copy.param.control = null;
+		copy.nr_class = model.nr_class;
+		copy.l = model.l;
+		copy.SV = new svm_node[model.l][];
+		for (int i = 0; i < model.l; i++)
+		{
+			svm_node[] sv = svm_store.resolve(model.SV[i]);
+			copy.SV[i] = new svm_node[sv.length];
+			for (int j = 0; j < sv.length; j++)
+			{
+				copy.SV[i][j] = new svm_node();
+				copy.SV[i][j].index = sv[j].index;
+				copy.SV[i][j].value = sv[j].value;
+			}
+		}
+		copy.sv_coef = new double[model.sv_coef.length][];
+		for (int k = 0; k < model.sv_coef.length; k++)
+			copy.sv_coef[k] = model.sv_coef[k].clone();
+		copy.rho = model.rho.clone();
+		copy.probA = model.probA == null ? null : model.probA.clone();
+		copy.probB = model.probB == null ? null : model.probB.clone();
+		copy.label = model.label == null ? null : model.label.clone();
+		copy.nSV = model.nSV == null ? null : model.nSV.clone();
+		copy.sv_indices = model.sv_indices == null ? null : model.sv_indices
+				.clone();
+		return copy;
+	}
+
+	/**
+	 * Pin the current version.
+	 *
+	 * @return the lease of the version, to be closed after use
+	 */
+	public Lease acquire()
+	{
+		for (;;)
+		{
+			Generation generation = current.get();
+			// a version retired since it was read is never revived
+			if (generation.retain())
+				return new Lease(generation);
+		}
+	}
+
+	/**
+	 * Returns the current version.
+	 *
+	 * @return the version
+	 */
+	public long getVersion()
+	{
+		return current.get().version;
+	}
+
+	/**
+	 * Returns the amount of swapped out versions still pinned by some leases.
+	 *
+	 * @return the amount of retiring versions
+	 */
+	public int getRetiringCount()
+	{
+		return retiring.size();
+	}
+
+	/**
+	 * Wait until all the swapped out versions are released by their leases.
+	 *
+	 * @param timeout
+	 *            the maximal time to wait
+	 * @param unit
+	 *            the time unit of the timeout
+	 * @return <code>true</code> if all of them are retired,
+	 *         <code>false</code> if the timeout elapsed before
+	 * @throws InterruptedException
+	 *             if the current thread is interrupted while waiting
+	 */
+	public boolean awaitRetirement(long timeout, TimeUnit unit)
+			throws InterruptedException
+	{
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (Generation generation : retiring.values())
+			if (!generation.drained.await(deadline - System.nanoTime(),
+					TimeUnit.NANOSECONDS))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Returns the warm up samples of the publications.
+	 *
+	 * @return the warm up samples
+	 */
+	public svm_node[][] getWarmup()
+	{
+		return warmup;
+	}
+
+	/**
+	 * Set the warm up samples of the publications, predicted by each new
+	 * version before it is published.
+	 *
+	 * @param warmup
+	 *            the warm up samples, <code>null</code> for none
+	 */
+	public void setWarmup(svm_node[][] warmup)
+	{
+		this.warmup = warmup == null ? new svm_node[0][] : warmup;
+	}
+
+	/**
+	 * @see com.frank.svm.approx.Predictor#getDecisionCount()
+	 */
+	@Override
+	public int getDecisionCount()
+	{
+		return current.get().predictor.getDecisionCount();
+	}
+
+	/**
+	 * @see com.frank.svm.approx.Predictor#predict(libsvm.svm_node[])
+	 */
+	@Override
+	public double predict(svm_node[] x)
+	{
+		Lease lease = acquire();
+		try
+		{
+			return lease.predict(x);
+		}
+		finally
+		{
+			lease.close();
+		}
+	}
+
+	/**
+	 * @see com.frank.svm.approx.Predictor#predictValues(libsvm.svm_node[],
+	 *      double[])
+	 */
+	@Override
+	public double predictValues(svm_node[] x, double[] decValues)
+	{
+		Lease lease = acquire();
+		try
+		{
+			return lease.predictValues(x, decValues);
+		}
+		finally
+		{
+			lease.close();
+		}
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString()
+	{
+		return String.format("version = %d, retiring = %d", getVersion(),
+				getRetiringCount());
+	}
+
+	/**
+	 * A published version and its reference count, the registry holding one
+	 * reference until the version is swapped out.
+	 */
+	private final class Generation
+	{
+		final Predictor			predictor;
+		final long				version;
+		final AtomicInteger		references	= new AtomicInteger(1);
+		final CountDownLatch	drained		= new CountDownLatch(1);
+
+		Generation(Predictor predictor, long version)
+		{
+			this.predictor = predictor;
+			this.version = version;
+		}
+
+		/**
+		 * Increment the reference count unless the version is retired.
+		 */
+		boolean retain()
+		{
+			for (;;)
+			{
+				int count = references.get();
+				if (count == 0)
+					return false;
+				if (references.compareAndSet(count, count + 1))
+					return true;
+			}
+		}
+
+		void release()
+		{
+			if (references.decrementAndGet() == 0)
+			{
+				retiring.remove(version);
+				drained.countDown();
+			}
+		}
+	}
+
+	/**
+	 * The pin of a version, whose predictions all use the pinned version. A
+	 * lease is to be closed exactly once, by the thread which acquired it.
+	 */
+	public static final class Lease implements Predictor, AutoCloseable
+	{
+		private final ModelRegistry.Generation	generation;
+		private boolean							closed;
+
+		private Lease(ModelRegistry.Generation generation)
+		{
+			this.generation = generation;
+		}
+
+		/**
+		 * Returns the pinned version.
+		 *
+		 * @return the version
+		 */
+		public long getVersion()
+		{
+			return generation.version;
+		}
+
+		/**
+		 * Returns the predictor of the pinned version.
+		 *
+		 * @return the predictor
+		 */
+		public Predictor getPredictor()
+		{
+			return generation.predictor;
+		}
+
+		/**
+		 * @see com.frank.svm.approx.Predictor#getDecisionCount()
+		 */
+		@Override
+		public int getDecisionCount()
+		{
+			return generation.predictor.getDecisionCount();
+		}
+
+		/**
+		 * @see com.frank.svm.approx.Predictor#predict(libsvm.svm_node[])
+		 */
+		@Override
+		public double predict(svm_node[] x)
+		{
+			if (closed)
+				throw new IllegalStateException("The lease has been closed.");
+			return generation.predictor.predict(x);
+		}
+
+		/**
+		 * @see com.frank.svm.approx.Predictor#predictValues(libsvm.svm_node[],
+		 *      double[])
+		 */
+		@Override
+		public double predictValues(svm_node[] x, double[] decValues)
+		{
+			if (closed)
+				throw new IllegalStateException("The lease has been closed.");
+			return generation.predictor.predictValues(x, decValues);
+		}
+
+		/**
+		 * Release the pinned version.
+		 *
+		 * @see java.lang.AutoCloseable#close()
+		 */
+		@Override
+		public void close()
+		{
+			if (closed)
+				return;
+			closed = true;
+			generation.release();
+		}
+	}
+}
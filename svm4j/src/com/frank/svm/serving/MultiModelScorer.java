@@ -0,0 +1,574 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. MultiModelScorer.java is PROPRIETARY/CONFIDENTIAL built in 2013.
+ * Use is subject to license terms.
+ */
+package com.frank.svm.serving;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+import libsvm.svm_store;
+
+/**
+ * The scorer of a sample against several models sharing their kernel
+ * evaluations.
+ * <p>
+ * The models are grouped by their kernel parameters, i.e. the kernel type,
+ * degree, &gamma;, offset coefficient and fast math mode, and the support
+ * vectors of the
+ * models of a group are deduplicated by their (index, value) pairs. A query
+ * evaluates the kernel of each distinct support vector of each group once,
+ * from the sample scattered into a dense array, or merged with the support
+ * vectors if their features are negative or beyond 2<sup>20</sup>, then
+ * applies the coefficients and the biases of every model to the shared
+ * kernel values. The A/B variants, the per-segment models and the
+ * cross-validation sub-models of the same data share most of their support
+ * vectors, so that the cost of scoring them all approaches the cost of the
+ * largest one.
+ * </p>
+ * <p>
+ * The kernels of each group are evaluated as the models would, exactly or
+ * in the fast math mode, so that the decision values equal the ones of
+ * <code>svm.svm_predict_values</code> up to the rounding. The scorer is safe
+ * to be called from many threads, each one having its own scratch space. The
+ * models must not be modified afterwards.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class MultiModelScorer
+{
+	/**
+	 * The largest dimension of the scattered samples, as the dense scratch of
+	 * LIBSVM.
+	 */
+	private static final int			DENSE_MAX	= 1 << 20;
+	/**
+	 * The scored models.
+	 */
+	protected final svm_model[]			models;
+	/**
+	 * The kernel groups.
+	 */
+	private final Group[]				groups;
+	/**
+	 * The kernel group of each model.
+	 */
+	private final int[]					group;
+	/**
+	 * The distinct support vector of each support vector of each model.
+	 */
+	private final int[][]				sv;
+	/**
+	 * The dimension of the scattered samples, -1 if the samples are merged
+	 * with the support vectors instead.
+	 */
+	private final int					dim;
+	/**
+	 * The amount of support vectors of all the models.
+	 */
+	private final int					total;
+	private final ThreadLocal<Scratch>	scratch	= new ThreadLocal<Scratch>();
+
+	/**
+	 * Construct an instance of <tt>MultiModelScorer</tt>.
+	 *
+	 * @param models
+	 *            the scored models
+	 */
+	public MultiModelScorer(svm_model... models)
+	{
+		if (models == null || models.length == 0)
+			throw new IllegalArgumentException("The models cannot be empty.");
+		this.models = models.clone();
+		int n = models.length;
+		group = new int[n];
+		sv = new int[n][];
+		List<Group> list = new ArrayList<Group>();
+		int dim = 0, total = 0;
+		boolean negative = false;
+		for (int m = 0; m < n; m++)
+		{
+			svm_model model = models[m];
+			if (model == null)
+				throw new NullPointerException("The model cannot be null.");
+			svm_parameter param = model.param;
+			if (param.kernel_type == svm_parameter.PRECOMPUTED)
+				throw new IllegalArgumentException(
+						"A precomputed kernel model cannot be shared.");
+			int g = 0;
+			while (g < list.size() && !list.get(g).accepts(param))
+				g++;
+			if (g == list.size())
+				list.add(new Group(param));
+			group[m] = g;
+			Group shared = list.get(g);
+			sv[m] = new int[model.l];
+			for (int i = 0; i < model.l; i++)
+			{
+				svm_node[] x = svm_store.resolve(model.SV[i]);
+				sv[m][i] = shared.add(x);
+				for (svm_node node : x)
+				{
+					dim = Math.max(dim, node.index + 1);
+					negative |= node.index < 0;
+				}
+			}
+			total += model.l;
+		}
+		groups = list.toArray(new Group[list.size()]);
+		boolean merged = negative || dim > DENSE_MAX;
+		for (Group g : groups)
+			g.pack(merged);
+		this.dim = merged ? -1 : dim;
+		this.total = total;
+	}
+
+	/**
+	 * Returns the amount of models.
+	 *
+	 * @return the amount of models
+	 */
+	public int getModelCount()
+	{
+		return models.length;
+	}
+
+	/**
+	 * Returns the scored model at the specified position.
+	 *
+	 * @param m
+	 *            the position of the model
+	 * @return the model
+	 */
+	public svm_model getModel(int m)
+	{
+		return models[m];
+	}
+
+	/**
+	 * Returns the amount of support vectors of all the models.
+	 *
+	 * @return the amount of support vectors
+	 */
+	public int getSupportVectorCount()
+	{
+		return total;
+	}
+
+	/**
+	 * Returns the amount of kernel evaluations per query, i.e. the amount of
+	 * distinct support vectors of all the kernel groups.
+	 *
+	 * @return the amount of kernel evaluations
+	 */
+	public int getKernelCount()
+	{
+		int count = 0;
+		for (Group g : groups)
+			count += g.size;
+		return count;
+	}
+
+	/**
+	 * Returns the amount of decision values of the model at the specified
+	 * position.
+	 *
+	 * @param m
+	 *            the position of the model
+	 * @return the amount of decision values
+	 */
+	public int getDecisionCount(int m)
+	{
+		svm_model model = models[m];
+		return isClassification(model) ? model.nr_class
+				* (model.nr_class - 1) / 2 : 1;
+	}
+
+	/**
+	 * Returns the predicted labels or values of the specified sample by all
+	 * the models.
+	 *
+	 * @param x
+	 *            the feature vector of the sample
+	 * @return the predictions, in the order of the models
+	 */
+	public double[] predict(svm_node[] x)
+	{
+		double[] results = new double[models.length];
+		predictValues(x, results, null);
+		return results;
+	}
+
+	/**
+	 * Predict the specified sample by all the models.
+	 *
+	 * @param x
+	 *            the feature vector of the sample
+	 * @param results
+	 *            the predicted labels or values, in the order of the models
+	 * @param decValues
+	 *            the decision values of each model, <code>null</code> if not
+	 *            wanted
+	 */
+	public void predictValues(svm_node[] x, double[] results,
+			double[][] decValues)
+	{
+		x = svm_store.resolve(x);
+		Scratch s = scratch();
+		if (dim < 0)
+			for (int g = 0; g < groups.length; g++)
+				groups[g].merge(x, s.kvalue[g]);
+		else
+		{
+			double[] dense = s.dense;
+			double xx = 0;
+			for (svm_node node : x)
+			{
+				if (node.index >= 0 && node.index < dim)
+					dense[node.index] = node.value;
+				xx += node.value * node.value;
+			}
+			try
+			{
+				for (int g = 0; g < groups.length; g++)
+					groups[g].evaluate(dense, xx, s.kvalue[g]);
+			}
+			finally
+			{
+				for (svm_node node : x)
+					if (node.index >= 0 && node.index < dim)
+						dense[node.index] = 0;
+			}
+		}
+		for (int m = 0; m < models.length; m++)
+			results[m] = predict(m, s.kvalue[group[m]], decValues == null ? s.dec
+					: decValues[m], s.vote);
+	}
+
+	/**
+	 * Apply the coefficients and the biases of the specified model to the
+	 * kernel values of its group.
+	 *
+	 * @param m
+	 *            the position of the model
+	 * @param kvalue
+	 *            the kernel values of the distinct support vectors
+	 * @param decValues
+	 *            the decision values
+	 * @param vote
+	 *            the vote buffer
+	 * @return the predicted label or value
+	 */
+	private double predict(int m, double[] kvalue, double[] decValues,
+			int[] vote)
+	{
+		svm_model model = models[m];
+		int[] id = sv[m];
+		double[][] coef = model.sv_coef;
+		if (!isClassification(model))
+		{
+			double sum = 0;
+			for (int i = 0; i < model.l; i++)
+				sum += coef[0][i] * kvalue[id[i]];
+			sum -= model.rho[0];
+			decValues[0] = sum;
+			if (model.param.svm_type == svm_parameter.ONE_CLASS)
+				return sum > 0 ? 1 : -1;
+			return sum;
+		}
+		int nr_class = model.nr_class;
+		int[] nSV = model.nSV;
+		Arrays.fill(vote, 0, nr_class, 0);
+		int p = 0;
+		for (int i = 0, si = 0; i < nr_class; si += nSV[i++])
+			for (int j = i + 1, sj = si + nSV[i]; j < nr_class; sj += nSV[j++])
+			{
+				double sum = 0;
+				double[] coef1 = coef[j - 1];
+				double[] coef2 = coef[i];
+				for (int k = si; k < si + nSV[i]; k++)
+					sum += coef1[k] * kvalue[id[k]];
+				for (int k = sj; k < sj + nSV[j]; k++)
+					sum += coef2[k] * kvalue[id[k]];
+				sum -= model.rho[p];
+				decValues[p] = sum;
+				if (sum > 0)
+					++vote[i];
+				else
+					++vote[j];
+				p++;
+			}
+		int max = 0;
+		for (int i = 1; i < nr_class; i++)
+			if (vote[i] > vote[max])
+				max = i;
+		return model.label[max];
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the specified model is a classification model.
+	 *
+	 * @param model
+	 *            the model
+	 * @return <tt>true</tt> for C-SVC and &nu;-SVC
+	 */
+	private static boolean isClassification(svm_model model)
+	{
+		int type = model.param.svm_type;
+		return type == svm_parameter.C_SVC || type == svm_parameter.NU_SVC;
+	}
+
+	/**
+	 * Returns the scratch space of the calling thread.
+	 *
+	 * @return the scratch space
+	 */
+	private Scratch scratch()
+	{
+		Scratch s = scratch.get();
+		if (s == null)
+		{
+			int decisions = 1, classes = 1;
+			for (int m = 0; m < models.length; m++)
+			{
+				decisions = Math.max(decisions, getDecisionCount(m));
+				classes = Math.max(classes, models[m].nr_class);
+			}
+			s = new Scratch(dim, groups, classes, decisions);
+			scratch.set(s);
+		}
+		return s;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString()
+	{
+		return String.format(
+				"models = %d, kernel groups = %d, support vectors = %d, "
+						+ "kernel evaluations = %d", models.length,
+				groups.length, total, getKernelCount());
+	}
+
+	/**
+	 * The distinct support vectors of the models sharing a kernel.
+	 */
+	private static final class Group
+	{
+		final int						kernelType;
+		final int						degree;
+		final double					gamma;
+		final double					coef0;
+		/**
+		 * The fast math mode of the RBF and sigmoid kernels.
+		 */
+		final boolean					fastMath;
+		/**
+		 * The kernel parameter of the first model.
+		 */
+		final svm_parameter				kernel;
+		/**
+		 * The position of each distinct support vector, until packed.
+		 */
+		Map<Vector, Integer>			positions	= new HashMap<Vector, Integer>();
+		List<svm_node[]>				vectors		= new ArrayList<svm_node[]>();
+		int								size;
+		/**
+		 * The distinct support vectors, if they are merged with the samples.
+		 */
+		svm_node[][]					rows;
+		/**
+		 * The distinct support vectors in the compressed sparse row layout,
+		 * if the samples are scattered.
+		 */
+		int[]							start;
+		int[]							index;
+		double[]						values;
+		double[]						squares;
+
+		Group(svm_parameter param)
+		{
+			kernelType = param.kernel_type;
+			degree = param.degree;
+			gamma = param.gamma;
+			coef0 = param.coef0;
+			fastMath = param.fast_math == 1
+					&& (kernelType == svm_parameter.RBF
+					|| kernelType == svm_parameter.SIGMOID);
+			kernel = param;
+		}
+
+		/**
+		 * Returns <tt>true</tt> if the specified parameter has the kernel of
+		 * this group.
+		 */
+		boolean accepts(svm_parameter param)
+		{
+			if (param.kernel_type != kernelType)
+				return false;
+			switch (kernelType)
+			{
+				case svm_parameter.POLY:
+					return param.degree == degree && param.gamma == gamma
+							&& param.coef0 == coef0;
+				case svm_parameter.RBF:
+					return param.gamma == gamma
+							&& (param.fast_math == 1) == fastMath;
+				case svm_parameter.SIGMOID:
+					return param.gamma == gamma && param.coef0 == coef0
+							&& (param.fast_math == 1) == fastMath;
+				default:
+					return true;
+			}
+		}
+
+		/**
+		 * Returns the position of the specified support vector, adding it if
+		 * it is new.
+		 */
+		int add(svm_node[] x)
+		{
+			Vector key = new Vector(x);
+			Integer position = positions.get(key);
+			if (position == null)
+			{
+				positions.put(key, position = size++);
+				vectors.add(x);
+			}
+			return position;
+		}
+
+		/**
+		 * Pack the distinct support vectors into the compressed sparse rows,
+		 * or keep them as they are to be merged with the samples.
+		 */
+		void pack(boolean merged)
+		{
+			if (merged)
+			{
+				rows = vectors.toArray(new svm_node[size][]);
+				positions = null;
+				vectors = null;
+				return;
+			}
+			int nnz = 0;
+			for (svm_node[] x : vectors)
+				nnz += x.length;
+			start = new int[size + 1];
+			index = new int[nnz];
+			values = new double[nnz];
+			squares = new double[size];
+			int p = 0;
+			for (int i = 0; i < size; i++)
+			{
+				start[i] = p;
+				double sum = 0;
+				for (svm_node node : vectors.get(i))
+				{
+					index[p] = node.index;
+					values[p++] = node.value;
+					sum += node.value * node.value;
+				}
+				squares[i] = sum;
+			}
+			start[size] = p;
+			positions = null;
+			vectors = null;
+		}
+
+		/**
+		 * Evaluate the kernel of the scattered sample and of every distinct
+		 * support vector.
+		 */
+		void evaluate(double[] dense, double xx, double[] kvalue)
+		{
+			for (int i = 0; i < size; i++)
+			{
+				double dot = 0;
+				for (int p = start[i]; p < start[i + 1]; p++)
+					dot += dense[index[p]] * values[p];
+				kvalue[i] = svm.svm_k_value(dot, xx, squares[i], kernel);
+			}
+		}
+
+		/**
+		 * Evaluate the kernel of the sample and of every distinct support
+		 * vector by merging their features.
+		 */
+		void merge(svm_node[] x, double[] kvalue)
+		{
+			for (int i = 0; i < size; i++)
+				kvalue[i] = svm.svm_k_function(x, rows[i], kernel);
+		}
+	}
+
+	/**
+	 * The (index, value) pairs of a support vector, as a hash key.
+	 */
+	private static final class Vector
+	{
+		final int[]		index;
+		final double[]	value;
+		final int		hash;
+
+		Vector(svm_node[] x)
+		{
+			index = new int[x.length];
+			value = new double[x.length];
+			for (int i = 0; i < x.length; i++)
+			{
+				index[i] = x[i].index;
+				value[i] = x[i].value;
+			}
+			hash = 31 * Arrays.hashCode(index) + Arrays.hashCode(value);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Vector))
+				return false;
+			Vector v = (Vector) o;
+			return hash == v.hash && Arrays.equals(index, v.index)
+					&& Arrays.equals(value, v.value);
+		}
+	}
+
+	/**
+	 * The scratch space of a thread.
+	 */
+	private static final class Scratch
+	{
+		final double[]		dense;
+		final double[][]	kvalue;
+		final int[]			vote;
+		final double[]		dec;
+
+		Scratch(int dim, Group[] groups, int nrClass, int decisions)
+		{
+			dense = new double[Math.max(dim, 0)];
+			kvalue = new double[groups.length][];
+			for (int g = 0; g < groups.length; g++)
+				kvalue[g] = new double[groups[g].size];
+			vote = new int[nrClass];
+			dec = new double[decisions];
+		}
+	}
+}
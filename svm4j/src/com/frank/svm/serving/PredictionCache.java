@@ -0,0 +1,426 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. PredictionCache.java is PROPRIETARY/CONFIDENTIAL built in 2013.
+ * Use is subject to license terms.
+ */
+package com.frank.svm.serving;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import libsvm.svm_node;
+
+import com.frank.svm.approx.Predictor;
+
+/**
+ * The bounded cache of the prediction results of a predictor.
+ * <p>
+ * The results are keyed by a 64-bit hash of the (index, value) pairs of the
+ * sample in index order and by the version of the predictor. The key keeps a
+ * copy of the pairs, so that a hash collision is detected and never returns
+ * the result of another sample. The cache is split into segments by the
+ * hash, each one guarded by its own lock and evicting its least recently used
+ * entry beyond its share of the capacity, so that concurrent predictions
+ * rarely contend.
+ * </p>
+ * <p>
+ * A reload through {@linkplain #setPredictor(Predictor)} increments the
+ * version and drops all the entries. A prediction still running on the
+ * previous predictor stores its result under the previous version, which no
+ * later lookup matches, so that no stale result is ever served.
+ * </p>
+ * <p>
+ * The hits, misses and evictions are counted for monitoring.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class PredictionCache implements Predictor
+{
+	/**
+	 * The default amount of segments.
+	 */
+	private static final int	SEGMENTS	= 16;
+	/**
+	 * The current predictor and its version.
+	 */
+	private volatile Version	current;
+	/**
+	 * The segments.
+	 */
+	private final Segment[]		segments;
+	/**
+	 * The amount of lookups served from the cache.
+	 */
+	private final AtomicLong	hits		= new AtomicLong();
+	/**
+	 * The amount of lookups computed by the predictor.
+	 */
+	private final AtomicLong	misses		= new AtomicLong();
+	/**
+	 * The amount of entries evicted by the capacity bound.
+	 */
+	private final AtomicLong	evictions	= new AtomicLong();
+
+	/**
+	 * Construct an instance of <tt>PredictionCache</tt>.
+	 *
+	 * @param predictor
+	 *            the predictor
+	 * @param capacity
+	 *            the maximal amount of cached results, positive
+	 */
+	public PredictionCache(Predictor predictor, int capacity)
+	{
+		if (predictor == null)
+			throw new NullPointerException("The predictor cannot be null.");
+		if (capacity <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The capacity %d must be positive.", capacity));
+		current = new Version(predictor, 0);
+		int n = Math.min(SEGMENTS, capacity);
+		segments = new Segment[n];
+		for (int s = 0; s < n; s++)
+			segments[s] = new Segment(capacity / n + (s < capacity % n ? 1 : 0));
+	}
+
+	/**
+	 * Returns the current predictor.
+	 *
+	 * @return the predictor
+	 */
+	public Predictor getPredictor()
+	{
+		return current.predictor;
+	}
+
+	/**
+	 * Replace the predictor, e.g. after a model reload, and drop all the
+	 * cached results.
+	 *
+	 * @param predictor
+	 *            the new predictor
+	 */
+	public synchronized void setPredictor(Predictor predictor)
+	{
+		if (predictor == null)
+			throw new NullPointerException("The predictor cannot be null.");
+		current = new Version(predictor, current.version + 1);
+		clear();
+	}
+
+	/**
+	 * Returns the version of the current predictor, incremented by every
+	 * {@linkplain #setPredictor(Predictor)}.
+	 *
+	 * @return the version
+	 */
+	public long getVersion()
+	{
+		return current.version;
+	}
+
+	/**
+	 * Drop all the cached results.
+	 */
+	public void clear()
+	{
+		for (Segment segment : segments)
+			synchronized (segment)
+			{
+				segment.clear();
+			}
+	}
+
+	/**
+	 * @see com.frank.svm.approx.Predictor#getDecisionCount()
+	 */
+	@Override
+	public int getDecisionCount()
+	{
+		return current.predictor.getDecisionCount();
+	}
+
+	/**
+	 * @see com.frank.svm.approx.Predictor#predict(libsvm.svm_node[])
+	 */
+	@Override
+	public double predict(svm_node[] x)
+	{
+		return lookup(x).result;
+	}
+
+	/**
+	 * @see com.frank.svm.approx.Predictor#predictValues(libsvm.svm_node[],
+	 *      double[])
+	 */
+	@Override
+	public double predictValues(svm_node[] x, double[] decValues)
+	{
+		Result cached = lookup(x);
+		System.arraycopy(cached.decValues, 0, decValues, 0,
+				cached.decValues.length);
+		return cached.result;
+	}
+
+	/**
+	 * Returns the cached result of the specified sample, computing and
+	 * caching it on a miss.
+	 *
+	 * @param x
+	 *            the feature vector of the sample
+	 * @return the cached result
+	 */
+	private Result lookup(svm_node[] x)
+	{
+		Version version = current;
+		Key key = new Key(x, version.version);
+		Segment segment = segments[(int) ((key.hash >>> 32) % segments.length)];
+		Result cached;
+		synchronized (segment)
+		{
+			cached = segment.get(key);
+		}
+		if (cached != null)
+		{
+			hits.incrementAndGet();
+			return cached;
+		}
+		misses.incrementAndGet();
+		// predict outside of the lock, a concurrent miss of the same sample
+		// computes the same result
+		double[] decValues = new double[version.predictor.getDecisionCount()];
+		double result = version.predictor.predictValues(x, decValues);
+		cached = new Result(result, decValues);
+		synchronized (segment)
+		{
+			segment.put(key, cached);
+		}
+		return cached;
+	}
+
+	/**
+	 * Returns the amount of lookups served from the cache.
+	 *
+	 * @return the hits
+	 */
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	/**
+	 * Returns the amount of lookups computed by the predictor.
+	 *
+	 * @return the misses
+	 */
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * Returns the amount of entries evicted by the capacity bound.
+	 *
+	 * @return the evictions
+	 */
+	public long getEvictions()
+	{
+		return evictions.get();
+	}
+
+	/**
+	 * Returns the fraction of the lookups served from the cache.
+	 *
+	 * @return the hit rate, 0 before the first lookup
+	 */
+	public double getHitRate()
+	{
+		long h = hits.get(), total = h + misses.get();
+		return total == 0 ? 0 : h / (double) total;
+	}
+
+	/**
+	 * Returns the amount of cached results.
+	 *
+	 * @return the size of the cache
+	 */
+	public int size()
+	{
+		int size = 0;
+		for (Segment segment : segments)
+			synchronized (segment)
+			{
+				size += segment.size();
+			}
+		return size;
+	}
+
+	/**
+	 * Reset the hit, miss and eviction counters.
+	 */
+	public void resetStatistics()
+	{
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString()
+	{
+		return String.format(
+				"size = %d, hits = %d, misses = %d, hit rate = %.2f%%, "
+						+ "evictions = %d, version = %d", size(), getHits(),
+				getMisses(), getHitRate() * 100.0, getEvictions(),
+				getVersion());
+	}
+
+	/**
+	 * A predictor and its version.
+	 */
+	private static final class Version
+	{
+		final Predictor	predictor;
+		final long		version;
+
+		Version(Predictor predictor, long version)
+		{
+			this.predictor = predictor;
+			this.version = version;
+		}
+	}
+
+	/**
+	 * A cached result.
+	 */
+	private static final class Result
+	{
+		final double	result;
+		final double[]	decValues;
+
+		Result(double result, double[] decValues)
+		{
+			this.result = result;
+			this.decValues = decValues;
+		}
+	}
+
+	/**
+	 * The key of a sample: the (index, value) pairs in index order, their
+	 * hash and the version of the predictor.
+	 */
+	private static final class Key
+	{
+		final int[]		index;
+		final double[]	value;
+		final long		version;
+		final long		hash;
+
+		Key(svm_node[] x, long version)
+		{
+			int n = x.length;
+			index = new int[n];
+			value = new double[n];
+			boolean sorted = true;
+			for (int i = 0; i < n; i++)
+			{
+				index[i] = x[i].index;
+				value[i] = x[i].value;
+				sorted &= i == 0 || index[i - 1] <= index[i];
+			}
+			if (!sorted)
+				sort(index, value);
+			this.version = version;
+			long h = 0x9e3779b97f4a7c15L ^ version;
+			for (int i = 0; i < n; i++)
+			{
+				h = mix(h ^ index[i]);
+				h = mix(h ^ Double.doubleToLongBits(value[i]));
+			}
+			hash = mix(h ^ n);
+		}
+
+		/**
+		 * Returns the 64-bit finalizer of MurmurHash3 applied to the
+		 * specified value.
+		 */
+		private static long mix(long h)
+		{
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			h *= 0xc4ceb9fe1a85ec53L;
+			h ^= h >>> 33;
+			return h;
+		}
+
+		/**
+		 * Sort the pairs by index, by insertion since the feature vectors
+		 * are short and nearly sorted.
+		 */
+		private static void sort(int[] index, double[] value)
+		{
+			for (int i = 1; i < index.length; i++)
+			{
+				int f = index[i];
+				double v = value[i];
+				int j = i - 1;
+				for (; j >= 0 && index[j] > f; j--)
+				{
+					index[j + 1] = index[j];
+					value[j + 1] = value[j];
+				}
+				index[j + 1] = f;
+				value[j + 1] = v;
+			}
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return (int) hash;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			// the arrays are compared to detect the hash collisions
+			return hash == k.hash && version == k.version
+					&& Arrays.equals(index, k.index)
+					&& Arrays.equals(value, k.value);
+		}
+	}
+
+	/**
+	 * A segment of the cache, in least recently used order.
+	 */
+	private final class Segment extends LinkedHashMap<Key, Result>
+	{
+		private static final long	serialVersionUID	= 1L;
+		private final int			capacity;
+
+		Segment(int capacity)
+		{
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Result> eldest)
+		{
+			if (size() <= capacity)
+				return false;
+			evictions.incrementAndGet();
+			return true;
+		}
+	}
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. PredictionCoalescer.java is PROPRIETARY/CONFIDENTIAL built in
+ * 2013. Use is subject to license terms.
+ */
+package com.frank.svm.serving;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+import libsvm.svm_workspace;
+
+import com.frank.svm.approx.Predictor;
+
+/**
+ * The micro-batching coalescer of the concurrent predictions of a model.
+ * <p>
+ * The single sample requests of many threads are queued, and a dispatcher
+ * thread collects them into a batch until either the batch is full or the
+ * maximal delay since the arrival of its first request has elapsed. The batch
+ * is predicted by {@linkplain svm#svm_predict_batch(svm_model, svm_node[][],
+ * int, double[], double[][], svm_workspace)}, which walks the support vectors
+ * once per batch in blocks kept in the cache instead of once per sample, and
+ * the future of each request is completed with its result. Each dispatcher
+ * keeps its own workspace, so that the data of the support vectors is
+ * computed once and the batches are scattered without allocating. The extra
+ * latency of a request is bounded by the maximal delay plus the prediction of
+ * one batch.
+ * </p>
+ * <p>
+ * A batch whose prediction fails, even by an {@linkplain Error}, fails the
+ * futures of its requests and the dispatcher goes on with a new workspace. A
+ * dispatcher failing outside of a batch shuts the coalescer down and fails
+ * the pending requests, so that no request is left waiting.
+ * </p>
+ * <p>
+ * With several dispatchers, the batches are collected and predicted in
+ * parallel. The coalescer is itself a {@linkplain Predictor}, whose
+ * predictions block until the batch of the request is predicted, so that it
+ * can replace the model behind <code>SVM.predict(Predictor, Sample)</code>.
+ * The dispatchers are daemon threads, which are stopped by
+ * {@linkplain #shutdown()}.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class PredictionCoalescer implements Predictor
+{
+	/**
+	 * The callable of the futures, which are completed by the dispatchers
+	 * instead of being run.
+	 */
+	private static final Callable<Double>	NONE		= new Callable<Double>()
+														{
+															@Override
+															public Double call()
+															{
+																throw new UnsupportedOperationException();
+															}
+														};
+	/**
+	 * The predicted model.
+	 */
+	protected final svm_model				model;
+	/**
+	 * The maximal amount of requests of a batch.
+	 */
+	protected final int						maxBatch;
+	/**
+	 * The maximal delay of a batch after its first request, in nanoseconds.
+	 */
+	protected final long					maxDelay;
+	/**
+	 * The amount of decision values of a sample.
+	 */
+	private final int						decisions;
+	/**
+	 * The queued requests.
+	 */
+	private final BlockingQueue<Request>	queue		= new LinkedBlockingQueue<Request>();
+	/**
+	 * The dispatchers.
+	 */
+	private final Thread[]					dispatchers;
+	/**
+	 * Whether the coalescer has been shut down.
+	 */
+	private volatile boolean				closed;
+	/**
+	 * The amount of predicted batches.
+	 */
+	private final AtomicLong				batches		= new AtomicLong();
+	/**
+	 * The amount of predicted requests.
+	 */
+	private final AtomicLong				requests	= new AtomicLong();
+
+	/**
+	 * Construct an instance of <tt>PredictionCoalescer</tt> with a single
+	 * dispatcher.
+	 *
+	 * @param model
+	 *            the predicted model
+	 * @param maxBatch
+	 *            the maximal amount of requests of a batch, positive
+	 * @param maxDelay
+	 *            the maximal delay of a batch after its first request,
+	 *            nonnegative
+	 * @param unit
+	 *            the time unit of the delay
+	 */
+	public PredictionCoalescer(svm_model model, int maxBatch, long maxDelay,
+			TimeUnit unit)
+	{
+		this(model, maxBatch, maxDelay, unit, 1);
+	}
+
+	/**
+	 * Construct an instance of <tt>PredictionCoalescer</tt>.
+	 *
+	 * @param model
+	 *            the predicted model
+	 * @param maxBatch
+	 *            the maximal amount of requests of a batch, positive
+	 * @param maxDelay
+	 *            the maximal delay of a batch after its first request,
+	 *            nonnegative
+	 * @param unit
+	 *            the time unit of the delay
+	 * @param dispatchers
+	 *            the amount of dispatcher threads, positive
+	 */
+	public PredictionCoalescer(svm_model model, int maxBatch, long maxDelay,
+			TimeUnit unit, int dispatchers)
+	{
+		if (model == null)
+			throw new NullPointerException("The model cannot be null.");
+		if (maxBatch <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The maximal batch size %d must be positive.", maxBatch));
+		if (maxDelay < 0)
+			throw new IllegalArgumentException(String.format(
+					"The maximal delay %d must be nonnegative.", maxDelay));
+		if (dispatchers <= 0)
+			throw new IllegalArgumentException(String.format(
+					"The amount of dispatchers %d must be positive.",
+					dispatchers));
+		this.model = model;
+		this.maxBatch = maxBatch;
+		this.maxDelay = unit.toNanos(maxDelay);
+		int type = model.param.svm_type;
+		decisions = type == svm_parameter.C_SVC
+				|| type == svm_parameter.NU_SVC ? model.nr_class
+				* (model.nr_class - 1) / 2 : 1;
+		this.dispatchers = new Thread[dispatchers];
+		for (int i = 0; i < dispatchers; i++)
+		{
+			Thread thread = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					dispatch();
+				}
+			}, "svm-coalescer-" + i);
+			thread.setDaemon(true);
+			this.dispatchers[i] = thread;
+			thread.start();
+		}
+	}
+
+	/**
+	 * Returns the predicted model.
+	 *
+	 * @return the model
+	 */
+	public svm_model getModel()
+	{
+		return model;
+	}
+
+	/**
+	 * Queue the prediction of the specified sample.
+	 *
+	 * @param x
+	 *            the feature vector of the sample
+	 * @return the future of the predicted label or value
+	 */
+	public Future<Double> submit(svm_node[] x)
+	{
+		return enqueue(x);
+	}
+
+	/**
+	 * Queue the prediction of the specified sample.
+	 *
+	 * @param x
+	 *            the feature vector of the sample
+	 * @return the request
+	 */
+	private Request enqueue(svm_node[] x)
+	{
+		if (x == null)
+			throw new NullPointerException("The sample cannot be null.");
+		if (closed)
+			throw new IllegalStateException("The coalescer has been shut down.");
+		Request request = new Request(x, new double[decisions]);
+		queue.add(request);
+		// a request queued during the shut down is not left pending
+		if (closed && queue.remove(request))
+			request.cancel(false);
+		return request;
+	}
+
+	/**
+	 * @see com.frank.svm.approx.Predictor#getDecisionCount()
+	 */
+	@Override
+	public int getDecisionCount()
+	{
+		return decisions;
+	}
+
+	/**
+	 * @see com.frank.svm.approx.Predictor#predict(libsvm.svm_node[])
+	 */
+	@Override
+	public double predict(svm_node[] x)
+	{
+		return await(enqueue(x));
+	}
+
+	/**
+	 * @see com.frank.svm.approx.Predictor#predictValues(libsvm.svm_node[],
+	 *      double[])
+	 */
+	@Override
+	public double predictValues(svm_node[] x, double[] decValues)
+	{
+		Request request = enqueue(x);
+		double result = await(request);
+		System.arraycopy(request.decValues, 0, decValues, 0, decisions);
+		return result;
+	}
+
+	/**
+	 * Wait for the completion of the specified request.
+	 *
+	 * @param request
+	 *            the request
+	 * @return the predicted label or value
+	 */
+	private static double await(Request request)
+	{
+		try
+		{
+			return request.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(
+					"The prediction has been interrupted.", e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Collect and predict the batches until the shut down.
+	 */
+	private void dispatch()
+	{
+		List<Request> batch = new ArrayList<Request>(maxBatch);
+		svm_node[][] x = new svm_node[maxBatch][];
+		double[] results = new double[maxBatch];
+		double[][] decValues = new double[maxBatch][];
+		// the scratch of the batches, with the data of the support vectors
+		svm_workspace workspace = new svm_workspace(model);
+		try
+		{
+			while (!closed)
+			{
+				batch.add(queue.take());
+				long deadline = System.nanoTime() + maxDelay;
+				while (batch.size() < maxBatch)
+				{
+					if (queue.drainTo(batch, maxBatch - batch.size()) > 0)
+						continue;
+					long wait = deadline - System.nanoTime();
+					if (wait <= 0)
+						break;
+					Request request = queue.poll(wait, TimeUnit.NANOSECONDS);
+					if (request == null)
+						break;
+					batch.add(request);
+				}
+				int n = batch.size();
+				for (int i = 0; i < n; i++)
+				{
+					x[i] = batch.get(i).x;
+					decValues[i] = batch.get(i).decValues;
+				}
+				try
+				{
+					svm.svm_predict_batch(model, x, n, results, decValues,
+							workspace);
+					for (int i = 0; i < n; i++)
+						batch.get(i).complete(results[i]);
+				}
+				catch (Throwable e)
+				{
+					for (Request request : batch)
+						request.fail(e);
+					// the failure may have left the scratch dirty
+					workspace = new svm_workspace(model);
+				}
+				batches.incrementAndGet();
+				requests.addAndGet(n);
+				batch.clear();
+				for (int i = 0; i < n; i++)
+				{
+					x[i] = null;
+					decValues[i] = null;
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			// shut down
+		}
+		catch (Throwable e)
+		{
+			// a dead dispatcher would leave the queued requests pending
+			for (Request request : batch)
+				request.fail(e);
+			closed = true;
+			for (Thread thread : dispatchers)
+				thread.interrupt();
+			List<Request> pending = new ArrayList<Request>();
+			queue.drainTo(pending);
+			for (Request request : pending)
+				request.fail(e);
+		}
+		finally
+		{
+			for (Request request : batch)
+				request.cancel(false);
+		}
+	}
+
+	/**
+	 * Stop the dispatchers and cancel the pending requests. The batches being
+	 * predicted are completed.
+	 */
+	public void shutdown()
+	{
+		closed = true;
+		for (Thread thread : dispatchers)
+			thread.interrupt();
+		List<Request> pending = new ArrayList<Request>();
+		queue.drainTo(pending);
+		for (Request request : pending)
+			request.cancel(false);
+	}
+
+	/**
+	 * Returns whether the coalescer has been shut down.
+	 *
+	 * @return <code>true</code> after {@linkplain #shutdown()}
+	 */
+	public boolean isShutdown()
+	{
+		return closed;
+	}
+
+	/**
+	 * Returns the amount of predicted batches.
+	 *
+	 * @return the amount of batches
+	 */
+	public long getBatchCount()
+	{
+		return batches.get();
+	}
+
+	/**
+	 * Returns the amount of predicted requests.
+	 *
+	 * @return the amount of requests
+	 */
+	public long getRequestCount()
+	{
+		return requests.get();
+	}
+
+	/**
+	 * Returns the mean amount of requests of a batch.
+	 *
+	 * @return the mean batch size, 0 before the first batch
+	 */
+	public double getMeanBatchSize()
+	{
+		long b = batches.get();
+		return b == 0 ? 0 : requests.get() / (double) b;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString()
+	{
+		return String.format(
+				"batches = %d, requests = %d, mean batch size = %.2f",
+				getBatchCount(), getRequestCount(), getMeanBatchSize());
+	}
+
+	/**
+	 * A queued request, completed by the dispatcher.
+	 */
+	private static final class Request extends FutureTask<Double>
+	{
+		final svm_node[]	x;
+		final double[]		decValues;
+
+		Request(svm_node[] x, double[] decValues)
+		{
+			super(NONE);
+			this.x = x;
+			this.decValues = decValues;
+		}
+
+		void complete(double result)
+		{
+			set(result);
+		}
+
+		void fail(Throwable cause)
+		{
+			setException(cause);
+		}
+	}
+}
@@ -0,0 +1,17 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved. package-info.java is PROPRIETARY/CONFIDENTIAL built in 2013. Use is
+ * subject to license terms.
+ */
+/**
+ * The serving package of LIBSVM models.
+ * <p>
+ * In this package, trained models are put behind the facilities of an online
+ * prediction service, which are safe to be called from many threads at the
+ * same time.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+package com.frank.svm.serving;
@@ -0,0 +1,144 @@
+package libsvm;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+//
+// Persistent worker pool for the data-parallel loops of the solver
+//
+// a range [0,n) is cut into one contiguous slice per thread, the calling
+// thread takes slice 0 and each worker one of the others. Work is handed over
+// by bumping a volatile generation counter: workers spin on it for a while
+// and only then park, so that the hand-over between two solver iterations
+// costs well under a microsecond while an idle pool does not burn CPU.
+//
+final class WorkerPool
+{
+	interface Task
+	{
+		// process [from,to), the slice number part is in [0,size())
+		void run(int part, int from, int to);
+	}
+
+	private final class Worker extends Thread
+	{
+		private final int		part;
+		volatile boolean		parked;
+
+		Worker(int part)
+		{
+			super("svm-solver-worker-" + part);
+			this.part = part;
+			setDaemon(true);
+		}
+
+		public void run()
+		{
+			long seen = 0;
+			while (true)
+			{
+				long g;
+				int spins = 0;
+				while ((g = generation) == seen)
+					if (++spins > WorkerPool.SPIN)
+					{
+						// announce parking before the final check, so that
+						// either we see the new generation or the master
+						// sees us parked and unparks us
+						parked = true;
+						if (generation == seen)
+							LockSupport.park(WorkerPool.this);
+						parked = false;
+					}
+				seen = g;
+				if (shutdown)
+					return;
+				try
+				{
+					task.run(part, slice_begin(part), slice_begin(part + 1));
+				}
+				catch (Throwable e)
+				{
+					failure = e;
+				}
+				pending.decrementAndGet();
+			}
+		}
+	}
+
+	// busy-wait rounds before a thread parks or yields
+	private static final int	SPIN	= 1 << 14;
+	private volatile Throwable	failure;
+	private volatile long		generation;
+	private int					n;
+	private final AtomicInteger	pending	= new AtomicInteger();
+	private volatile boolean	shutdown;
+	private Task				task;
+	private final Worker[]		workers;
+
+	WorkerPool(int nr_threads)
+	{
+		workers = new Worker[nr_threads - 1];
+		for (int w = 0; w < workers.length; w++)
+		{
+			workers[w] = new Worker(w + 1);
+			workers[w].start();
+		}
+	}
+
+	// publish a new generation and wake up the parked workers
+	private void publish()
+	{
+		pending.set(workers.length);
+		generation++;
+		for (Worker w : workers)
+			if (w.parked)
+				LockSupport.unpark(w);
+	}
+
+	// run task over [0,n) on all threads and wait for it to finish
+	void run(Task task, int n)
+	{
+		this.task = task;
+		this.n = n;
+		publish();
+		task.run(0, 0, slice_begin(1));
+		int spins = 0;
+		while (pending.get() != 0)
+			if (++spins > WorkerPool.SPIN)
+				Thread.yield();
+		this.task = null;
+		Throwable e = failure;
+		if (e != null)
+		{
+			failure = null;
+			if (e instanceof RuntimeException)
+				throw (RuntimeException) e;
+			if (e instanceof Error)
+				throw (Error) e;
+			throw new RuntimeException(e);
+		}
+	}
+
+	void shutdown()
+	{
+		shutdown = true;
+		publish();
+	}
+
+	int size()
+	{
+		return workers.length + 1;
+	}
+
+	// slice boundaries are kept on multiples of 16 elements, so that two
+	// threads do not write to the same cache line of a double[]
+	private int slice_begin(int part)
+	{
+		if (part == 0)
+			return 0;
+		if (part >= size())
+			return n;
+		return (int) ((long) n * part / size()) & ~15;
+	}
+}
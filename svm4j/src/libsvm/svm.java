@@ -8,6 +8,12 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.Random;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 //
 // Kernel Cache
@@ -25,8 +31,10 @@ class Cache
 	}
 
 	private final head_t[]	head;
+	long					hits;
 	private final int		l;
 	private head_t			lru_head;
+	long					misses;
 	private long			size;
 
 	Cache(int l_, long size_)
@@ -54,6 +62,10 @@ class Cache
 		if (h.len > 0)
 			lru_delete(h);
 		int more = len - h.len;
+		if (more > 0)
+			misses++;
+		else
+			hits++;
 		if (more > 0)
 		{
 			// free old space
@@ -84,6 +96,13 @@ class Cache
 		return len;
 	}
 
+	// fraction of the requests served without computing anything
+	double hit_rate()
+	{
+		long n = hits + misses;
+		return n == 0 ? 0 : hits / (double) n;
+	}
+
 	private void lru_delete(head_t h)
 	{
 		// delete from current location
@@ -155,8 +174,91 @@ class Cache
 	}
 }
 
+//
+// Fast approximate exp and tanh, used by the kernels when fast_math is set
+//
+// exp(x) = 2^(n/64) * exp(r) with |r| <= ln(2)/128, 2^(j/64) is tabulated and
+// exp(r) is a cubic polynomial, max relative error 5e-11 (r^4/24)
+// tanh(x) = (1 - e) / (1 + e) with e = exp(-2|x|), a Taylor polynomial below
+// 1/16 where the division would cancel, max relative error 5e-10
+//
+final class FastMath
+{
+	// ln(2)/64 split so that k * LN2_HI is exact
+	private static final double		LN2_HI		= 6.93147180369123816490e-01 / 64;
+	private static final double		LN2_LO		= 1.90821492927058770002e-10 / 64;
+	private static final double		INV_LN2		= 64 / Math.log(2);
+	// adding 1.5 * 2^52 rounds to an integer held in the low mantissa bits
+	private static final double		SHIFT		= 6755399441055744.0;
+	private static final double[]	TABLE		= new double[64];
+	static
+	{
+		for (int j = 0; j < 64; j++)
+			TABLE[j] = Math.pow(2.0, j / 64.0);
+	}
+
+	static double exp(double x)
+	{
+		if (!(x > -708.0))
+			return x != x ? x : 0.0; // NaN or underflow
+		if (x > 709.0)
+			return Double.POSITIVE_INFINITY;
+		double s = x * INV_LN2 + SHIFT;
+		int n = (int) Double.doubleToRawLongBits(s);
+		double k = s - SHIFT;
+		double r = x - k * LN2_HI - k * LN2_LO;
+		double p = 1 + r * (1 + r * (0.5 + r * (1.0 / 6)));
+		return TABLE[n & 63] * p
+				* Double.longBitsToDouble((long) ((n >> 6) + 1023) << 52);
+	}
+
+	static double tanh(double x)
+	{
+		double a = Math.abs(x);
+		if (a < 0.0625)
+		{
+			double x2 = x * x;
+			return x
+					* (1 + x2 * (-1.0 / 3 + x2 * (2.0 / 15 + x2 * (-17.0 / 315))));
+		}
+		if (a > 22)
+			return x < 0 ? -1.0 : 1.0;
+		double e = FastMath.exp(-2 * a);
+		double t = (1 - e) / (1 + e);
+		return x < 0 ? -t : t;
+	}
+}
+
 abstract class Kernel extends QMatrix
 {
+	// the largest feature index scattered into a dense scratch array
+	static final int	DENSE_MAX	= 1 << 20;
+
+	// the length of the dense array indexed by the features of the first l
+	// rows of x, 0 if an index is negative or larger than DENSE_MAX
+	static int dense_length(svm_node[][] x, int l)
+	{
+		int length = 0;
+		for (int i = 0; i < l; i++)
+			for (svm_node node : x[i])
+			{
+				if (node.index < 0 || node.index >= DENSE_MAX)
+					return 0;
+				length = Math.max(length, node.index + 1);
+			}
+		return length;
+	}
+
+	// clears the entries of ws.dense set by scatter(x, param, ws)
+	static void clear(svm_node[] x, svm_workspace ws)
+	{
+		if (ws.dense_length < 0)
+			return;
+		for (svm_node node : x)
+			ws.dense[node.index] = 0;
+		ws.dense_length = -1;
+	}
+
 	static double dot(svm_node[] x, svm_node[] y)
 	{
 		double sum = 0;
@@ -176,6 +278,8 @@ abstract class Kernel extends QMatrix
 
 	static double k_function(svm_node[] x, svm_node[] y, svm_parameter param)
 	{
+		x = svm_store.resolve(x);
+		y = svm_store.resolve(y);
 		switch (param.kernel_type)
 		{
 			case svm_parameter.LINEAR:
@@ -217,9 +321,14 @@ abstract class Kernel extends QMatrix
 					sum += y[j].value * y[j].value;
 					++j;
 				}
+				if (param.fast_math == 1)
+					return FastMath.exp(-param.gamma * sum);
 				return Math.exp(-param.gamma * sum);
 			}
 			case svm_parameter.SIGMOID:
+				if (param.fast_math == 1)
+					return FastMath.tanh(param.gamma * Kernel.dot(x, y)
+							+ param.coef0);
 				return Math.tanh(param.gamma * Kernel.dot(x, y) + param.coef0);
 			case svm_parameter.PRECOMPUTED:
 				return x[(int) y[0].value].value;
@@ -228,6 +337,69 @@ abstract class Kernel extends QMatrix
 		}
 	}
 
+	// the kernel value of y and a sample scattered into dense[0..n), whose
+	// squared norm is xx, for all the kernels but PRECOMPUTED. The inner
+	// product gathers the features of y instead of merging both rows; the
+	// indices of y are ascending, so those past n end the gather, and the
+	// negative ones, which the scattered sample never has, add to yy only
+	static double k_gather(double[] dense, int n, double xx, svm_node[] y,
+			svm_parameter param)
+	{
+		double dot = 0;
+		double yy = 0;
+		int k = 0;
+		int len = y.length;
+		for (; k < len; k++)
+		{
+			svm_node node = y[k];
+			if (node.index >= n)
+				break;
+			if (node.index >= 0)
+				dot += dense[node.index] * node.value;
+			yy += node.value * node.value;
+		}
+		if (param.kernel_type == svm_parameter.RBF)
+			for (; k < len; k++)
+				yy += y[k].value * y[k].value;
+		return Kernel.k_value(dot, xx, yy, param);
+	}
+
+	// the kernel value of x and a support vector, gathered from ws.dense if x
+	// has been scattered by scatter(x, param, ws)
+	static double k_scattered(svm_node[] x, svm_node[] sv,
+			svm_parameter param, svm_workspace ws)
+	{
+		if (ws.dense_length < 0)
+			return Kernel.k_function(x, sv, param);
+		return Kernel.k_gather(ws.dense, ws.dense_length, ws.dense_square,
+				sv, param);
+	}
+
+	// the kernel value from the inner product of x and y and their squared
+	// norms, for all the kernels but PRECOMPUTED
+	static double k_value(double dot, double xx, double yy,
+			svm_parameter param)
+	{
+		switch (param.kernel_type)
+		{
+			case svm_parameter.LINEAR:
+				return dot;
+			case svm_parameter.POLY:
+				return Kernel.powi(param.gamma * dot + param.coef0,
+						param.degree);
+			case svm_parameter.RBF:
+				if (param.fast_math == 1)
+					return FastMath.exp(-param.gamma * (xx + yy - 2 * dot));
+				return Math.exp(-param.gamma * (xx + yy - 2 * dot));
+			case svm_parameter.SIGMOID:
+				if (param.fast_math == 1)
+					return FastMath.tanh(param.gamma * dot + param.coef0);
+				return Math.tanh(param.gamma * dot + param.coef0);
+			default:
+				return 0; // java
+		}
+	}
+
 	private static double powi(double base, int times)
 	{
 		double tmp = base, ret = 1.0;
@@ -240,11 +412,46 @@ abstract class Kernel extends QMatrix
 		return ret;
 	}
 
+	// scatters x into ws.dense, so that its kernel values with all the
+	// support vectors are gathers over the features of each one; x is not
+	// scattered for the precomputed kernels or if it has an index out of
+	// [0, DENSE_MAX)
+	static void scatter(svm_node[] x, svm_parameter param, svm_workspace ws)
+	{
+		ws.dense_length = -1;
+		if (param.kernel_type == svm_parameter.PRECOMPUTED)
+			return;
+		int n = 0;
+		double xx = 0;
+		for (svm_node node : x)
+		{
+			if (node.index < 0 || node.index >= DENSE_MAX)
+				return;
+			n = Math.max(n, node.index + 1);
+			xx += node.value * node.value;
+		}
+		if (ws.dense.length < n)
+			ws.dense = new double[n];
+		for (svm_node node : x)
+			ws.dense[node.index] = node.value;
+		ws.dense_length = n;
+		ws.dense_square = xx;
+	}
+
 	private final double	coef0;
 	private final int		degree;
+	private final boolean	fast_math;
 	private final double	gamma;
 	// svm_parameter
 	private final int		kernel_type;
+	// the scratch of kernel_column, the row of the column scattered by
+	// feature index; allocated by the first column, and never if
+	// dense_length is 0
+	private double[]		dense;
+	private final int		dense_length;
+	// the stored rows of x when x holds handles on a store, swapped with x
+	private final int[]		row;
+	private final svm_store	store;
 	private svm_node[][]	x;
 	private final double[]	x_square;
 
@@ -252,40 +459,124 @@ abstract class Kernel extends QMatrix
 	{
 		kernel_type = param.kernel_type;
 		degree = param.degree;
+		fast_math = param.fast_math == 1;
 		gamma = param.gamma;
 		coef0 = param.coef0;
 		x = (svm_node[][]) x_.clone();
+		store = svm_store.of(x, l);
+		if (store != null)
+		{
+			row = new int[l];
+			for (int i = 0; i < l; i++)
+				row[i] = svm_store.row_of(x[i]);
+		}
+		else
+		{
+			// handles mixed with heap rows or from several stores are read
+			// into the heap
+			row = null;
+			for (int i = 0; i < l; i++)
+				x[i] = svm_store.resolve(x[i]);
+		}
+		if (kernel_type == svm_parameter.PRECOMPUTED)
+			dense_length = 0;
+		else if (store != null)
+			dense_length = store.max_index() < DENSE_MAX ? store.max_index() + 1
+					: 0;
+		else
+			dense_length = Kernel.dense_length(x, l);
 		if (kernel_type == svm_parameter.RBF)
 		{
 			x_square = new double[l];
 			for (int i = 0; i < l; i++)
-				x_square[i] = Kernel.dot(x[i], x[i]);
+				x_square[i] = store != null ? store.square(row[i]) : Kernel
+						.dot(x[i], x[i]);
 		}
 		else
 			x_square = null;
 	}
 
+	// the inner product of the rows i and j, read from the store if any
+	private double dot(int i, int j)
+	{
+		if (store != null)
+			return store.dot(row[i], row[j]);
+		return Kernel.dot(x[i], x[j]);
+	}
+
 	abstract float[] get_Q(int column, int len);
 
 	abstract double[] get_QD();
 
 	double kernel_function(int i, int j)
+	{
+		if (kernel_type == svm_parameter.PRECOMPUTED)
+		{
+			if (store != null)
+				return store.value(row[i], (int) store.value(row[j], 0));
+			return x[i][(int) x[j][0].value].value;
+		}
+		return kernel_value(dot(i, j), i, j);
+	}
+
+	// fills column[start..len) with the kernel values of the row i. The row
+	// is scattered once into the dense scratch, each value is then a gather
+	// of the dense entries at the features of the row j, without the
+	// compare branches of the merge in dot, and only the entries of the row
+	// i are cleared afterwards. The values are the same as kernel_function
+	void kernel_column(int i, float[] column, int start, int len)
+	{
+		int j;
+		if (dense_length == 0)
+		{
+			for (j = start; j < len; j++)
+				column[j] = (float) kernel_function(i, j);
+			return;
+		}
+		if (dense == null)
+			dense = new double[dense_length];
+		if (store != null)
+		{
+			store.scatter(row[i], dense);
+			for (j = start; j < len; j++)
+				column[j] = (float) kernel_value(store.gather(row[j], dense),
+						i, j);
+			store.clear(row[i], dense);
+			return;
+		}
+		svm_node[] x_i = x[i];
+		for (svm_node node : x_i)
+			dense[node.index] = node.value;
+		for (j = start; j < len; j++)
+		{
+			double sum = 0;
+			for (svm_node node : x[j])
+				sum += dense[node.index] * node.value;
+			column[j] = (float) kernel_value(sum, i, j);
+		}
+		for (svm_node node : x_i)
+			dense[node.index] = 0;
+	}
+
+	// the kernel value of the rows i and j from their inner product, for
+	// all the kernels but PRECOMPUTED
+	private double kernel_value(double dot, int i, int j)
 	{
 		switch (kernel_type)
 		{
 			case svm_parameter.LINEAR:
-				return Kernel.dot(x[i], x[j]);
+				return dot;
 			case svm_parameter.POLY:
-				return Kernel.powi(gamma * Kernel.dot(x[i], x[j]) + coef0,
-						degree);
+				return Kernel.powi(gamma * dot + coef0, degree);
 			case svm_parameter.RBF:
-				return Math.exp(-gamma
-						* (x_square[i] + x_square[j] - 2 * Kernel.dot(x[i],
-								x[j])));
+				if (fast_math)
+					return FastMath.exp(-gamma
+							* (x_square[i] + x_square[j] - 2 * dot));
+				return Math.exp(-gamma * (x_square[i] + x_square[j] - 2 * dot));
 			case svm_parameter.SIGMOID:
-				return Math.tanh(gamma * Kernel.dot(x[i], x[j]) + coef0);
-			case svm_parameter.PRECOMPUTED:
-				return x[i][(int) x[j][0].value].value;
+				if (fast_math)
+					return FastMath.tanh(gamma * dot + coef0);
+				return Math.tanh(gamma * dot + coef0);
 			default:
 				return 0; // java
 		}
@@ -300,6 +591,14 @@ abstract class Kernel extends QMatrix
 			x[j] = _;
 		}
 		while (false);
+		if (row != null)
+			do
+			{
+				int tmp = row[i];
+				row[i] = row[j];
+				row[j] = tmp;
+			}
+			while (false);
 		if (x_square != null)
 			do
 			{
@@ -325,13 +624,17 @@ class ONE_CLASS_Q extends Kernel
 			QD[i] = kernel_function(i, i);
 	}
 
+	Cache get_cache()
+	{
+		return cache;
+	}
+
 	float[] get_Q(int i, int len)
 	{
 		float[][] data = new float[1][];
-		int start, j;
+		int start;
 		if ((start = cache.get_data(i, data, len)) < len)
-			for (j = start; j < len; j++)
-				data[0][j] = (float) kernel_function(i, j);
+			kernel_column(i, data[0], start, len);
 		return data[0];
 	}
 
@@ -363,6 +666,12 @@ class ONE_CLASS_Q extends Kernel
 //
 abstract class QMatrix
 {
+	// the kernel cache, null if there is none
+	Cache get_cache()
+	{
+		return null;
+	}
+
 	abstract float[] get_Q(int column, int len);
 
 	abstract double[] get_QD();
@@ -394,19 +703,33 @@ class Solver
 	// because we cannot return multiple values otherwise...
 	static class SolutionInfo
 	{
-		double	obj;
+		/**
+		 * cancellation and budgets, null if not controlled
+		 */
+		svm_train_control	control;
+		/**
+		 * training statistics, null if not collected
+		 */
+		svm_train_metrics	metrics;
+		double				obj;
 		/**
 		 * for Solver_NU
 		 */
-		double	r;
-		double	rho;
-		double	upper_bound_n;
-		double	upper_bound_p;
+		double				r;
+		double				rho;
+		double				upper_bound_n;
+		double				upper_bound_p;
+		/**
+		 * the weight vector of the linear solvers, null for the others
+		 */
+		svm_node[]			w;
 	}
 
 	static final byte	FREE		= 2;
 	static final double	INF			= java.lang.Double.POSITIVE_INFINITY;
 	static final byte	LOWER_BOUND	= 0;
+	// minimal loop length handed over to the worker pool
+	static final int	PARALLEL_MIN	= 1 << 13;
 	static final byte	UPPER_BOUND	= 1;
 	int[]				active_set;
 	int					active_size;
@@ -417,6 +740,10 @@ class Solver
 	byte[]				alpha_status;
 	double				Cp, Cn;
 	double				eps;
+	/**
+	 * maximal violation found by the last working set selection
+	 */
+	double				gap;
 	/**
 	 * gradient of objective function
 	 */
@@ -430,7 +757,59 @@ class Solver
 	QMatrix				Q;
 	double[]			QD;
 	boolean				unshrink;
+	/**
+	 * number of threads of the inner loops, 1 for serial
+	 */
+	int					nr_threads	= 1;
+	WorkerPool			workers;
 	byte[]				y;
+	// adaptive shrinking state, see adapt_shrinking
+	boolean				costly_reconstruct;
+	svm_train_metrics	metrics;
+	int					nr_premature;
+	int					shrink_interval;
+	/**
+	 * 0 for no shrinking, 1 for a pass every min(l,1000) iterations, 2 for an
+	 * adaptive interval
+	 */
+	int					shrinking;
+	// arguments and per-slice results of the loops run by the worker pool
+	private double		arg_C, arg_delta_i, arg_delta_j, arg_Gmax;
+	private int			arg_i;
+	private float[]		arg_Q_i, arg_Q_j;
+	private double[]	part_Gmax, part_Gmax2, part_obj_diff_min;
+	private int[]		part_Gmax_idx, part_Gmin_idx;
+	private final WorkerPool.Task	find_Gmax_task	= new WorkerPool.Task()
+		{
+			public void run(int part, int from, int to)
+			{
+				find_Gmax(part, from, to);
+			}
+		};
+	private final WorkerPool.Task	find_Gmin_task	= new WorkerPool.Task()
+		{
+			public void run(int part, int from, int to)
+			{
+				find_Gmin(part, from, to);
+			}
+		};
+	private final WorkerPool.Task	update_G_task	= new WorkerPool.Task()
+		{
+			public void run(int part, int from, int to)
+			{
+				for (int k = from; k < to; k++)
+					G[k] += arg_Q_i[k] * arg_delta_i + arg_Q_j[k]
+							* arg_delta_j;
+			}
+		};
+	private final WorkerPool.Task	update_G_bar_task	= new WorkerPool.Task()
+		{
+			public void run(int part, int from, int to)
+			{
+				for (int k = from; k < to; k++)
+					G_bar[k] += arg_C * arg_Q_i[k];
+			}
+		};
 
 	private boolean be_shrunk(int i, double Gmax1, double Gmax2)
 	{
@@ -487,6 +866,54 @@ class Solver
 		return r;
 	}
 
+	// adaptive shrinking: a pass removing a large share of the active set
+	// pays for itself, so shrink more often; a pass removing almost nothing
+	// costs a sweep over the active set for no gain, so shrink less often
+	void adapt_shrinking(int iter, int size, int shrunk)
+	{
+		String reason;
+		if (shrunk > 0 && shrunk >= size / 10)
+		{
+			shrink_interval = Math.max(Math.min(l, 100), shrink_interval / 2);
+			reason = "high yield";
+		}
+		else if (shrunk * 100 < size)
+		{
+			shrink_interval = Math.min(16 * Math.min(l, 1000),
+					shrink_interval * 2);
+			reason = "low yield";
+		}
+		else
+			reason = "steady";
+		if (metrics != null)
+			metrics.add_decision(iter, size, shrunk, shrink_interval, reason);
+	}
+
+	// shrunk variables still violated the optimality conditions when the
+	// gradient was reconstructed: back off, and give up shrinking when the
+	// premature reconstructions keep being expensive
+	void adapt_unshrink(int iter)
+	{
+		String reason;
+		nr_premature++;
+		if (costly_reconstruct && nr_premature >= 3)
+		{
+			shrinking = 0;
+			shrink_interval = Math.min(l, 1000);
+			reason = "expensive reconstructions, shrinking disabled";
+		}
+		else
+		{
+			shrink_interval = Math.min(16 * Math.min(l, 1000),
+					shrink_interval * 4);
+			reason = "premature shrinking";
+		}
+		costly_reconstruct = false;
+		if (metrics != null)
+			metrics.add_decision(iter, active_size, 0, shrinking == 0 ? 0
+					: shrink_interval, reason);
+	}
+
 	void do_shrinking()
 	{
 		int i;
@@ -536,6 +963,89 @@ class Solver
 			}
 	}
 
+	// first pass of select_working_set over [from,to)
+	private void find_Gmax(int part, int from, int to)
+	{
+		double Gmax = -Solver.INF;
+		int Gmax_idx = -1;
+		for (int t = from; t < to; t++)
+			if (y[t] == +1)
+			{
+				if (!is_upper_bound(t))
+					if (-G[t] >= Gmax)
+					{
+						Gmax = -G[t];
+						Gmax_idx = t;
+					}
+			}
+			else if (!is_lower_bound(t))
+				if (G[t] >= Gmax)
+				{
+					Gmax = G[t];
+					Gmax_idx = t;
+				}
+		part_Gmax[part] = Gmax;
+		part_Gmax_idx[part] = Gmax_idx;
+	}
+
+	// second pass of select_working_set over [from,to)
+	private void find_Gmin(int part, int from, int to)
+	{
+		int i = arg_i;
+		float[] Q_i = arg_Q_i;
+		double Gmax = arg_Gmax;
+		double Gmax2 = -Solver.INF;
+		int Gmin_idx = -1;
+		double obj_diff_min = Solver.INF;
+		for (int j = from; j < to; j++)
+			if (y[j] == +1)
+			{
+				if (!is_lower_bound(j))
+				{
+					double grad_diff = Gmax + G[j];
+					if (G[j] >= Gmax2)
+						Gmax2 = G[j];
+					if (grad_diff > 0)
+					{
+						double obj_diff;
+						double quad_coef = QD[i] + QD[j] - 2.0 * y[i] * Q_i[j];
+						if (quad_coef > 0)
+							obj_diff = -(grad_diff * grad_diff) / quad_coef;
+						else
+							obj_diff = -(grad_diff * grad_diff) / 1e-12;
+						if (obj_diff <= obj_diff_min)
+						{
+							Gmin_idx = j;
+							obj_diff_min = obj_diff;
+						}
+					}
+				}
+			}
+			else if (!is_upper_bound(j))
+			{
+				double grad_diff = Gmax - G[j];
+				if (-G[j] >= Gmax2)
+					Gmax2 = -G[j];
+				if (grad_diff > 0)
+				{
+					double obj_diff;
+					double quad_coef = QD[i] + QD[j] + 2.0 * y[i] * Q_i[j];
+					if (quad_coef > 0)
+						obj_diff = -(grad_diff * grad_diff) / quad_coef;
+					else
+						obj_diff = -(grad_diff * grad_diff) / 1e-12;
+					if (obj_diff <= obj_diff_min)
+					{
+						Gmin_idx = j;
+						obj_diff_min = obj_diff;
+					}
+				}
+			}
+		part_Gmax2[part] = Gmax2;
+		part_Gmin_idx[part] = Gmin_idx;
+		part_obj_diff_min[part] = obj_diff_min;
+	}
+
 	double get_C(int i)
 	{
 		return y[i] > 0 ? Cp : Cn;
@@ -561,6 +1071,8 @@ class Solver
 		// reconstruct inactive elements of G from G_bar and free variables
 		if (active_size == l)
 			return;
+		if (metrics != null)
+			metrics.add_reconstruct();
 		int i, j;
 		int nr_free = 0;
 		for (j = active_size; j < l; j++)
@@ -568,8 +1080,12 @@ class Solver
 		for (j = 0; j < active_size; j++)
 			if (is_free(j))
 				nr_free++;
+		// the adaptive policy acts on the warning itself
 		if (2 * nr_free < active_size)
-			svm.info("\nWARNING: using -h 0 may be faster\n");
+			if (shrinking == 2)
+				costly_reconstruct = true;
+			else
+				svm.info("\nWARNING: using -h 0 may be faster\n");
 		if (nr_free * l > 2 * active_size * (l - active_size))
 			for (i = active_size; i < l; i++)
 			{
@@ -589,6 +1105,19 @@ class Solver
 				}
 	}
 
+	// run task over [0,n), on the worker pool if the loop is long enough,
+	// return the number of slices the range was cut into
+	int run_parallel(WorkerPool.Task task, int n)
+	{
+		if (workers != null && n >= Solver.PARALLEL_MIN)
+		{
+			workers.run(task, n);
+			return workers.size();
+		}
+		task.run(0, 0, n);
+		return 1;
+	}
+
 	// return 1 if already optimal, return 0 otherwise
 	int select_working_set(int[] working_set)
 	{
@@ -597,75 +1126,41 @@ class Solver
 		// j: mimimizes the decrease of obj value
 		// (if quadratic coefficeint <= 0, replace it with tau)
 		// -y_j*grad(f)_j < -y_i*grad(f)_i, j in I_low(\alpha)
+		// both passes run slice-wise, ties are broken towards the last index
+		// in the same way as one serial pass would do
 		double Gmax = -Solver.INF;
 		double Gmax2 = -Solver.INF;
 		int Gmax_idx = -1;
 		int Gmin_idx = -1;
 		double obj_diff_min = Solver.INF;
-		for (int t = 0; t < active_size; t++)
-			if (y[t] == +1)
+		int parts = run_parallel(find_Gmax_task, active_size);
+		for (int part = 0; part < parts; part++)
+			if (part_Gmax_idx[part] != -1 && part_Gmax[part] >= Gmax)
 			{
-				if (!is_upper_bound(t))
-					if (-G[t] >= Gmax)
-					{
-						Gmax = -G[t];
-						Gmax_idx = t;
-					}
+				Gmax = part_Gmax[part];
+				Gmax_idx = part_Gmax_idx[part];
 			}
-			else if (!is_lower_bound(t))
-				if (G[t] >= Gmax)
-				{
-					Gmax = G[t];
-					Gmax_idx = t;
-				}
 		int i = Gmax_idx;
 		float[] Q_i = null;
 		if (i != -1) // null Q_i not accessed: Gmax=-INF if i=-1
 			Q_i = Q.get_Q(i, active_size);
-		for (int j = 0; j < active_size; j++)
-			if (y[j] == +1)
+		arg_i = i;
+		arg_Q_i = Q_i;
+		arg_Gmax = Gmax;
+		parts = run_parallel(find_Gmin_task, active_size);
+		arg_Q_i = null;
+		for (int part = 0; part < parts; part++)
+		{
+			if (part_Gmax2[part] >= Gmax2)
+				Gmax2 = part_Gmax2[part];
+			if (part_Gmin_idx[part] != -1
+					&& part_obj_diff_min[part] <= obj_diff_min)
 			{
-				if (!is_lower_bound(j))
-				{
-					double grad_diff = Gmax + G[j];
-					if (G[j] >= Gmax2)
-						Gmax2 = G[j];
-					if (grad_diff > 0)
-					{
-						double obj_diff;
-						double quad_coef = QD[i] + QD[j] - 2.0 * y[i] * Q_i[j];
-						if (quad_coef > 0)
-							obj_diff = -(grad_diff * grad_diff) / quad_coef;
-						else
-							obj_diff = -(grad_diff * grad_diff) / 1e-12;
-						if (obj_diff <= obj_diff_min)
-						{
-							Gmin_idx = j;
-							obj_diff_min = obj_diff;
-						}
-					}
-				}
-			}
-			else if (!is_upper_bound(j))
-			{
-				double grad_diff = Gmax - G[j];
-				if (-G[j] >= Gmax2)
-					Gmax2 = -G[j];
-				if (grad_diff > 0)
-				{
-					double obj_diff;
-					double quad_coef = QD[i] + QD[j] + 2.0 * y[i] * Q_i[j];
-					if (quad_coef > 0)
-						obj_diff = -(grad_diff * grad_diff) / quad_coef;
-					else
-						obj_diff = -(grad_diff * grad_diff) / 1e-12;
-					if (obj_diff <= obj_diff_min)
-					{
-						Gmin_idx = j;
-						obj_diff_min = obj_diff;
-					}
-				}
+				Gmin_idx = part_Gmin_idx[part];
+				obj_diff_min = part_obj_diff_min[part];
 			}
+		}
+		gap = Gmax + Gmax2;
 		if (Gmax + Gmax2 < eps)
 			return 1;
 		working_set[0] = Gmax_idx;
@@ -685,7 +1180,12 @@ class Solver
 		this.Cp = Cp;
 		this.Cn = Cn;
 		this.eps = eps;
+		this.shrinking = shrinking;
+		metrics = si.metrics;
 		unshrink = false;
+		costly_reconstruct = false;
+		nr_premature = 0;
+		shrink_interval = Math.min(l, 1000);
 		// initialize alpha_status
 		{
 			alpha_status = new byte[l];
@@ -726,147 +1226,97 @@ class Solver
 		int iter = 0;
 		int max_iter = Math.max(10000000,
 				l > Integer.MAX_VALUE / 100 ? Integer.MAX_VALUE : 100 * l);
-		int counter = Math.min(l, 1000) + 1;
-		int[] working_set = new int[2];
-		while (iter < max_iter)
+		svm_train_control control = si.control;
+		boolean budget = control != null && control.max_iter > 0
+				&& control.max_iter < max_iter;
+		if (budget)
+			max_iter = control.max_iter;
+		String stop = null;
+		int counter = shrink_interval + 1;
+		int[] working_set = new int[working_set_size()];
+		// the inner loops are shared among nr_threads threads, a pool is only
+		// worth starting when the problem is long enough to be split; the
+		// workers spin while waiting, so never start more than there are cores
+		int parts = 1;
+		int threads = Math.min(nr_threads, Runtime.getRuntime()
+				.availableProcessors());
+		if (threads > 1 && l >= Solver.PARALLEL_MIN)
 		{
-			// show progress and do shrinking
-			if (--counter == 0)
-			{
-				counter = Math.min(l, 1000);
-				if (shrinking != 0)
-					do_shrinking();
-				svm.info(".");
-			}
-			if (select_working_set(working_set) != 0)
+			workers = new WorkerPool(threads);
+			parts = workers.size();
+		}
+		part_Gmax = new double[parts];
+		part_Gmax_idx = new int[parts];
+		part_Gmax2 = new double[parts];
+		part_Gmin_idx = new int[parts];
+		part_obj_diff_min = new double[parts];
+		try
+		{
+			while (iter < max_iter)
 			{
-				// reconstruct the whole gradient
-				reconstruct_gradient();
-				// reset active set size and check
-				active_size = l;
-				svm.info("*");
-				if (select_working_set(working_set) != 0)
+				// check for cancellation every 64 iterations
+				if (control != null && (iter & 63) == 0
+						&& (stop = control.check()) != null)
 					break;
-				else
-					counter = 1; // do shrinking next iteration
-			}
-			int i = working_set[0];
-			int j = working_set[1];
-			++iter;
-			// update alpha[i] and alpha[j], handle bounds carefully
-			float[] Q_i = Q.get_Q(i, active_size);
-			float[] Q_j = Q.get_Q(j, active_size);
-			double C_i = get_C(i);
-			double C_j = get_C(j);
-			double old_alpha_i = alpha[i];
-			double old_alpha_j = alpha[j];
-			if (y[i] != y[j])
-			{
-				double quad_coef = QD[i] + QD[j] + 2 * Q_i[j];
-				if (quad_coef <= 0)
-					quad_coef = 1e-12;
-				double delta = (-G[i] - G[j]) / quad_coef;
-				double diff = alpha[i] - alpha[j];
-				alpha[i] += delta;
-				alpha[j] += delta;
-				if (diff > 0)
-				{
-					if (alpha[j] < 0)
-					{
-						alpha[j] = 0;
-						alpha[i] = diff;
-					}
-				}
-				else if (alpha[i] < 0)
+				// show progress and do shrinking
+				if (--counter == 0)
 				{
-					alpha[i] = 0;
-					alpha[j] = -diff;
-				}
-				if (diff > C_i - C_j)
-				{
-					if (alpha[i] > C_i)
+					if (shrinking != 0)
 					{
-						alpha[i] = C_i;
-						alpha[j] = C_i - diff;
+						int size = active_size;
+						do_shrinking();
+						int shrunk = Math.max(0, size - active_size);
+						if (metrics != null)
+							metrics.add_shrink(shrunk);
+						if (shrinking == 2)
+							adapt_shrinking(iter, size, shrunk);
 					}
-				}
-				else if (alpha[j] > C_j)
-				{
-					alpha[j] = C_j;
-					alpha[i] = C_j + diff;
-				}
-			}
-			else
-			{
-				double quad_coef = QD[i] + QD[j] - 2 * Q_i[j];
-				if (quad_coef <= 0)
-					quad_coef = 1e-12;
-				double delta = (G[i] - G[j]) / quad_coef;
-				double sum = alpha[i] + alpha[j];
-				alpha[i] -= delta;
-				alpha[j] += delta;
-				if (sum > C_i)
-				{
-					if (alpha[i] > C_i)
+					counter = shrink_interval;
+					svm.info(".");
+					if (control != null && control.progress != null)
 					{
-						alpha[i] = C_i;
-						alpha[j] = sum - C_i;
+						Cache cache = Q.get_cache();
+						control.progress.progress(iter, gap, active_size,
+								cache == null ? 0 : cache.hit_rate());
 					}
 				}
-				else if (alpha[j] < 0)
-				{
-					alpha[j] = 0;
-					alpha[i] = sum;
-				}
-				if (sum > C_j)
+				if (select_working_set(working_set) != 0)
 				{
-					if (alpha[j] > C_j)
+					boolean shrunk = active_size < l;
+					// reconstruct the whole gradient
+					reconstruct_gradient();
+					// reset active set size and check
+					active_size = l;
+					svm.info("*");
+					if (select_working_set(working_set) != 0)
+						break;
+					if (shrunk && metrics != null)
+						metrics.add_premature_unshrink();
+					if (shrunk && shrinking == 2)
 					{
-						alpha[j] = C_j;
-						alpha[i] = sum - C_j;
+						adapt_unshrink(iter);
+						counter = shrink_interval;
 					}
+					else
+						counter = 1; // do shrinking next iteration
 				}
-				else if (alpha[i] < 0)
-				{
-					alpha[i] = 0;
-					alpha[j] = sum;
-				}
+				++iter;
+				update_working_set(working_set);
 			}
-			// update G
-			double delta_alpha_i = alpha[i] - old_alpha_i;
-			double delta_alpha_j = alpha[j] - old_alpha_j;
-			for (int k = 0; k < active_size; k++)
-				G[k] += Q_i[k] * delta_alpha_i + Q_j[k] * delta_alpha_j;
-			// update alpha_status and G_bar
+		}
+		finally
+		{
+			if (workers != null)
 			{
-				boolean ui = is_upper_bound(i);
-				boolean uj = is_upper_bound(j);
-				update_alpha_status(i);
-				update_alpha_status(j);
-				int k;
-				if (ui != is_upper_bound(i))
-				{
-					Q_i = Q.get_Q(i, l);
-					if (ui)
-						for (k = 0; k < l; k++)
-							G_bar[k] -= C_i * Q_i[k];
-					else
-						for (k = 0; k < l; k++)
-							G_bar[k] += C_i * Q_i[k];
-				}
-				if (uj != is_upper_bound(j))
-				{
-					Q_j = Q.get_Q(j, l);
-					if (uj)
-						for (k = 0; k < l; k++)
-							G_bar[k] -= C_j * Q_j[k];
-					else
-						for (k = 0; k < l; k++)
-							G_bar[k] += C_j * Q_j[k];
-				}
+				workers.shutdown();
+				workers = null;
 			}
 		}
-		if (iter >= max_iter)
+		if (stop == null && budget && iter >= max_iter)
+			stop = control.stop("iteration limit reached");
+		if (stop != null && control.policy == svm_train_control.ABORT)
+			throw new CancellationException("training " + stop);
+		if (stop != null || iter >= max_iter)
 		{
 			if (active_size < l)
 			{
@@ -875,7 +1325,13 @@ class Solver
 				active_size = l;
 				svm.info("*");
 			}
-			System.err.print("\nWARNING: reaching max number of iterations\n");
+			if (metrics != null)
+				metrics.converged = false;
+			if (stop != null)
+				svm.info("\nWARNING: training stopped, " + stop + "\n");
+			else
+				System.err
+						.print("\nWARNING: reaching max number of iterations\n");
 		}
 		// calculate rho
 		si.rho = calculate_rho();
@@ -894,6 +1350,13 @@ class Solver
 		}
 		si.upper_bound_p = Cp;
 		si.upper_bound_n = Cn;
+		if (metrics != null)
+		{
+			metrics.add_solve(iter);
+			Cache cache = Q.get_cache();
+			if (cache != null)
+				metrics.add_cache(cache.hits, cache.misses);
+		}
 		svm.info("\noptimization finished, #iter = " + iter + "\n");
 	}
 
@@ -960,6 +1423,127 @@ class Solver
 		else
 			alpha_status[i] = Solver.FREE;
 	}
+
+	// G_bar += C * Q_i, when alpha_i has moved onto (C > 0) or away from
+	// (C < 0) its upper bound
+	void update_G_bar(int i, double C)
+	{
+		arg_Q_i = Q.get_Q(i, l);
+		arg_C = C;
+		run_parallel(update_G_bar_task, l);
+	}
+
+	// update the alpha's in the working set selected by select_working_set,
+	// along with the gradient G and G_bar
+	void update_working_set(int[] working_set)
+	{
+		int i = working_set[0];
+		int j = working_set[1];
+		// update alpha[i] and alpha[j], handle bounds carefully
+		float[] Q_i = Q.get_Q(i, active_size);
+		float[] Q_j = Q.get_Q(j, active_size);
+		double C_i = get_C(i);
+		double C_j = get_C(j);
+		double old_alpha_i = alpha[i];
+		double old_alpha_j = alpha[j];
+		if (y[i] != y[j])
+		{
+			double quad_coef = QD[i] + QD[j] + 2 * Q_i[j];
+			if (quad_coef <= 0)
+				quad_coef = 1e-12;
+			double delta = (-G[i] - G[j]) / quad_coef;
+			double diff = alpha[i] - alpha[j];
+			alpha[i] += delta;
+			alpha[j] += delta;
+			if (diff > 0)
+			{
+				if (alpha[j] < 0)
+				{
+					alpha[j] = 0;
+					alpha[i] = diff;
+				}
+			}
+			else if (alpha[i] < 0)
+			{
+				alpha[i] = 0;
+				alpha[j] = -diff;
+			}
+			if (diff > C_i - C_j)
+			{
+				if (alpha[i] > C_i)
+				{
+					alpha[i] = C_i;
+					alpha[j] = C_i - diff;
+				}
+			}
+			else if (alpha[j] > C_j)
+			{
+				alpha[j] = C_j;
+				alpha[i] = C_j + diff;
+			}
+		}
+		else
+		{
+			double quad_coef = QD[i] + QD[j] - 2 * Q_i[j];
+			if (quad_coef <= 0)
+				quad_coef = 1e-12;
+			double delta = (G[i] - G[j]) / quad_coef;
+			double sum = alpha[i] + alpha[j];
+			alpha[i] -= delta;
+			alpha[j] += delta;
+			if (sum > C_i)
+			{
+				if (alpha[i] > C_i)
+				{
+					alpha[i] = C_i;
+					alpha[j] = sum - C_i;
+				}
+			}
+			else if (alpha[j] < 0)
+			{
+				alpha[j] = 0;
+				alpha[i] = sum;
+			}
+			if (sum > C_j)
+			{
+				if (alpha[j] > C_j)
+				{
+					alpha[j] = C_j;
+					alpha[i] = sum - C_j;
+				}
+			}
+			else if (alpha[i] < 0)
+			{
+				alpha[i] = 0;
+				alpha[j] = sum;
+			}
+		}
+		// update G
+		arg_Q_i = Q_i;
+		arg_Q_j = Q_j;
+		arg_delta_i = alpha[i] - old_alpha_i;
+		arg_delta_j = alpha[j] - old_alpha_j;
+		run_parallel(update_G_task, active_size);
+		// update alpha_status and G_bar
+		{
+			boolean ui = is_upper_bound(i);
+			boolean uj = is_upper_bound(j);
+			update_alpha_status(i);
+			update_alpha_status(j);
+			if (ui != is_upper_bound(i))
+				update_G_bar(i, ui ? -C_i : C_i);
+			if (uj != is_upper_bound(j))
+				update_G_bar(j, uj ? -C_j : C_j);
+		}
+		arg_Q_i = null;
+		arg_Q_j = null;
+	}
+
+	// number of indices filled in by select_working_set
+	int working_set_size()
+	{
+		return 2;
+	}
 }
 
 //
@@ -1171,6 +1755,7 @@ final class Solver_NU extends Solver
 					}
 				}
 			}
+		gap = Math.max(Gmaxp + Gmaxp2, Gmaxn + Gmaxn2);
 		if (Math.max(Gmaxp + Gmaxp2, Gmaxn + Gmaxn2) < eps)
 			return 1;
 		if (y[Gmin_idx] == +1)
@@ -1189,6 +1774,328 @@ final class Solver_NU extends Solver
 	}
 }
 
+//
+// Solver with a working set of q > 2 variables (block SMO)
+//
+// each outer iteration selects the q/2 most violating indices from I_up and
+// from I_low, fetches their q kernel columns once and solves the q-variable
+// sub-problem as a small dense QP by pairwise SMO on the q*q sub-matrix, so
+// that every fetched column is used by several alpha updates
+//
+final class Solver_Block extends Solver
+{
+	private double[]	alpha_B;
+	private int			block_count;
+	// positions in the block and amounts of the alpha's changed by the last
+	// sub-problem
+	private int[]		changed;
+	private double[]	delta_B;
+	private double[]	G_B;
+	// candidate lists of select_working_set
+	private int[]		low_idx, up_idx;
+	private double[]	low_val, up_val;
+	private int			nr_changed;
+	private final int	q;
+	private float[][]	Q_B;
+	private double[]	Q_BB;
+	private final WorkerPool.Task	update_G_task	= new WorkerPool.Task()
+		{
+			public void run(int part, int from, int to)
+			{
+				for (int c = 0; c < nr_changed; c++)
+				{
+					float[] Q_b = Q_B[changed[c]];
+					double delta_alpha_b = delta_B[c];
+					for (int k = from; k < to; k++)
+						G[k] += Q_b[k] * delta_alpha_b;
+				}
+			}
+		};
+
+	Solver_Block(int q)
+	{
+		this.q = q;
+	}
+
+	// insert index t with value v into the descending list (idx, val) of
+	// capacity cap holding n entries, returns the new number of entries
+	private static int insert_candidate(int[] idx, double[] val, int n,
+			int cap, int t, double v)
+	{
+		if (n == cap)
+		{
+			if (v <= val[n - 1])
+				return n;
+			n--;
+		}
+		int k = n;
+		while (k > 0 && val[k - 1] < v)
+		{
+			idx[k] = idx[k - 1];
+			val[k] = val[k - 1];
+			k--;
+		}
+		idx[k] = t;
+		val[k] = v;
+		return n + 1;
+	}
+
+	// return 1 if already optimal, return 0 otherwise
+	int select_working_set(int[] working_set)
+	{
+		// the block is made of the indices with the largest
+		// -y_t*grad(f)_t in I_up(\alpha) and the largest y_t*grad(f)_t in
+		// I_low(\alpha), the maximal violating pair is always included
+		int half = q / 2;
+		int n_up = 0, n_low = 0;
+		for (int t = 0; t < active_size; t++)
+		{
+			double yG = y[t] * G[t];
+			if (y[t] == +1 ? !is_upper_bound(t) : !is_lower_bound(t))
+				n_up = Solver_Block.insert_candidate(up_idx, up_val, n_up, q,
+						t, -yG);
+			if (y[t] == +1 ? !is_lower_bound(t) : !is_upper_bound(t))
+				n_low = Solver_Block.insert_candidate(low_idx, low_val, n_low,
+						q, t, yG);
+		}
+		gap = n_up == 0 || n_low == 0 ? 0 : up_val[0] + low_val[0];
+		if (n_up == 0 || n_low == 0 || up_val[0] + low_val[0] < eps)
+			return 1;
+		// take half of the block from each side, fill up from the other side
+		// when one side runs short, and skip indices already taken
+		int take_up = Math.min(n_up, Math.max(half, q - n_low));
+		int n = 0;
+		int u = 0, w = 0;
+		while (n < q && (u < n_up || w < n_low))
+		{
+			int t;
+			if (u < n_up && (u < take_up || w >= n_low))
+				t = up_idx[u++];
+			else
+				t = low_idx[w++];
+			int k;
+			for (k = 0; k < n; k++)
+				if (working_set[k] == t)
+					break;
+			if (k == n)
+				working_set[n++] = t;
+		}
+		block_count = n;
+		return n < 2 ? 1 : 0;
+	}
+
+	// solve the sub-problem on the block with the other variables fixed,
+	// alpha_B and G_B are updated in place
+	private void solve_block(int[] B, int n)
+	{
+		int max_inner = Math.max(100, 10 * n);
+		for (int iter = 0; iter < max_inner; iter++)
+		{
+			double Gmax = -Solver.INF;
+			double Gmax2 = -Solver.INF;
+			int bi = -1;
+			int bj = -1;
+			double obj_diff_min = Solver.INF;
+			for (int b = 0; b < n; b++)
+			{
+				int t = B[b];
+				boolean upper = alpha_B[b] >= get_C(t);
+				boolean lower = alpha_B[b] <= 0;
+				if (y[t] == +1 ? !upper : !lower)
+					if (-y[t] * G_B[b] >= Gmax)
+					{
+						Gmax = -y[t] * G_B[b];
+						bi = b;
+					}
+			}
+			if (bi == -1)
+				return;
+			int i = B[bi];
+			for (int b = 0; b < n; b++)
+			{
+				int t = B[b];
+				boolean upper = alpha_B[b] >= get_C(t);
+				boolean lower = alpha_B[b] <= 0;
+				if (y[t] == +1 ? lower : upper)
+					continue;
+				double yG = y[t] * G_B[b];
+				if (yG >= Gmax2)
+					Gmax2 = yG;
+				double grad_diff = Gmax + yG;
+				if (grad_diff > 0)
+				{
+					double quad_coef = QD[i] + QD[t] - 2.0 * y[i] * y[t]
+							* Q_BB[bi * q + b];
+					if (quad_coef <= 0)
+						quad_coef = 1e-12;
+					double obj_diff = -(grad_diff * grad_diff) / quad_coef;
+					if (obj_diff <= obj_diff_min)
+					{
+						bj = b;
+						obj_diff_min = obj_diff;
+					}
+				}
+			}
+			if (bj == -1 || Gmax + Gmax2 < eps)
+				return;
+			int j = B[bj];
+			double Q_ij = Q_BB[bi * q + bj];
+			double C_i = get_C(i);
+			double C_j = get_C(j);
+			double old_alpha_i = alpha_B[bi];
+			double old_alpha_j = alpha_B[bj];
+			double a_i = old_alpha_i;
+			double a_j = old_alpha_j;
+			if (y[i] != y[j])
+			{
+				double quad_coef = QD[i] + QD[j] + 2 * Q_ij;
+				if (quad_coef <= 0)
+					quad_coef = 1e-12;
+				double delta = (-G_B[bi] - G_B[bj]) / quad_coef;
+				double diff = a_i - a_j;
+				a_i += delta;
+				a_j += delta;
+				if (diff > 0)
+				{
+					if (a_j < 0)
+					{
+						a_j = 0;
+						a_i = diff;
+					}
+				}
+				else if (a_i < 0)
+				{
+					a_i = 0;
+					a_j = -diff;
+				}
+				if (diff > C_i - C_j)
+				{
+					if (a_i > C_i)
+					{
+						a_i = C_i;
+						a_j = C_i - diff;
+					}
+				}
+				else if (a_j > C_j)
+				{
+					a_j = C_j;
+					a_i = C_j + diff;
+				}
+			}
+			else
+			{
+				double quad_coef = QD[i] + QD[j] - 2 * Q_ij;
+				if (quad_coef <= 0)
+					quad_coef = 1e-12;
+				double delta = (G_B[bi] - G_B[bj]) / quad_coef;
+				double sum = a_i + a_j;
+				a_i -= delta;
+				a_j += delta;
+				if (sum > C_i)
+				{
+					if (a_i > C_i)
+					{
+						a_i = C_i;
+						a_j = sum - C_i;
+					}
+				}
+				else if (a_j < 0)
+				{
+					a_j = 0;
+					a_i = sum;
+				}
+				if (sum > C_j)
+				{
+					if (a_j > C_j)
+					{
+						a_j = C_j;
+						a_i = sum - C_j;
+					}
+				}
+				else if (a_i < 0)
+				{
+					a_i = 0;
+					a_j = sum;
+				}
+			}
+			alpha_B[bi] = a_i;
+			alpha_B[bj] = a_j;
+			double delta_alpha_i = a_i - old_alpha_i;
+			double delta_alpha_j = a_j - old_alpha_j;
+			if (delta_alpha_i == 0 && delta_alpha_j == 0)
+				return;
+			for (int b = 0; b < n; b++)
+				G_B[b] += Q_BB[bi * q + b] * delta_alpha_i + Q_BB[bj * q + b]
+						* delta_alpha_j;
+		}
+	}
+
+	void Solve(int l, QMatrix Q, double[] p, byte[] y, double[] alpha,
+			double Cp, double Cn, double eps, SolutionInfo si, int shrinking)
+	{
+		alpha_B = new double[q];
+		changed = new int[q];
+		delta_B = new double[q];
+		G_B = new double[q];
+		up_idx = new int[q];
+		up_val = new double[q];
+		low_idx = new int[q];
+		low_val = new double[q];
+		Q_BB = new double[q * q];
+		Q_B = new float[q][l];
+		super.Solve(l, Q, p, y, alpha, Cp, Cn, eps, si, shrinking);
+		Q_B = null;
+	}
+
+	void update_working_set(int[] working_set)
+	{
+		int n = block_count;
+		int b, c;
+		// fetch each column of the block once; SVR_Q hands out rotating
+		// buffers, so the columns are copied before the next get_Q
+		for (b = 0; b < n; b++)
+		{
+			float[] Q_b = Q.get_Q(working_set[b], active_size);
+			System.arraycopy(Q_b, 0, Q_B[b], 0, active_size);
+			for (c = 0; c < n; c++)
+				Q_BB[b * q + c] = Q_b[working_set[c]];
+			alpha_B[b] = alpha[working_set[b]];
+			G_B[b] = G[working_set[b]];
+		}
+		solve_block(working_set, n);
+		// update G with every changed alpha of the block
+		nr_changed = 0;
+		for (b = 0; b < n; b++)
+		{
+			double delta_alpha_b = alpha_B[b] - alpha[working_set[b]];
+			if (delta_alpha_b != 0)
+			{
+				changed[nr_changed] = b;
+				delta_B[nr_changed] = delta_alpha_b;
+				nr_changed++;
+			}
+		}
+		run_parallel(update_G_task, active_size);
+		// update alpha_status and G_bar
+		for (b = 0; b < n; b++)
+		{
+			int i = working_set[b];
+			if (alpha_B[b] == alpha[i])
+				continue;
+			boolean ui = is_upper_bound(i);
+			alpha[i] = alpha_B[b];
+			update_alpha_status(i);
+			if (ui != is_upper_bound(i))
+				update_G_bar(i, ui ? -get_C(i) : get_C(i));
+		}
+	}
+
+	int working_set_size()
+	{
+		return q;
+	}
+}
+
 //
 // Q matrices for various formulations
 //
@@ -1208,13 +2115,23 @@ class SVC_Q extends Kernel
 			QD[i] = kernel_function(i, i);
 	}
 
+	Cache get_cache()
+	{
+		return cache;
+	}
+
 	float[] get_Q(int i, int len)
 	{
 		float[][] data = new float[1][];
 		int start, j;
 		if ((start = cache.get_data(i, data, len)) < len)
+		{
+			float[] column = data[0];
+			kernel_column(i, column, start, len);
+			int y_i = y[i];
 			for (j = start; j < len; j++)
-				data[0][j] = (float) (y[i] * y[j] * kernel_function(i, j));
+				column[j] *= y_i * y[j];
+		}
 		return data[0];
 	}
 
@@ -1253,6 +2170,8 @@ public class svm
 	{
 		double[]	alpha;
 		double		rho;
+		// the weight vector of the linear solvers, null for the others
+		svm_node[]	w;
 	}
 
 	static final String					kernel_type_table[]	= { "linear",
@@ -1296,27 +2215,39 @@ public class svm
 	}
 
 	// Method 2 from the multiclass_prob paper by Wu, Lin, and Weng
-	private static void multiclass_probability(int k, double[][] r, double[] p)
+	// r is the k*k pairwise probability matrix, row-major, and Q (k*k) and
+	// Qp (k) are scratch space. Within a sweep p and Qp are kept scaled by a
+	// common factor, so that the normalization after each coordinate step is
+	// deferred to the end of the sweep and the inner loop is a single
+	// multiply-add along a row of Q
+	private static void multiclass_probability(int k, double[] r, double[] p,
+			double[] Q, double[] Qp)
 	{
 		int t, j;
+		if (k == 2)
+		{
+			// closed form: p[0]/p[1] = r[0][1]/r[1][0], r[0][1]+r[1][0] = 1
+			p[0] = r[1];
+			p[1] = r[2];
+			return;
+		}
 		int iter = 0, max_iter = Math.max(100, k);
-		double[][] Q = new double[k][k];
-		double[] Qp = new double[k];
 		double pQp, eps = 0.005 / k;
 		for (t = 0; t < k; t++)
 		{
 			p[t] = 1.0 / k; // Valid if k = 1
-			Q[t][t] = 0;
+			double Q_tt = 0;
 			for (j = 0; j < t; j++)
 			{
-				Q[t][t] += r[j][t] * r[j][t];
-				Q[t][j] = Q[j][t];
+				Q_tt += r[j * k + t] * r[j * k + t];
+				Q[t * k + j] = Q[j * k + t];
 			}
 			for (j = t + 1; j < k; j++)
 			{
-				Q[t][t] += r[j][t] * r[j][t];
-				Q[t][j] = -r[j][t] * r[t][j];
+				Q_tt += r[j * k + t] * r[j * k + t];
+				Q[t * k + j] = -r[j * k + t] * r[t * k + j];
 			}
+			Q[t * k + t] = Q_tt;
 		}
 		for (iter = 0; iter < max_iter; iter++)
 		{
@@ -1324,10 +2255,12 @@ public class svm
 			pQp = 0;
 			for (t = 0; t < k; t++)
 			{
-				Qp[t] = 0;
+				int row = t * k;
+				double sum = 0;
 				for (j = 0; j < k; j++)
-					Qp[t] += Q[t][j] * p[j];
-				pQp += p[t] * Qp[t];
+					sum += Q[row + j] * p[j];
+				Qp[t] = sum;
+				pQp += p[t] * sum;
 			}
 			double max_error = 0;
 			for (t = 0; t < k; t++)
@@ -1338,22 +2271,49 @@ public class svm
 			}
 			if (max_error < eps)
 				break;
+			// the actual p and Qp are scale * p and scale * Qp
+			double scale = 1;
 			for (t = 0; t < k; t++)
 			{
-				double diff = (-Qp[t] + pQp) / Q[t][t];
-				p[t] += diff;
-				pQp = (pQp + diff * (diff * Q[t][t] + 2 * Qp[t])) / (1 + diff)
+				int row = t * k;
+				double Q_tt = Q[row + t];
+				double Qp_t = Qp[t] * scale;
+				double diff = (-Qp_t + pQp) / Q_tt;
+				pQp = (pQp + diff * (diff * Q_tt + 2 * Qp_t)) / (1 + diff)
 						/ (1 + diff);
+				double d = diff / scale;
+				p[t] += d;
 				for (j = 0; j < k; j++)
-				{
-					Qp[j] = (Qp[j] + diff * Q[t][j]) / (1 + diff);
-					p[j] /= 1 + diff;
-				}
+					Qp[j] += d * Q[row + j];
+				scale /= 1 + diff;
 			}
+			for (t = 0; t < k; t++)
+				p[t] *= scale;
 		}
 		if (iter >= max_iter)
 			svm.info("Exceeds max_iter in multiclass_prob\n");
-	};
+	}
+
+	// the solver for C-SVC, epsilon-SVR and one-class SVM: pairwise SMO, or
+	// block SMO when a working set of more than two variables is requested
+	private static Solver new_solver(svm_parameter param)
+	{
+		Solver s;
+		if (param.working_set_size > 2)
+			s = new Solver_Block(param.working_set_size);
+		else
+			s = new Solver();
+		s.nr_threads = Math.max(1, param.nr_threads);
+		return s;
+	}
+
+	// the solver for nu-SVC and nu-SVR
+	private static Solver_NU new_solver_nu(svm_parameter param)
+	{
+		Solver_NU s = new Solver_NU();
+		s.nr_threads = Math.max(1, param.nr_threads);
+		return s;
+	}
 
 	private static double sigmoid_predict(double decision_value, double A,
 			double B)
@@ -1479,61 +2439,473 @@ public class svm
 		probAB[1] = B;
 	}
 
-	private static void solve_c_svc(svm_problem prob, svm_parameter param,
-			double[] alpha, Solver.SolutionInfo si, double Cp, double Cn)
+	private static void solve_c_svc(svm_problem prob, svm_parameter param,
+			double[] alpha, Solver.SolutionInfo si, double Cp, double Cn)
+	{
+		int l = prob.l;
+		double[] minus_ones = new double[l];
+		byte[] y = new byte[l];
+		int i;
+		for (i = 0; i < l; i++)
+		{
+			alpha[i] = 0;
+			minus_ones[i] = -1;
+			if (prob.y[i] > 0)
+				y[i] = +1;
+			else
+				y[i] = -1;
+		}
+		Solver s = svm.new_solver(param);
+		s.Solve(l, new SVC_Q(prob, param, y), minus_ones, y, alpha, Cp, Cn,
+				param.eps, si, param.shrinking);
+		double sum_alpha = 0;
+		for (i = 0; i < l; i++)
+			sum_alpha += alpha[i];
+		if (Cp == Cn)
+			svm.info("nu = " + sum_alpha / (Cp * prob.l) + "\n");
+		for (i = 0; i < l; i++)
+			alpha[i] *= y[i];
+	}
+
+	private static void solve_epsilon_svr(svm_problem prob,
+			svm_parameter param, double[] alpha, Solver.SolutionInfo si)
+	{
+		int l = prob.l;
+		double[] alpha2 = new double[2 * l];
+		double[] linear_term = new double[2 * l];
+		byte[] y = new byte[2 * l];
+		int i;
+		for (i = 0; i < l; i++)
+		{
+			alpha2[i] = 0;
+			linear_term[i] = param.p - prob.y[i];
+			y[i] = 1;
+			alpha2[i + l] = 0;
+			linear_term[i + l] = param.p + prob.y[i];
+			y[i + l] = -1;
+		}
+		Solver s = svm.new_solver(param);
+		s.Solve(2 * l, new SVR_Q(prob, param), linear_term, y, alpha2, param.C,
+				param.C, param.eps, si, param.shrinking);
+		double sum_alpha = 0;
+		for (i = 0; i < l; i++)
+		{
+			alpha[i] = alpha2[i] - alpha2[i + l];
+			sum_alpha += Math.abs(alpha[i]);
+		}
+		svm.info("nu = " + sum_alpha / (param.C * l) + "\n");
+	}
+
+	// the dual coordinate descent of LIBLINEAR for the linear kernel C-SVC
+	// (Hsieh et al., 2008), which keeps the primal weight vector
+	// w = sum(y_i * alpha_i * x_i) with the bias as its last element, the
+	// feature of value 1 of every sample; inactive bounded variables are
+	// shrunk as in LIBLINEAR
+	private static void solve_linear_c_svc(svm_problem prob,
+			svm_parameter param, double[] alpha, Solver.SolutionInfo si,
+			double Cp, double Cn)
+	{
+		int l = prob.l;
+		boolean l2 = param.linear_solver == svm_parameter.DUAL_CD_L2;
+		svm_store store = svm_store.of(prob.x, l);
+		svm_node[][] x = null;
+		int[] row = null;
+		if (store != null)
+		{
+			row = new int[l];
+			for (int i = 0; i < l; i++)
+				row[i] = svm_store.row_of(prob.x[i]);
+		}
+		else
+			x = svm.linear_rows(prob);
+		int dim = store != null ? store.max_index() + 1 : svm
+				.linear_dimension(x, l);
+		double[] w = new double[dim + 1];
+		byte[] y = new byte[l];
+		double[] QD = new double[l];
+		int[] index = new int[l];
+		double diag_p = l2 ? 0.5 / Cp : 0, diag_n = l2 ? 0.5 / Cn : 0;
+		double upper_p = l2 ? Double.POSITIVE_INFINITY : Cp;
+		double upper_n = l2 ? Double.POSITIVE_INFINITY : Cn;
+		for (int i = 0; i < l; i++)
+		{
+			alpha[i] = 0;
+			y[i] = (byte) (prob.y[i] > 0 ? +1 : -1);
+			QD[i] = (y[i] > 0 ? diag_p : diag_n)
+					+ (store != null ? store.square(row[i]) : Kernel.dot(x[i],
+							x[i])) + 1;
+			index[i] = i;
+		}
+		svm_train_control control = si.control;
+		int max_iter = 1000;
+		boolean budget = control != null && control.max_iter > 0
+				&& control.max_iter < max_iter;
+		if (budget)
+			max_iter = control.max_iter;
+		// the coordinates are visited in an order of a fixed seed, as
+		// LIBLINEAR does, so that a training is repeatable
+		Random rand = new Random(1);
+		String stop = null;
+		int iter = 0, active_size = l;
+		double PGmax_old = Double.POSITIVE_INFINITY;
+		double PGmin_old = Double.NEGATIVE_INFINITY;
+		while (iter < max_iter)
+		{
+			if (control != null && (stop = control.check()) != null)
+				break;
+			double PGmax_new = Double.NEGATIVE_INFINITY;
+			double PGmin_new = Double.POSITIVE_INFINITY;
+			for (int i = 0; i < active_size; i++)
+			{
+				int j = i + rand.nextInt(active_size - i);
+				int t = index[i];
+				index[i] = index[j];
+				index[j] = t;
+			}
+			for (int s = 0; s < active_size; s++)
+			{
+				int i = index[s];
+				double C = y[i] > 0 ? upper_p : upper_n;
+				double G = w[dim];
+				if (store != null)
+					G += store.gather(row[i], w);
+				else
+					for (svm_node node : x[i])
+						G += w[node.index] * node.value;
+				G = G * y[i] - 1 + alpha[i] * (y[i] > 0 ? diag_p : diag_n);
+				double PG = 0;
+				if (alpha[i] == 0)
+				{
+					if (G > PGmax_old)
+					{
+						index[s--] = index[--active_size];
+						index[active_size] = i;
+						continue;
+					}
+					else if (G < 0)
+						PG = G;
+				}
+				else if (alpha[i] == C)
+				{
+					if (G < PGmin_old)
+					{
+						index[s--] = index[--active_size];
+						index[active_size] = i;
+						continue;
+					}
+					else if (G > 0)
+						PG = G;
+				}
+				else
+					PG = G;
+				PGmax_new = Math.max(PGmax_new, PG);
+				PGmin_new = Math.min(PGmin_new, PG);
+				if (Math.abs(PG) > 1.0e-12)
+				{
+					double alpha_old = alpha[i];
+					alpha[i] = Math.min(Math.max(alpha[i] - G / QD[i], 0.0), C);
+					double d = (alpha[i] - alpha_old) * y[i];
+					if (store != null)
+						store.axpy(row[i], d, w);
+					else
+						for (svm_node node : x[i])
+							w[node.index] += d * node.value;
+					w[dim] += d;
+				}
+			}
+			iter++;
+			if (iter % 10 == 0)
+				svm.info(".");
+			if (PGmax_new - PGmin_new <= svm.linear_eps(param))
+			{
+				if (active_size == l)
+					break;
+				// check the shrunk variables once more
+				active_size = l;
+				svm.info("*");
+				PGmax_old = Double.POSITIVE_INFINITY;
+				PGmin_old = Double.NEGATIVE_INFINITY;
+				continue;
+			}
+			PGmax_old = PGmax_new <= 0 ? Double.POSITIVE_INFINITY : PGmax_new;
+			PGmin_old = PGmin_new >= 0 ? Double.NEGATIVE_INFINITY : PGmin_new;
+		}
+		svm.linear_finish(si, stop, iter, max_iter, budget);
+		double v = 0;
+		for (int i = 0; i <= dim; i++)
+			v += w[i] * w[i];
+		for (int i = 0; i < l; i++)
+		{
+			v += alpha[i] * (alpha[i] * (y[i] > 0 ? diag_p : diag_n) - 2);
+			alpha[i] *= y[i];
+		}
+		si.obj = v / 2;
+		si.rho = -w[dim];
+		si.w = svm.linear_weights(w, dim);
+		si.upper_bound_p = upper_p;
+		si.upper_bound_n = upper_n;
+		svm.info("\noptimization finished, #iter = " + iter + "\n");
+	}
+
+	// the dual coordinate descent of LIBLINEAR for the linear kernel
+	// epsilon-SVR (Ho and Lin, 2012), the coefficient beta_i standing for
+	// alpha_i - alpha*_i, with the same weight vector and bias as the C-SVC
+	private static void solve_linear_epsilon_svr(svm_problem prob,
+			svm_parameter param, double[] beta, Solver.SolutionInfo si)
+	{
+		int l = prob.l;
+		boolean l2 = param.linear_solver == svm_parameter.DUAL_CD_L2;
+		svm_store store = svm_store.of(prob.x, l);
+		svm_node[][] x = null;
+		int[] row = null;
+		if (store != null)
+		{
+			row = new int[l];
+			for (int i = 0; i < l; i++)
+				row[i] = svm_store.row_of(prob.x[i]);
+		}
+		else
+			x = svm.linear_rows(prob);
+		int dim = store != null ? store.max_index() + 1 : svm
+				.linear_dimension(x, l);
+		double[] w = new double[dim + 1];
+		double[] QD = new double[l];
+		int[] index = new int[l];
+		double lambda = l2 ? 0.5 / param.C : 0;
+		double upper = l2 ? Double.POSITIVE_INFINITY : param.C;
+		double p = param.p;
+		for (int i = 0; i < l; i++)
+		{
+			beta[i] = 0;
+			QD[i] = (store != null ? store.square(row[i]) : Kernel.dot(x[i],
+					x[i])) + 1;
+			index[i] = i;
+		}
+		svm_train_control control = si.control;
+		int max_iter = 1000;
+		boolean budget = control != null && control.max_iter > 0
+				&& control.max_iter < max_iter;
+		if (budget)
+			max_iter = control.max_iter;
+		// the coordinates are visited in an order of a fixed seed, as
+		// LIBLINEAR does, so that a training is repeatable
+		Random rand = new Random(1);
+		String stop = null;
+		int iter = 0, active_size = l;
+		double Gmax_old = Double.POSITIVE_INFINITY;
+		double Gnorm1_init = -1;
+		while (iter < max_iter)
+		{
+			if (control != null && (stop = control.check()) != null)
+				break;
+			double Gmax_new = 0, Gnorm1_new = 0;
+			for (int i = 0; i < active_size; i++)
+			{
+				int j = i + rand.nextInt(active_size - i);
+				int t = index[i];
+				index[i] = index[j];
+				index[j] = t;
+			}
+			for (int s = 0; s < active_size; s++)
+			{
+				int i = index[s];
+				double G = w[dim] - prob.y[i] + lambda * beta[i];
+				double H = QD[i] + lambda;
+				if (store != null)
+					G += store.gather(row[i], w);
+				else
+					for (svm_node node : x[i])
+						G += w[node.index] * node.value;
+				double Gp = G + p;
+				double Gn = G - p;
+				double violation = 0;
+				if (beta[i] == 0)
+				{
+					if (Gp < 0)
+						violation = -Gp;
+					else if (Gn > 0)
+						violation = Gn;
+					else if (Gp > Gmax_old && Gn < -Gmax_old)
+					{
+						index[s--] = index[--active_size];
+						index[active_size] = i;
+						continue;
+					}
+				}
+				else if (beta[i] >= upper)
+				{
+					if (Gp > 0)
+						violation = Gp;
+					else if (Gp < -Gmax_old)
+					{
+						index[s--] = index[--active_size];
+						index[active_size] = i;
+						continue;
+					}
+				}
+				else if (beta[i] <= -upper)
+				{
+					if (Gn < 0)
+						violation = -Gn;
+					else if (Gn > Gmax_old)
+					{
+						index[s--] = index[--active_size];
+						index[active_size] = i;
+						continue;
+					}
+				}
+				else if (beta[i] > 0)
+					violation = Math.abs(Gp);
+				else
+					violation = Math.abs(Gn);
+				Gmax_new = Math.max(Gmax_new, violation);
+				Gnorm1_new += violation;
+				// the Newton direction of the piecewise quadratic
+				double d;
+				if (Gp < H * beta[i])
+					d = -Gp / H;
+				else if (Gn > H * beta[i])
+					d = -Gn / H;
+				else
+					d = -beta[i];
+				if (Math.abs(d) < 1.0e-12)
+					continue;
+				double beta_old = beta[i];
+				beta[i] = Math.min(Math.max(beta[i] + d, -upper), upper);
+				d = beta[i] - beta_old;
+				if (d != 0)
+				{
+					if (store != null)
+						store.axpy(row[i], d, w);
+					else
+						for (svm_node node : x[i])
+							w[node.index] += d * node.value;
+					w[dim] += d;
+				}
+			}
+			if (iter == 0)
+				Gnorm1_init = Gnorm1_new;
+			iter++;
+			if (iter % 10 == 0)
+				svm.info(".");
+			if (Gnorm1_new <= svm.linear_eps(param) * Gnorm1_init)
+			{
+				if (active_size == l)
+					break;
+				// check the shrunk variables once more
+				active_size = l;
+				svm.info("*");
+				Gmax_old = Double.POSITIVE_INFINITY;
+				continue;
+			}
+			Gmax_old = Gmax_new;
+		}
+		svm.linear_finish(si, stop, iter, max_iter, budget);
+		double v = 0;
+		for (int i = 0; i <= dim; i++)
+			v += w[i] * w[i];
+		v /= 2;
+		double sum_beta = 0;
+		for (int i = 0; i < l; i++)
+		{
+			v += p * Math.abs(beta[i]) - prob.y[i] * beta[i] + 0.5 * lambda
+					* beta[i] * beta[i];
+			sum_beta += Math.abs(beta[i]);
+		}
+		if (!l2)
+			svm.info("nu = " + sum_beta / (param.C * l) + "\n");
+		si.obj = v;
+		si.rho = -w[dim];
+		si.w = svm.linear_weights(w, dim);
+		si.upper_bound_p = upper;
+		si.upper_bound_n = upper;
+		svm.info("\noptimization finished, #iter = " + iter + "\n");
+	}
+
+	// the dimension of the dense weight vector of the first l rows of x
+	private static int linear_dimension(svm_node[][] x, int l)
+	{
+		int dim = 0;
+		for (int i = 0; i < l; i++)
+			for (svm_node node : x[i])
+				dim = Math.max(dim, node.index + 1);
+		return dim;
+	}
+
+	// the tolerance of the dual coordinate descent
+	private static double linear_eps(svm_parameter param)
 	{
-		int l = prob.l;
-		double[] minus_ones = new double[l];
-		byte[] y = new byte[l];
-		int i;
-		for (i = 0; i < l; i++)
+		return param.linear_eps > 0 ? param.linear_eps : 0.1;
+	}
+
+	// report the end of a dual coordinate descent as Solver.Solve does
+	private static void linear_finish(Solver.SolutionInfo si, String stop,
+			int iter, int max_iter, boolean budget)
+	{
+		svm_train_control control = si.control;
+		if (stop == null && budget && iter >= max_iter)
+			stop = control.stop("iteration limit reached");
+		if (stop != null && control.policy == svm_train_control.ABORT)
+			throw new CancellationException("training " + stop);
+		if (stop != null || iter >= max_iter)
 		{
-			alpha[i] = 0;
-			minus_ones[i] = -1;
-			if (prob.y[i] > 0)
-				y[i] = +1;
+			if (si.metrics != null)
+				si.metrics.converged = false;
+			if (stop != null)
+				svm.info("\nWARNING: training stopped, " + stop + "\n");
 			else
-				y[i] = -1;
+				svm.info("\nWARNING: reaching max number of iterations\n");
 		}
-		Solver s = new Solver();
-		s.Solve(l, new SVC_Q(prob, param, y), minus_ones, y, alpha, Cp, Cn,
-				param.eps, si, param.shrinking);
-		double sum_alpha = 0;
-		for (i = 0; i < l; i++)
-			sum_alpha += alpha[i];
-		if (Cp == Cn)
-			svm.info("nu = " + sum_alpha / (Cp * prob.l) + "\n");
-		for (i = 0; i < l; i++)
-			alpha[i] *= y[i];
+		if (si.metrics != null)
+			si.metrics.add_solve(iter);
 	}
 
-	private static void solve_epsilon_svr(svm_problem prob,
-			svm_parameter param, double[] alpha, Solver.SolutionInfo si)
+	// collapses a two-class or regression model into the weight vector w of
+	// a linear solver, its single support vector of coefficient 1, which
+	// stands for no training sample
+	private static void linear_model(svm_model model, svm_node[] w)
 	{
-		int l = prob.l;
-		double[] alpha2 = new double[2 * l];
-		double[] linear_term = new double[2 * l];
-		byte[] y = new byte[2 * l];
-		int i;
-		for (i = 0; i < l; i++)
-		{
-			alpha2[i] = 0;
-			linear_term[i] = param.p - prob.y[i];
-			y[i] = 1;
-			alpha2[i + l] = 0;
-			linear_term[i + l] = param.p + prob.y[i];
-			y[i + l] = -1;
-		}
-		Solver s = new Solver();
-		s.Solve(2 * l, new SVR_Q(prob, param), linear_term, y, alpha2, param.C,
-				param.C, param.eps, si, param.shrinking);
-		double sum_alpha = 0;
-		for (i = 0; i < l; i++)
+		svm.info("Total nSV = 1\n");
+		model.l = 1;
+		model.SV = new svm_node[][] { w };
+		model.sv_coef = new double[][] { { 1 } };
+		model.sv_indices = null;
+	}
+
+	// the rows of a problem whose handles are not all on one store, with
+	// the handles read into the heap once
+	private static svm_node[][] linear_rows(svm_problem prob)
+	{
+		svm_node[][] x = prob.x;
+		for (int i = 0; i < prob.l; i++)
 		{
-			alpha[i] = alpha2[i] - alpha2[i + l];
-			sum_alpha += Math.abs(alpha[i]);
+			svm_node[] row = svm_store.resolve(x[i]);
+			if (row != x[i])
+			{
+				if (x == prob.x)
+					x = x.clone();
+				x[i] = row;
+			}
 		}
-		svm.info("nu = " + sum_alpha / (param.C * l) + "\n");
+		return x;
+	}
+
+	// the non-zero features of the first dim weights of w
+	private static svm_node[] linear_weights(double[] w, int dim)
+	{
+		int n = 0;
+		for (int i = 0; i < dim; i++)
+			if (w[i] != 0)
+				n++;
+		svm_node[] x = new svm_node[n];
+		for (int i = 0, k = 0; i < dim; i++)
+			if (w[i] != 0)
+			{
+				x[k] = new svm_node();
+				x[k].index = i;
+				x[k++].value = w[i];
+			}
+		return x;
 	}
 
 	private static void solve_nu_svc(svm_problem prob, svm_parameter param,
@@ -1564,7 +2936,7 @@ public class svm
 		double[] zeros = new double[l];
 		for (i = 0; i < l; i++)
 			zeros[i] = 0;
-		Solver_NU s = new Solver_NU();
+		Solver_NU s = svm.new_solver_nu(param);
 		s.Solve(l, new SVC_Q(prob, param, y), zeros, y, alpha, 1.0, 1.0,
 				param.eps, si, param.shrinking);
 		double r = si.r;
@@ -1596,7 +2968,7 @@ public class svm
 			linear_term[i + l] = prob.y[i];
 			y[i + l] = -1;
 		}
-		Solver_NU s = new Solver_NU();
+		Solver_NU s = svm.new_solver_nu(param);
 		s.Solve(2 * l, new SVR_Q(prob, param), linear_term, y, alpha2, C, C,
 				param.eps, si, param.shrinking);
 		svm.info("epsilon = " + -si.r + "\n");
@@ -1623,25 +2995,52 @@ public class svm
 			zeros[i] = 0;
 			ones[i] = 1;
 		}
-		Solver s = new Solver();
+		Solver s = svm.new_solver(param);
 		s.Solve(l, new ONE_CLASS_Q(prob, param), zeros, ones, alpha, 1.0, 1.0,
 				param.eps, si, param.shrinking);
 	}
 
+	// Laplace scale of the residuals z[0,l) of a regression, outliers beyond
+	// five standard deviations left out
+	private static double svr_laplace_sigma(int l, double[] z)
+	{
+		int i;
+		double mae = 0;
+		for (i = 0; i < l; i++)
+			mae += Math.abs(z[i]);
+		mae /= l;
+		double std = Math.sqrt(2 * mae * mae);
+		int count = 0;
+		mae = 0;
+		for (i = 0; i < l; i++)
+			if (Math.abs(z[i]) > 5 * std)
+				count = count + 1;
+			else
+				mae += Math.abs(z[i]);
+		mae /= l - count;
+		svm.info("Prob. model for test data: target value = predicted value + z,\nz: Laplace distribution e^(-|z|/sigma)/(2sigma),sigma="
+				+ mae + "\n");
+		return mae;
+	}
+
 	// Cross-validation decision values for probability estimates
+	// the folds are handed over to pool if it is not null
 	private static void svm_binary_svc_probability(svm_problem prob,
-			svm_parameter param, double Cp, double Cn, double[] probAB)
+			svm_parameter param, double Cp, double Cn, double[] probAB,
+			Random rand, ExecutorService pool)
 	{
 		int i;
-		int nr_fold = 5;
+		int nr_fold = param.probability_folds > 0 ? param.probability_folds
+				: 5;
 		int[] perm = new int[prob.l];
 		double[] dec_values = new double[prob.l];
+		Future<?>[] fold = new Future<?>[nr_fold];
 		// random shuffle
 		for (i = 0; i < prob.l; i++)
 			perm[i] = i;
 		for (i = 0; i < prob.l; i++)
 		{
-			int j = i + svm.rand.nextInt(prob.l - i);
+			int j = i + rand.nextInt(prob.l - i);
 			do
 			{
 				int _ = perm[i];
@@ -1699,20 +3098,108 @@ public class svm
 				subparam.weight_label[1] = -1;
 				subparam.weight[0] = Cp;
 				subparam.weight[1] = Cn;
-				svm_model submodel = svm.svm_train(subprob, subparam);
-				for (j = begin; j < end; j++)
+				// every fold writes its own range of dec_values, so that the
+				// result does not depend on the order the folds finish in
+				final svm_problem fold_prob = subprob;
+				final svm_parameter fold_param = subparam;
+				final svm_node[][] x = prob.x;
+				final int[] fold_perm = perm;
+				final int fold_begin = begin, fold_end = end;
+				final double[] fold_dec_values = dec_values;
+				Runnable task = new Runnable()
 				{
-					double[] dec_value = new double[1];
-					svm.svm_predict_values(submodel, prob.x[perm[j]], dec_value);
-					dec_values[perm[j]] = dec_value[0];
-					// ensure +1 -1 order; reason not using CV subroutine
-					dec_values[perm[j]] *= submodel.label[0];
-				}
+					public void run()
+					{
+						svm_model submodel = svm.svm_train(fold_prob,
+								fold_param);
+						for (int j = fold_begin; j < fold_end; j++)
+						{
+							double[] dec_value = new double[1];
+							svm.svm_predict_values(submodel, x[fold_perm[j]],
+									dec_value);
+							fold_dec_values[fold_perm[j]] = dec_value[0];
+							// ensure +1 -1 order; reason not using CV
+							// subroutine
+							fold_dec_values[fold_perm[j]] *= submodel.label[0];
+						}
+					}
+				};
+				if (pool != null)
+					fold[i] = pool.submit(task);
+				else
+					task.run();
 			}
 		}
+		for (i = 0; i < nr_fold; i++)
+			if (fold[i] != null)
+				svm.svm_wait(fold[i]);
 		svm.sigmoid_train(prob.l, dec_values, prob.y, probAB);
 	}
 
+	// Probability information from the decision values of a trained model over
+	// a hold-out set, replacing the internal cross validation of svm_train
+	public static void svm_calibrate_probability(svm_model model,
+			svm_problem prob)
+	{
+		int svm_type = model.param.svm_type;
+		int i, j, t;
+		if (svm_type == svm_parameter.EPSILON_SVR
+				|| svm_type == svm_parameter.NU_SVR)
+		{
+			double[] z = new double[prob.l];
+			for (t = 0; t < prob.l; t++)
+				z[t] = prob.y[t] - svm.svm_predict(model, prob.x[t]);
+			model.probA = new double[] { svm.svr_laplace_sigma(prob.l, z) };
+			model.probB = null;
+			return;
+		}
+		if (svm_type != svm_parameter.C_SVC && svm_type != svm_parameter.NU_SVC)
+			throw new IllegalArgumentException(
+					"probability calibration needs a classification or regression model");
+		int nr_class = model.nr_class;
+		int nr_pair = nr_class * (nr_class - 1) / 2;
+		// one scoring pass gives the decision values of all the pairs,
+		// samples of a class unknown to the model are left out
+		int[] cls = new int[prob.l];
+		double[] dec = new double[prob.l * nr_pair];
+		double[] dec_values = new double[nr_pair];
+		for (t = 0; t < prob.l; t++)
+		{
+			cls[t] = -1;
+			for (i = 0; i < nr_class; i++)
+				if (model.label[i] == (int) prob.y[t])
+					cls[t] = i;
+			if (cls[t] == -1)
+				continue;
+			svm.svm_predict_values(model, prob.x[t], dec_values);
+			System.arraycopy(dec_values, 0, dec, t * nr_pair, nr_pair);
+		}
+		double[] probA = new double[nr_pair];
+		double[] probB = new double[nr_pair];
+		double[] pair_dec = new double[prob.l];
+		double[] pair_y = new double[prob.l];
+		double[] probAB = new double[2];
+		int p = 0;
+		for (i = 0; i < nr_class; i++)
+			for (j = i + 1; j < nr_class; j++)
+			{
+				int n = 0;
+				for (t = 0; t < prob.l; t++)
+					if (cls[t] == i || cls[t] == j)
+					{
+						pair_dec[n] = dec[t * nr_pair + p];
+						pair_y[n] = cls[t] == i ? +1 : -1;
+						n++;
+					}
+				svm.sigmoid_train(n, pair_dec, pair_y, probAB);
+				probA[p] = probAB[0];
+				probB[p] = probAB[1];
+				++p;
+			}
+		model.probA = probA;
+		model.probB = probB;
+	}
+
 	public static String svm_check_parameter(svm_problem prob,
 			svm_parameter param)
 	{
@@ -1753,8 +3240,21 @@ public class svm
 		if (svm_type == svm_parameter.EPSILON_SVR)
 			if (param.p < 0)
 				return "p < 0";
-		if (param.shrinking != 0 && param.shrinking != 1)
-			return "shrinking != 0 and shrinking != 1";
+		if (param.shrinking < 0 || param.shrinking > 2)
+			return "shrinking < 0 or shrinking > 2";
+		if (param.fast_math != 0 && param.fast_math != 1)
+			return "fast_math != 0 and fast_math != 1";
+		if (param.linear_solver < svm_parameter.SMO
+				|| param.linear_solver > svm_parameter.DUAL_CD_L2)
+			return "linear_solver < 0 or linear_solver > 2";
+		if (param.linear_eps < 0)
+			return "linear_eps < 0";
+		if (param.nr_threads < 0)
+			return "nr_threads < 0";
+		if (param.probability_folds < 0 || param.probability_folds == 1)
+			return "probability_folds < 0 or probability_folds == 1";
+		if (param.working_set_size < 0 || param.working_set_size == 1)
+			return "working_set_size < 0 or working_set_size == 1";
 		if (param.probability != 0 && param.probability != 1)
 			return "probability != 0 and probability != 1";
 		if (param.probability == 1 && svm_type == svm_parameter.ONE_CLASS)
@@ -2044,6 +3544,22 @@ public class svm
 		count_ret[0] = count;
 	}
 
+	// the kernel function of param, for the code building models outside
+	// of svm_train
+	public static double svm_k_function(svm_node[] x, svm_node[] y,
+			svm_parameter param)
+	{
+		return Kernel.k_function(x, y, param);
+	}
+
+	// the kernel value of param from the inner product of x and y and their
+	// squared norms, honouring fast_math, for all the kernels but PRECOMPUTED
+	public static double svm_k_value(double dot, double xx, double yy,
+			svm_parameter param)
+	{
+		return Kernel.k_value(dot, xx, yy, param);
+	}
+
 	public static svm_model svm_load_model(BufferedReader fp)
 			throws IOException
 	{
@@ -2181,41 +3697,286 @@ public class svm
 
 	public static double svm_predict(svm_model model, svm_node[] x)
 	{
+		svm_workspace ws = svm_workspace.current(model);
+		return svm.svm_predict_values(model, x, ws.dec_values, ws);
+	}
+
+	public static void svm_predict_batch(svm_model model, svm_node[][] x,
+			int n, double[] results, double[][] dec_values)
+	{
+		svm.svm_predict_batch(model, x, n, results, dec_values,
+				svm_workspace.current(model));
+	}
+
+	// predicts n samples at once: the support vectors are walked in blocks,
+	// each block being evaluated against a chunk of samples while it is in
+	// the cache, and the samples are scattered into dense rows of the
+	// workspace so that each kernel value is a gather over one support
+	// vector; only the scattered entries are cleared afterwards. The
+	// dimension, squared norms and classes of the support vectors are
+	// computed once per model and workspace
+	public static void svm_predict_batch(svm_model model, svm_node[][] x,
+			int n, double[] results, double[][] dec_values, svm_workspace ws)
+	{
+		svm_parameter param = model.param;
+		int svm_type = param.svm_type;
+		boolean classification = svm_type == svm_parameter.C_SVC
+				|| svm_type == svm_parameter.NU_SVC;
 		int nr_class = model.nr_class;
-		double[] dec_values;
-		if (model.param.svm_type == svm_parameter.ONE_CLASS
-				|| model.param.svm_type == svm_parameter.EPSILON_SVR
-				|| model.param.svm_type == svm_parameter.NU_SVR)
-			dec_values = new double[1];
-		else
-			dec_values = new double[nr_class * (nr_class - 1) / 2];
-		double pred_result = svm.svm_predict_values(model, x, dec_values);
-		return pred_result;
+		int nr_dec = classification ? nr_class * (nr_class - 1) / 2 : 1;
+		ws.reserve(model);
+		if (param.kernel_type == svm_parameter.PRECOMPUTED)
+		{
+			for (int s = 0; s < n; s++)
+			{
+				results[s] = svm.svm_predict_values(model, x[s],
+						dec_values != null ? dec_values[s] : ws.dec_values,
+						ws);
+			}
+			return;
+		}
+		svm_node[][] input = x;
+		for (int s = 0; s < n; s++)
+		{
+			svm_node[] row = svm_store.resolve(input[s]);
+			if (row != input[s])
+			{
+				if (x == input)
+					x = input.clone();
+				x[s] = row;
+			}
+		}
+		if (ws.batch_model != model)
+			svm.svm_prepare_batch(model, ws);
+		int l = model.l;
+		int dim = ws.batch_dim;
+		double[] yy = ws.sv_square;
+		int[] sv_class = ws.sv_class;
+		// chunks of dense rows up to DENSE_MAX values, sparse merges if a
+		// support vector does not fit in a dense row
+		int chunk = dim < 0 ? n : Math.max(1, Kernel.DENSE_MAX
+				/ Math.max(dim, 1));
+		double[] dense = null;
+		if (dim >= 0)
+		{
+			int size = Math.min(chunk, n) * dim;
+			if (ws.batch_dense.length < size)
+				ws.batch_dense = new double[size];
+			dense = ws.batch_dense;
+		}
+		if (ws.batch_sum.length < n * nr_dec)
+			ws.batch_sum = new double[n * nr_dec];
+		if (ws.batch_square.length < n)
+			ws.batch_square = new double[n];
+		double[] sum = ws.batch_sum;
+		double[] xx = ws.batch_square;
+		for (int s = 0; s < n; s++)
+		{
+			xx[s] = Kernel.dot(x[s], x[s]);
+			for (int p = 0; p < nr_dec; p++)
+				sum[s * nr_dec + p] = -model.rho[p];
+		}
+		final int block = 64;
+		for (int first = 0; first < n; first += chunk)
+		{
+			int last = Math.min(n, first + chunk);
+			if (dense != null)
+				for (int s = first; s < last; s++)
+					for (svm_node node : x[s])
+						if (node.index >= 0 && node.index < dim)
+							dense[(s - first) * dim + node.index] = node.value;
+			// a failure must not leave the chunk scattered for the next
+			// batches
+			try
+			{
+				for (int b = 0; b < l; b += block)
+				{
+					int end = Math.min(l, b + block);
+					for (int s = first; s < last; s++)
+					{
+						int row = (s - first) * dim;
+						for (int i = b; i < end; i++)
+						{
+							svm_node[] sv = model.SV[i];
+							double dot = 0;
+							if (dense != null)
+								for (svm_node node : sv)
+									dot += node.value * dense[row + node.index];
+							else
+								dot = Kernel.dot(x[s], sv);
+							double k = Kernel.k_value(dot, xx[s], yy[i], param);
+							if (!classification)
+							{
+								sum[s] += model.sv_coef[0][i] * k;
+								continue;
+							}
+							// the decision functions of the class pairs (c, j)
+							int c = sv_class[i];
+							for (int j = 0; j < nr_class; j++)
+								if (j < c)
+									sum[s * nr_dec + j
+											* (2 * nr_class - j - 1) / 2 + c
+											- j - 1] += model.sv_coef[j][i] * k;
+								else if (j > c)
+									sum[s * nr_dec + c
+											* (2 * nr_class - c - 1) / 2 + j
+											- c - 1] += model.sv_coef[j - 1][i]
+											* k;
+						}
+					}
+				}
+			}
+			finally
+			{
+				if (dense != null)
+					for (int s = first; s < last; s++)
+						for (svm_node node : x[s])
+							if (node.index >= 0 && node.index < dim)
+								dense[(s - first) * dim + node.index] = 0;
+			}
+		}
+		int[] vote = ws.vote;
+		for (int s = 0; s < n; s++)
+		{
+			if (dec_values != null)
+				System.arraycopy(sum, s * nr_dec, dec_values[s], 0, nr_dec);
+			if (!classification)
+			{
+				if (svm_type == svm_parameter.ONE_CLASS)
+					results[s] = sum[s] > 0 ? 1 : -1;
+				else
+					results[s] = sum[s];
+				continue;
+			}
+			for (int i = 0; i < nr_class; i++)
+				vote[i] = 0;
+			int p = 0;
+			for (int i = 0; i < nr_class; i++)
+				for (int j = i + 1; j < nr_class; j++)
+					if (sum[s * nr_dec + p++] > 0)
+						++vote[i];
+					else
+						++vote[j];
+			int vote_max_idx = 0;
+			for (int i = 1; i < nr_class; i++)
+				if (vote[i] > vote[vote_max_idx])
+					vote_max_idx = i;
+			results[s] = model.label[vote_max_idx];
+		}
+	}
+
+	public static double svm_predict_dag(svm_model model, svm_node[] x)
+	{
+		return svm.svm_predict_dag(model, x, svm_workspace.current(model));
+	}
+
+	// Decision DAG (Platt et al., NIPS 12 (2000), p. 547--553): the first and
+	// the last candidate class meet in a pairwise test and the loser leaves
+	// the list, so that k-1 of the k*(k-1)/2 decision functions are
+	// evaluated. The kernel values of a class are computed when it enters its
+	// first test; every class takes part in at least one test, so the saving
+	// is in the pairwise sums
+	public static double svm_predict_dag(svm_model model, svm_node[] x,
+			svm_workspace ws)
+	{
+		if (model.param.svm_type != svm_parameter.C_SVC
+				&& model.param.svm_type != svm_parameter.NU_SVC)
+			return svm.svm_predict_values(model, x, ws.dec_values, ws);
+		ws.reserve(model);
+		x = svm_store.resolve(x);
+		int i;
+		int nr_class = model.nr_class;
+		double[] kvalue = ws.kvalue;
+		boolean[] computed = ws.computed;
+		int[] start = ws.start;
+		start[0] = 0;
+		for (i = 1; i < nr_class; i++)
+			start[i] = start[i - 1] + model.nSV[i - 1];
+		for (i = 0; i < nr_class; i++)
+			computed[i] = false;
+		int lo = 0, hi = nr_class - 1;
+		// a failure must not leave x scattered for the next predictions
+		Kernel.scatter(x, model.param, ws);
+		try
+		{
+			while (lo < hi)
+			{
+				if (!computed[lo])
+					svm.svm_predict_dag_block(model, x, ws, lo);
+				if (!computed[hi])
+					svm.svm_predict_dag_block(model, x, ws, hi);
+				int si = start[lo];
+				int sj = start[hi];
+				int ci = model.nSV[lo];
+				int cj = model.nSV[hi];
+				int k;
+				double[] coef1 = model.sv_coef[hi - 1];
+				double[] coef2 = model.sv_coef[lo];
+				double sum = 0;
+				for (k = 0; k < ci; k++)
+					sum += coef1[si + k] * kvalue[si + k];
+				for (k = 0; k < cj; k++)
+					sum += coef2[sj + k] * kvalue[sj + k];
+				// index of the pair (lo,hi) in rho
+				sum -= model.rho[lo * (2 * nr_class - lo - 1) / 2 + hi - lo
+						- 1];
+				if (sum > 0)
+					hi--;
+				else
+					lo++;
+			}
+		}
+		finally
+		{
+			Kernel.clear(x, ws);
+		}
+		return model.label[lo];
+	}
+
+	// kernel values of the support vectors of class c
+	private static void svm_predict_dag_block(svm_model model, svm_node[] x,
+			svm_workspace ws, int c)
+	{
+		int begin = ws.start[c];
+		int end = begin + model.nSV[c];
+		for (int k = begin; k < end; k++)
+			ws.kvalue[k] = Kernel.k_scattered(x, model.SV[k], model.param, ws);
+		ws.computed[c] = true;
 	}
 
 	public static double svm_predict_probability(svm_model model, svm_node[] x,
 			double[] prob_estimates)
 	{
+		return svm.svm_predict_probability(model, x, prob_estimates,
+				svm_workspace.current(model));
+	}
+
+	public static double svm_predict_probability(svm_model model, svm_node[] x,
+			double[] prob_estimates, svm_workspace ws)
+	{
+		ws.reserve(model);
 		if ((model.param.svm_type == svm_parameter.C_SVC || model.param.svm_type == svm_parameter.NU_SVC)
 				&& model.probA != null && model.probB != null)
 		{
 			int i;
 			int nr_class = model.nr_class;
-			double[] dec_values = new double[nr_class * (nr_class - 1) / 2];
-			svm.svm_predict_values(model, x, dec_values);
+			double[] dec_values = ws.dec_values;
+			svm.svm_predict_values(model, x, dec_values, ws);
 			double min_prob = 1e-7;
-			double[][] pairwise_prob = new double[nr_class][nr_class];
+			double[] pairwise_prob = ws.pairwise_prob;
 			int k = 0;
 			for (i = 0; i < nr_class; i++)
 				for (int j = i + 1; j < nr_class; j++)
 				{
-					pairwise_prob[i][j] = Math.min(Math.max(svm
-							.sigmoid_predict(dec_values[k], model.probA[k],
-									model.probB[k]), min_prob), 1 - min_prob);
-					pairwise_prob[j][i] = 1 - pairwise_prob[i][j];
+					double r = Math.min(Math.max(svm.sigmoid_predict(
+							dec_values[k], model.probA[k], model.probB[k]),
+							min_prob), 1 - min_prob);
+					pairwise_prob[i * nr_class + j] = r;
+					pairwise_prob[j * nr_class + i] = 1 - r;
 					k++;
 				}
-			svm.multiclass_probability(nr_class, pairwise_prob, prob_estimates);
+			svm.multiclass_probability(nr_class, pairwise_prob,
+					prob_estimates, ws.Q, ws.Qp);
 			int prob_max_idx = 0;
 			for (i = 1; i < nr_class; i++)
 				if (prob_estimates[i] > prob_estimates[prob_max_idx])
@@ -2223,22 +3984,41 @@ public class svm
 			return model.label[prob_max_idx];
 		}
 		else
-			return svm.svm_predict(model, x);
+			return svm.svm_predict_values(model, x, ws.dec_values, ws);
 	}
 
 	public static double svm_predict_values(svm_model model, svm_node[] x,
 			double[] dec_values)
+	{
+		return svm.svm_predict_values(model, x, dec_values,
+				svm_workspace.current(model));
+	}
+
+	public static double svm_predict_values(svm_model model, svm_node[] x,
+			double[] dec_values, svm_workspace ws)
 	{
 		int i;
+		ws.reserve(model);
+		x = svm_store.resolve(x);
 		if (model.param.svm_type == svm_parameter.ONE_CLASS
 				|| model.param.svm_type == svm_parameter.EPSILON_SVR
 				|| model.param.svm_type == svm_parameter.NU_SVR)
 		{
 			double[] sv_coef = model.sv_coef[0];
 			double sum = 0;
-			for (i = 0; i < model.l; i++)
-				sum += sv_coef[i]
-						* Kernel.k_function(x, model.SV[i], model.param);
+			// a failure must not leave x scattered for the next predictions
+			Kernel.scatter(x, model.param, ws);
+			try
+			{
+				for (i = 0; i < model.l; i++)
+					sum += sv_coef[i]
+							* Kernel.k_scattered(x, model.SV[i], model.param,
+									ws);
+			}
+			finally
+			{
+				Kernel.clear(x, ws);
+			}
 			sum -= model.rho[0];
 			dec_values[0] = sum;
 			if (model.param.svm_type == svm_parameter.ONE_CLASS)
@@ -2250,14 +4030,23 @@ public class svm
 		{
 			int nr_class = model.nr_class;
 			int l = model.l;
-			double[] kvalue = new double[l];
-			for (i = 0; i < l; i++)
-				kvalue[i] = Kernel.k_function(x, model.SV[i], model.param);
-			int[] start = new int[nr_class];
+			double[] kvalue = ws.kvalue;
+			Kernel.scatter(x, model.param, ws);
+			try
+			{
+				for (i = 0; i < l; i++)
+					kvalue[i] = Kernel.k_scattered(x, model.SV[i],
+							model.param, ws);
+			}
+			finally
+			{
+				Kernel.clear(x, ws);
+			}
+			int[] start = ws.start;
 			start[0] = 0;
 			for (i = 1; i < nr_class; i++)
 				start[i] = start[i - 1] + model.nSV[i - 1];
-			int[] vote = new int[nr_class];
+			int[] vote = ws.vote;
 			for (i = 0; i < nr_class; i++)
 				vote[i] = 0;
 			int p = 0;
@@ -2292,6 +4081,35 @@ public class svm
 		}
 	}
 
+	// the per-model data of svm_predict_batch: the dimension of the dense
+	// rows, -1 if a support vector has a negative index or one of DENSE_MAX
+	// or more, the squared norms and the classes of the support vectors
+	private static void svm_prepare_batch(svm_model model, svm_workspace ws)
+	{
+		int l = model.l;
+		if (ws.sv_square.length < l)
+		{
+			ws.sv_square = new double[l];
+			ws.sv_class = new int[l];
+		}
+		int dim = 0;
+		for (int i = 0; i < l; i++)
+		{
+			ws.sv_square[i] = Kernel.dot(model.SV[i], model.SV[i]);
+			for (svm_node node : model.SV[i])
+				if (dim >= 0)
+					dim = node.index < 0 || node.index >= Kernel.DENSE_MAX ? -1
+							: Math.max(dim, node.index + 1);
+		}
+		if (model.param.svm_type == svm_parameter.C_SVC
+				|| model.param.svm_type == svm_parameter.NU_SVC)
+			for (int c = 0, i = 0; c < model.nr_class; c++)
+				for (int k = 0; k < model.nSV[c]; k++)
+					ws.sv_class[i++] = c;
+		ws.batch_dim = dim;
+		ws.batch_model = model;
+	}
+
 	public static void svm_save_model(String model_file_name, svm_model model)
 			throws IOException
 	{
@@ -2379,28 +4197,12 @@ public class svm
 		int i;
 		int nr_fold = 5;
 		double[] ymv = new double[prob.l];
-		double mae = 0;
 		svm_parameter newparam = (svm_parameter) param.clone();
 		newparam.probability = 0;
 		svm.svm_cross_validation(prob, newparam, nr_fold, ymv);
 		for (i = 0; i < prob.l; i++)
-		{
 			ymv[i] = prob.y[i] - ymv[i];
-			mae += Math.abs(ymv[i]);
-		}
-		mae /= prob.l;
-		double std = Math.sqrt(2 * mae * mae);
-		int count = 0;
-		mae = 0;
-		for (i = 0; i < prob.l; i++)
-			if (Math.abs(ymv[i]) > 5 * std)
-				count = count + 1;
-			else
-				mae += Math.abs(ymv[i]);
-		mae /= prob.l - count;
-		svm.info("Prob. model for test data: target value = predicted value + z,\nz: Laplace distribution e^(-|z|/sigma)/(2sigma),sigma="
-				+ mae + "\n");
-		return mae;
+		return svm.svr_laplace_sigma(prob.l, ymv);
 	}
 
 	//
@@ -2410,6 +4212,7 @@ public class svm
 	{
 		svm_model model = new svm_model();
 		model.param = param;
+		model.metrics = new svm_train_metrics();
 		if (param.svm_type == svm_parameter.ONE_CLASS
 				|| param.svm_type == svm_parameter.EPSILON_SVR
 				|| param.svm_type == svm_parameter.NU_SVR)
@@ -2427,9 +4230,15 @@ public class svm
 				model.probA = new double[1];
 				model.probA[0] = svm.svm_svr_probability(prob, param);
 			}
-			decision_function f = svm.svm_train_one(prob, param, 0, 0);
+			decision_function f = svm.svm_train_one(prob, param, 0, 0,
+					model.metrics);
 			model.rho = new double[1];
 			model.rho[0] = f.rho;
+			if (f.w != null)
+			{
+				svm.linear_model(model, f.w);
+				return model;
+			}
 			int nSV = 0;
 			int i;
 			for (i = 0; i < prob.l; i++)
@@ -2443,7 +4252,7 @@ public class svm
 			for (i = 0; i < prob.l; i++)
 				if (Math.abs(f.alpha[i]) > 0)
 				{
-					model.SV[j] = prob.x[i];
+					model.SV[j] = svm_store.resolve(prob.x[i]);
 					model.sv_coef[0][j] = f.alpha[i];
 					model.sv_indices[j] = i + 1;
 					++j;
@@ -2521,16 +4330,18 @@ public class svm
 						sub_prob.x[ci + k] = x[sj + k];
 						sub_prob.y[ci + k] = -1;
 					}
+					double[] probAB = new double[2];
+					// a seeded pair draws its folds from its own generator,
+					// independent of the other pairs
+					Random rand = param.probability_seed != 0 ? new Random(
+							param.probability_seed + p) : svm.rand;
+					f[p] = svm.svm_train_pair(sub_prob, param, weighted_C[i],
+							weighted_C[j], probAB, rand, model.metrics);
 					if (param.probability == 1)
 					{
-						double[] probAB = new double[2];
-						svm.svm_binary_svc_probability(sub_prob, param,
-								weighted_C[i], weighted_C[j], probAB);
 						probA[p] = probAB[0];
 						probB[p] = probAB[1];
 					}
-					f[p] = svm.svm_train_one(sub_prob, param, weighted_C[i],
-							weighted_C[j]);
 					for (k = 0; k < ci; k++)
 						if (!nonzero[si + k] && Math.abs(f[p].alpha[k]) > 0)
 							nonzero[si + k] = true;
@@ -2563,6 +4374,12 @@ public class svm
 				model.probA = null;
 				model.probB = null;
 			}
+			if (nr_class == 2 && f[0].w != null)
+			{
+				svm.linear_model(model, f[0].w);
+				model.nSV = new int[] { 1, 0 };
+				return model;
+			}
 			int nnz = 0;
 			int[] nz_count = new int[nr_class];
 			model.nSV = new int[nr_class];
@@ -2586,7 +4403,7 @@ public class svm
 			for (i = 0; i < l; i++)
 				if (nonzero[i])
 				{
-					model.SV[p] = x[i];
+					model.SV[p] = svm_store.resolve(x[i]);
 					model.sv_indices[p++] = perm[i] + 1;
 				}
 			int[] nz_start = new int[nr_class];
@@ -2623,14 +4440,20 @@ public class svm
 	}
 
 	static decision_function svm_train_one(svm_problem prob,
-			svm_parameter param, double Cp, double Cn)
+			svm_parameter param, double Cp, double Cn, svm_train_metrics metrics)
 	{
 		double[] alpha = new double[prob.l];
 		Solver.SolutionInfo si = new Solver.SolutionInfo();
+		si.control = param.control;
+		si.metrics = metrics;
 		switch (param.svm_type)
 		{
 			case svm_parameter.C_SVC:
-				svm.solve_c_svc(prob, param, alpha, si, Cp, Cn);
+				if (param.kernel_type == svm_parameter.LINEAR
+						&& param.linear_solver != svm_parameter.SMO)
+					svm.solve_linear_c_svc(prob, param, alpha, si, Cp, Cn);
+				else
+					svm.solve_c_svc(prob, param, alpha, si, Cp, Cn);
 				break;
 			case svm_parameter.NU_SVC:
 				svm.solve_nu_svc(prob, param, alpha, si);
@@ -2639,7 +4462,11 @@ public class svm
 				svm.solve_one_class(prob, param, alpha, si);
 				break;
 			case svm_parameter.EPSILON_SVR:
-				svm.solve_epsilon_svr(prob, param, alpha, si);
+				if (param.kernel_type == svm_parameter.LINEAR
+						&& param.linear_solver != svm_parameter.SMO)
+					svm.solve_linear_epsilon_svr(prob, param, alpha, si);
+				else
+					svm.solve_epsilon_svr(prob, param, alpha, si);
 				break;
 			case svm_parameter.NU_SVR:
 				svm.solve_nu_svr(prob, param, alpha, si);
@@ -2665,8 +4492,76 @@ public class svm
 		decision_function f = new decision_function();
 		f.alpha = alpha;
 		f.rho = si.rho;
+		f.w = si.w;
 		return f;
 	}
+
+	// train a pair of classes, with its probability information in probAB if
+	// param.probability is 1; with more than one thread the pair and the
+	// cross-validation folds of the probability estimates are trained at the
+	// same time, the cache being split among them
+	private static decision_function svm_train_pair(final svm_problem prob,
+			svm_parameter param, final double Cp, final double Cn,
+			double[] probAB, Random rand, final svm_train_metrics metrics)
+	{
+		if (param.probability != 1)
+			return svm.svm_train_one(prob, param, Cp, Cn, metrics);
+		int nr_fold = param.probability_folds > 0 ? param.probability_folds
+				: 5;
+		int threads = Math.min(param.nr_threads, nr_fold + 1);
+		if (threads <= 1)
+		{
+			svm.svm_binary_svc_probability(prob, param, Cp, Cn, probAB, rand,
+					null);
+			return svm.svm_train_one(prob, param, Cp, Cn, metrics);
+		}
+		final svm_parameter subparam = (svm_parameter) param.clone();
+		subparam.nr_threads = 1;
+		subparam.cache_size = param.cache_size / threads;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try
+		{
+			Future<decision_function> f = pool
+					.submit(new Callable<decision_function>()
+					{
+						public decision_function call()
+						{
+							return svm.svm_train_one(prob, subparam, Cp, Cn,
+									metrics);
+						}
+					});
+			svm.svm_binary_svc_probability(prob, subparam, Cp, Cn, probAB,
+					rand, pool);
+			return svm.svm_wait(f);
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+
+	// wait for a task of svm_train_pair, rethrowing its failure
+	private static <T> T svm_wait(Future<T> f)
+	{
+		try
+		{
+			return f.get();
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new CancellationException("training interrupted");
+		}
+	}
 }
 
 class SVR_Q extends Kernel
@@ -2700,13 +4595,17 @@ class SVR_Q extends Kernel
 		next_buffer = 0;
 	}
 
+	Cache get_cache()
+	{
+		return cache;
+	}
+
 	float[] get_Q(int i, int len)
 	{
 		float[][] data = new float[1][];
 		int j, real_i = index[i];
 		if (cache.get_data(real_i, data, l) < l)
-			for (j = 0; j < l; j++)
-				data[0][j] = (float) kernel_function(real_i, j);
+			kernel_column(real_i, data[0], 0, l);
 		// reorder and copy
 		float buf[] = buffer[next_buffer];
 		next_buffer = 1 - next_buffer;
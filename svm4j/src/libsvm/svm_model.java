@@ -25,6 +25,10 @@ public class svm_model implements java.io.Serializable
 	 * label of each class (label[k])
 	 */
 	public int[]				label;
+	/**
+	 * statistics of the training, null for a model which has been loaded
+	 */
+	public transient svm_train_metrics	metrics;
 	/**
 	 * number of classes, = 2 in regression/one class svm
 	 */
@@ -58,7 +62,8 @@ public class svm_model implements java.io.Serializable
 	/**
 	 * for classification only: <br>
 	 * sv_indices[0,...,nSV-1] are values in [1,...,num_traning_data] to
-	 * indicate SVs in the training set
+	 * indicate SVs in the training set; null for a loaded model, or for a
+	 * linear model collapsed into its weight vector
 	 */
 	public int[]				sv_indices;
 };
@@ -110,6 +110,23 @@ public class svm_parameter implements Cloneable, java.io.Serializable
 	 * </p>
 	 */
 	public static final int		SIGMOID				= 3;
+	/**
+	 * <strong>linear_solver</strong>: the SMO of LIBSVM over the kernel
+	 * matrix.
+	 */
+	public static final int		SMO					= 0;
+	/**
+	 * <strong>linear_solver</strong>: the dual coordinate descent of LIBLINEAR
+	 * over the primal weight vector, with the hinge loss for C-SVC and the
+	 * &epsilon;-insensitive loss for &epsilon;-SVR.
+	 */
+	public static final int		DUAL_CD_L1			= 1;
+	/**
+	 * <strong>linear_solver</strong>: the dual coordinate descent of LIBLINEAR
+	 * over the primal weight vector, with the squared hinge loss for C-SVC and
+	 * the squared &epsilon;-insensitive loss for &epsilon;-SVR.
+	 */
+	public static final int		DUAL_CD_L2			= 2;
 	/**
 	 * The cost coefficient (default 1).
 	 * <p>
@@ -129,6 +146,14 @@ public class svm_parameter implements Cloneable, java.io.Serializable
 	 * kernel (default 0).
 	 */
 	public double				coef0;
+	/**
+	 * Training parameter:
+	 * <p>
+	 * The cancellation token and the budgets of the training, <code>null</code>
+	 * for an uncontrolled training. It is not saved with the model.
+	 * </p>
+	 */
+	public transient svm_train_control	control;
 	/**
 	 * The power coefficient <code>d</code> in polynomial kernel.
 	 */
@@ -140,6 +165,21 @@ public class svm_parameter implements Cloneable, java.io.Serializable
 	 * </p>
 	 */
 	public double				eps;
+	/**
+	 * The flag for whether evaluating the radial basis function kernel and the
+	 * sigmoid kernel with the fast approximations of <code>exp</code> and
+	 * <code>tanh</code>. 1 for the approximations; 0 for the exact functions
+	 * of {@link Math}.
+	 * <p>
+	 * The approximations are within a relative error of 5e-11 for
+	 * <code>exp</code> and 5e-10 for <code>tanh</code>, below the precision of
+	 * the single precision kernel cache. The flag applies to the training and
+	 * to the predictions with the trained model. It is not saved with the
+	 * model, a loaded model predicts exactly until it is set again on
+	 * {@link svm_model#param}.
+	 * </p>
+	 */
+	public int					fast_math;
 	/**
 	 * The &gamma; parameter in polynomial kernel, radial basis function kernel
 	 * and sigmoid kernel (default 1/features_count, set 0 for use this value).
@@ -155,6 +195,53 @@ public class svm_parameter implements Cloneable, java.io.Serializable
 	 * @see #PRECOMPUTED
 	 */
 	public int					kernel_type;
+	/**
+	 * Training parameter:
+	 * <p>
+	 * The solver of C-SVC and &epsilon;-SVR with the linear kernel (default
+	 * {@link #SMO}). The dual coordinate descent solvers keep the weight
+	 * vector instead of kernel columns, so that a pass over the samples costs
+	 * their amount of non-zero features. As in LIBLINEAR, the bias is an extra
+	 * feature of value 1, hence regularized, and a solver stops after 1000
+	 * passes unless its tolerance {@link #linear_eps} is met first, or after
+	 * the smaller iteration budget of the training control. The coordinates
+	 * are visited in an order drawn from a fixed seed, so that the training
+	 * is repeatable. A two-class C-SVC or an &epsilon;-SVR model is collapsed
+	 * into its weight vector, a single support vector of coefficient 1 with
+	 * no {@link svm_model#sv_indices}, so that a prediction costs the
+	 * non-zero features of the sample. A multi-class model keeps the
+	 * one-versus-one layout of LIBSVM, whose support vectors are the samples
+	 * of non-zero coefficients. The other types and kernels are always solved
+	 * by SMO.
+	 * </p>
+	 * 
+	 * @see #SMO
+	 * @see #DUAL_CD_L1
+	 * @see #DUAL_CD_L2
+	 */
+	public int					linear_solver;
+	/**
+	 * Training parameter:
+	 * <p>
+	 * The tolerance of termination criterion of the dual coordinate descent
+	 * solvers (0 for the default 0.1 of LIBLINEAR). It bounds the spread of
+	 * the projected gradient for C-SVC, and the norm of the gradient violation
+	 * relative to the one of the first pass for &epsilon;-SVR. The tolerance
+	 * {@link #eps} of SMO is not used by these solvers, being far stricter
+	 * than the coordinate descent needs.
+	 * </p>
+	 */
+	public double				linear_eps;
+	/**
+	 * Training parameter:
+	 * <p>
+	 * The amount of threads sharing the gradient updates and the working set
+	 * selection of the solver (0 or 1 for single-threaded). The worker threads
+	 * are kept alive during the whole optimization, they only take part on
+	 * problems large enough to be split.
+	 * </p>
+	 */
+	public int					nr_threads;
 	/**
 	 * The length of the weight vector in C-SVC.
 	 * <p>
@@ -175,7 +262,30 @@ public class svm_parameter implements Cloneable, java.io.Serializable
 	 */
 	public int					probability;
 	/**
-	 * The flag for whether using the shrinking heuristics.
+	 * Training parameter:
+	 * <p>
+	 * The amount of the internal cross-validation folds fitting the
+	 * probability estimates of C-SVC and &nu;-SVC (0 for the default 5).
+	 * </p>
+	 */
+	public int					probability_folds;
+	/**
+	 * Training parameter:
+	 * <p>
+	 * The seed of the fold assignment of the probability estimates of C-SVC
+	 * and &nu;-SVC (0 to draw it from the shared generator of {@link svm}).
+	 * With a seed, each pair of classes draws from its own generator, so that
+	 * the estimates are repeatable and independent of
+	 * {@link #nr_threads}. The folds and the training of each pair run
+	 * concurrently on up to {@link #nr_threads} threads.
+	 * </p>
+	 */
+	public long					probability_seed;
+	/**
+	 * The flag for whether using the shrinking heuristics. 0 for not; 1 for a
+	 * shrinking pass every min(l, 1000) iterations; 2 for an interval adapted
+	 * from how much each pass removes and how often shrunk variables have to
+	 * be brought back.
 	 */
 	public int					shrinking;
 	/**
@@ -202,6 +312,18 @@ public class svm_parameter implements Cloneable, java.io.Serializable
 	 * </p>
 	 */
 	public int[]				weight_label;
+	/**
+	 * Training parameter:
+	 * <p>
+	 * The amount of variables optimized in each solver iteration (0 or 2 for
+	 * the standard pairwise SMO). A larger working set selects a block of the
+	 * most violating variables and solves it as a small dense sub-problem, so
+	 * that every fetched kernel column serves several updates. It applies to
+	 * C-SVC, &epsilon;-SVR and one-class SVM; the &nu; formulations are always
+	 * solved pairwise.
+	 * </p>
+	 */
+	public int					working_set_size;
 
 	/**
 	 * @see java.lang.Object#clone()
@@ -0,0 +1,11 @@
+package libsvm;
+
+public interface svm_progress_interface
+{
+	// iter: iterations of the current optimization problem
+	// gap: maximal violation of the optimality conditions, Gmax + Gmax2
+	// active_size: size of the active set after shrinking
+	// cache_hit_rate: fraction of the kernel columns served from the cache
+	public void progress(int iter, double gap, int active_size,
+			double cache_hit_rate);
+}
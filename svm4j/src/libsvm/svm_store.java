@@ -0,0 +1,545 @@
+//
+// svm_store
+//
+package libsvm;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.StringTokenizer;
+
+/**
+ * A training set kept in a memory-mapped file instead of the heap.
+ * <p>
+ * The file holds the samples as compressed sparse rows: the (index, value)
+ * entries of all the rows one after another, the destination values, and the
+ * offsets of the rows. It is written once from a LIBSVM-format text file by
+ * {@link #convert(String, String)} and mapped read-only by
+ * {@link #open(String)}, so that the features are paged in by the operating
+ * system when the solver reads them and never live in the heap.
+ * </p>
+ * <p>
+ * {@link #problem()} returns an <tt>svm_problem</tt> whose rows are handles
+ * on the stored rows. The kernels of {@link svm#svm_train(svm_problem,
+ * svm_parameter)} compute their inner products directly on the mapping, the
+ * support vectors of the trained model are read out of the store, and the
+ * prediction functions read a handle row before predicting it. Such a problem
+ * costs a few dozen bytes of heap per sample whatever the number of its
+ * features.
+ * </p>
+ * <p>
+ * A store is safe to read from several threads. The mapping is released when
+ * the store is no longer reachable.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class svm_store
+{
+	// the handle of a stored row, the only node of its row in svm_problem.x
+	static final class row_node extends svm_node
+	{
+		private static final long	serialVersionUID	= 6912350837724086146L;
+		final transient svm_store	store;
+		final int					row;
+
+		row_node(svm_store store, int row)
+		{
+			this.store = store;
+			this.row = row;
+			index = -1;
+			value = row;
+		}
+	}
+
+	// the file layout, big-endian:
+	// header: int magic, int version, int l, int max_index, int max_length,
+	// int padding, long nnz, long y_offset, long row_offset, up to HEADER
+	// rows: nnz entries of int index and double value, from HEADER
+	// y: l doubles, from y_offset
+	// rows: l + 1 longs, the file offsets of the rows, from row_offset
+	private static final int	ENTRY	= 12;
+	private static final int	HEADER	= 64;
+	private static final int	MAGIC	= 0x53564d53;
+	private static final int	VERSION	= 1;
+	// the mapping is split into chunks of 1 << SHIFT bytes; each chunk maps
+	// the longest row past its end, so that a row is never split
+	private static final int	SHIFT	= 30;
+	private static final long	MASK	= (1L << SHIFT) - 1;
+
+	/**
+	 * Convert a LIBSVM-format text file into a store and open it. The text is
+	 * read once; the rows must have their feature indices in ascending order.
+	 *
+	 * @param input
+	 *            the LIBSVM-format text file
+	 * @param output
+	 *            the store file to write
+	 * @return the opened store
+	 * @throws IOException
+	 *             if the files cannot be read or written, or the text is not
+	 *             in LIBSVM format
+	 */
+	public static svm_store convert(String input, String output)
+			throws IOException
+	{
+		File out = new File(output);
+		File dir = out.getAbsoluteFile().getParentFile();
+		File y_file = File.createTempFile("svm_store", ".y", dir);
+		File row_file = File.createTempFile("svm_store", ".rows", dir);
+		boolean done = false;
+		try
+		{
+			BufferedReader fp = new BufferedReader(new FileReader(input));
+			DataOutputStream data = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(out), 1 << 16));
+			DataOutputStream ys = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(y_file)));
+			DataOutputStream rows = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(row_file)));
+			int l = 0;
+			int max_index = 0;
+			int max_length = 0;
+			long nnz = 0;
+			try
+			{
+				data.write(new byte[HEADER]);
+				long offset = HEADER;
+				rows.writeLong(offset);
+				int line_number = 0;
+				String line;
+				while ((line = fp.readLine()) != null)
+				{
+					++line_number;
+					StringTokenizer st = new StringTokenizer(line,
+							" \t\n\r\f:");
+					if (!st.hasMoreTokens())
+						continue;
+					if (l == Integer.MAX_VALUE)
+						throw new IOException("too many samples at line "
+								+ line_number);
+					int n = st.countTokens() / 2;
+					if (n > (int) (MASK / ENTRY))
+						throw new IOException("too many features at line "
+								+ line_number);
+					try
+					{
+						ys.writeDouble(Double.parseDouble(st.nextToken()));
+						int previous = -1;
+						for (int j = 0; j < n; j++)
+						{
+							int index = Integer.parseInt(st.nextToken());
+							if (index <= previous)
+								throw new IOException(
+										"wrong feature index at line "
+												+ line_number);
+							data.writeInt(index);
+							data.writeDouble(Double.parseDouble(st
+									.nextToken()));
+							previous = index;
+						}
+						max_index = Math.max(max_index, previous);
+					}
+					catch (NumberFormatException e)
+					{
+						throw new IOException("wrong input format at line "
+								+ line_number);
+					}
+					offset += (long) n * ENTRY;
+					rows.writeLong(offset);
+					nnz += n;
+					max_length = Math.max(max_length, n);
+					++l;
+				}
+			}
+			finally
+			{
+				fp.close();
+				data.close();
+				ys.close();
+				rows.close();
+			}
+			long y_offset = HEADER + nnz * ENTRY;
+			long row_offset = y_offset + 8L * l;
+			RandomAccessFile raf = new RandomAccessFile(out, "rw");
+			try
+			{
+				FileChannel channel = raf.getChannel();
+				svm_store.append(channel, y_file, y_offset);
+				svm_store.append(channel, row_file, row_offset);
+				raf.seek(0);
+				raf.writeInt(MAGIC);
+				raf.writeInt(VERSION);
+				raf.writeInt(l);
+				raf.writeInt(max_index);
+				raf.writeInt(max_length);
+				raf.writeInt(0);
+				raf.writeLong(nnz);
+				raf.writeLong(y_offset);
+				raf.writeLong(row_offset);
+			}
+			finally
+			{
+				raf.close();
+			}
+			done = true;
+		}
+		finally
+		{
+			y_file.delete();
+			row_file.delete();
+			if (!done)
+				out.delete();
+		}
+		return svm_store.open(output);
+	}
+
+	/**
+	 * Open a store written by {@link #convert(String, String)}.
+	 *
+	 * @param file
+	 *            the store file
+	 * @return the opened store
+	 * @throws IOException
+	 *             if the file cannot be read or is not a store
+	 */
+	public static svm_store open(String file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			return new svm_store(raf);
+		}
+		finally
+		{
+			// the mapping stays valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	// copies a file at the specified offset of a channel
+	private static void append(FileChannel channel, File file, long offset)
+			throws IOException
+	{
+		FileInputStream in = new FileInputStream(file);
+		try
+		{
+			FileChannel src = in.getChannel();
+			long size = src.size();
+			long done = 0;
+			while (done < size)
+				done += channel.transferFrom(src, offset + done, size - done);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	// the store whose handles are all the rows of x, or null
+	static svm_store of(svm_node[][] x, int l)
+	{
+		svm_store store = null;
+		for (int i = 0; i < l; i++)
+		{
+			if (x[i].length != 1 || !(x[i][0] instanceof row_node))
+				return null;
+			svm_store s = ((row_node) x[i][0]).store;
+			if (s == null || store != null && s != store)
+				return null;
+			store = s;
+		}
+		return store;
+	}
+
+	/**
+	 * Returns the features of a row of a problem of a store, read into the
+	 * heap; the other rows are returned as they are.
+	 *
+	 * @param x
+	 *            the row
+	 * @return the features
+	 * @throws IllegalStateException
+	 *             if the row is a handle whose store is not available, e.g. a
+	 *             deserialized one
+	 */
+	public static svm_node[] resolve(svm_node[] x)
+	{
+		if (x.length != 1 || !(x[0] instanceof row_node))
+			return x;
+		row_node node = (row_node) x[0];
+		if (node.store == null)
+			throw new IllegalStateException("the store of row " + node.row
+					+ " is not available");
+		return node.store.row(node.row);
+	}
+
+	// the row number of a handle
+	static int row_of(svm_node[] x)
+	{
+		return ((row_node) x[0]).row;
+	}
+
+	private final MappedByteBuffer[]	chunks;
+	private final int					l;
+	private final int					max_index;
+	private final int					max_length;
+	private final long					nnz;
+	private final long					row_offset;
+	private final long					y_offset;
+
+	private svm_store(RandomAccessFile raf) throws IOException
+	{
+		if (raf.length() < HEADER || raf.readInt() != MAGIC)
+			throw new IOException("not a problem store");
+		if (raf.readInt() != VERSION)
+			throw new IOException("unsupported problem store version");
+		l = raf.readInt();
+		max_index = raf.readInt();
+		max_length = raf.readInt();
+		raf.readInt();
+		nnz = raf.readLong();
+		y_offset = raf.readLong();
+		row_offset = raf.readLong();
+		FileChannel channel = raf.getChannel();
+		long size = channel.size();
+		if (row_offset + 8L * (l + 1) > size)
+			throw new IOException("truncated problem store");
+		long overlap = Math.max((long) max_length * ENTRY, 8);
+		int n = (int) ((size + MASK) >>> SHIFT);
+		chunks = new MappedByteBuffer[n];
+		for (int c = 0; c < n; c++)
+		{
+			long base = (long) c << SHIFT;
+			long length = Math.min(MASK + 1 + overlap, size - base);
+			chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, base,
+					length);
+		}
+	}
+
+	// adds d times a stored row to the dense vector w, which covers
+	// max_index
+	void axpy(int i, double d, double[] w)
+	{
+		long p = start(i);
+		MappedByteBuffer buffer = chunks[(int) (p >>> SHIFT)];
+		int a = (int) (p & MASK);
+		int end = a + (int) (start(i + 1) - p);
+		for (; a < end; a += ENTRY)
+			w[buffer.getInt(a)] += d * buffer.getDouble(a + 4);
+	}
+
+	// clears the entries of dense at the features of a stored row
+	void clear(int i, double[] dense)
+	{
+		long p = start(i);
+		MappedByteBuffer buffer = chunks[(int) (p >>> SHIFT)];
+		int a = (int) (p & MASK);
+		int end = a + (int) (start(i + 1) - p);
+		for (; a < end; a += ENTRY)
+			dense[buffer.getInt(a)] = 0;
+	}
+
+	// the inner product of two stored rows
+	double dot(int i, int j)
+	{
+		long pi = start(i);
+		long pj = start(j);
+		MappedByteBuffer bi = chunks[(int) (pi >>> SHIFT)];
+		MappedByteBuffer bj = chunks[(int) (pj >>> SHIFT)];
+		int a = (int) (pi & MASK);
+		int b = (int) (pj & MASK);
+		int a_end = a + (int) (start(i + 1) - pi);
+		int b_end = b + (int) (start(j + 1) - pj);
+		double sum = 0;
+		if (a == a_end || b == b_end)
+			return sum;
+		int ia = bi.getInt(a);
+		int ib = bj.getInt(b);
+		while (true)
+			if (ia == ib)
+			{
+				sum += bi.getDouble(a + 4) * bj.getDouble(b + 4);
+				a += ENTRY;
+				b += ENTRY;
+				if (a == a_end || b == b_end)
+					return sum;
+				ia = bi.getInt(a);
+				ib = bj.getInt(b);
+			}
+			else if (ia > ib)
+			{
+				b += ENTRY;
+				if (b == b_end)
+					return sum;
+				ib = bj.getInt(b);
+			}
+			else
+			{
+				a += ENTRY;
+				if (a == a_end)
+					return sum;
+				ia = bi.getInt(a);
+			}
+	}
+
+	// the inner product of a stored row and a dense vector, a row scattered
+	// into dense or the weights of a linear model, which covers max_index
+	double gather(int i, double[] dense)
+	{
+		long p = start(i);
+		MappedByteBuffer buffer = chunks[(int) (p >>> SHIFT)];
+		int a = (int) (p & MASK);
+		int end = a + (int) (start(i + 1) - p);
+		double sum = 0;
+		for (; a < end; a += ENTRY)
+			sum += dense[buffer.getInt(a)] * buffer.getDouble(a + 4);
+		return sum;
+	}
+
+	/**
+	 * Returns the destination value of the specified sample.
+	 *
+	 * @param i
+	 *            the sample
+	 * @return the destination value
+	 */
+	public double label(int i)
+	{
+		long p = y_offset + 8L * i;
+		return chunks[(int) (p >>> SHIFT)].getDouble((int) (p & MASK));
+	}
+
+	/**
+	 * Returns the number of features of the longest sample.
+	 *
+	 * @return the number of features of the longest sample
+	 */
+	public int max_length()
+	{
+		return max_length;
+	}
+
+	/**
+	 * Returns the largest feature index.
+	 *
+	 * @return the largest feature index
+	 */
+	public int max_index()
+	{
+		return max_index;
+	}
+
+	/**
+	 * Returns the number of stored features of all the samples.
+	 *
+	 * @return the number of stored features
+	 */
+	public long nnz()
+	{
+		return nnz;
+	}
+
+	/**
+	 * Returns a problem whose rows are handles on the stored rows. The
+	 * destination values are read into the heap.
+	 *
+	 * @return the problem
+	 */
+	public svm_problem problem()
+	{
+		svm_problem prob = new svm_problem();
+		prob.l = l;
+		prob.y = new double[l];
+		prob.x = new svm_node[l][];
+		for (int i = 0; i < l; i++)
+		{
+			prob.y[i] = label(i);
+			prob.x[i] = new svm_node[] { new row_node(this, i) };
+		}
+		return prob;
+	}
+
+	/**
+	 * Returns the features of the specified sample, read into the heap.
+	 *
+	 * @param i
+	 *            the sample
+	 * @return the features
+	 */
+	public svm_node[] row(int i)
+	{
+		long p = start(i);
+		MappedByteBuffer buffer = chunks[(int) (p >>> SHIFT)];
+		int a = (int) (p & MASK);
+		svm_node[] x = new svm_node[(int) ((start(i + 1) - p) / ENTRY)];
+		for (int j = 0; j < x.length; j++, a += ENTRY)
+		{
+			x[j] = new svm_node();
+			x[j].index = buffer.getInt(a);
+			x[j].value = buffer.getDouble(a + 4);
+		}
+		return x;
+	}
+
+	/**
+	 * Returns the number of samples.
+	 *
+	 * @return the number of samples
+	 */
+	public int size()
+	{
+		return l;
+	}
+
+	// scatters a stored row into dense, which covers max_index
+	void scatter(int i, double[] dense)
+	{
+		long p = start(i);
+		MappedByteBuffer buffer = chunks[(int) (p >>> SHIFT)];
+		int a = (int) (p & MASK);
+		int end = a + (int) (start(i + 1) - p);
+		for (; a < end; a += ENTRY)
+			dense[buffer.getInt(a)] = buffer.getDouble(a + 4);
+	}
+
+	// the squared norm of a stored row
+	double square(int i)
+	{
+		long p = start(i);
+		MappedByteBuffer buffer = chunks[(int) (p >>> SHIFT)];
+		int a = (int) (p & MASK);
+		int end = a + (int) (start(i + 1) - p);
+		double sum = 0;
+		for (; a < end; a += ENTRY)
+		{
+			double v = buffer.getDouble(a + 4);
+			sum += v * v;
+		}
+		return sum;
+	}
+
+	// the file offset of a row
+	private long start(int i)
+	{
+		long p = row_offset + 8L * i;
+		return chunks[(int) (p >>> SHIFT)].getLong((int) (p & MASK));
+	}
+
+	// the value of the k-th stored feature of a row, for the precomputed
+	// kernels whose rows are dense
+	double value(int i, int k)
+	{
+		long p = start(i) + (long) k * ENTRY + 4;
+		return chunks[(int) (p >>> SHIFT)].getDouble((int) (p & MASK));
+	}
+}
@@ -0,0 +1,132 @@
+//
+// svm_train_control
+//
+package libsvm;
+
+/**
+ * The cancellation token, the budgets and the progress receiver of a
+ * training.
+ * <p>
+ * A control is attached to the training through
+ * {@link svm_parameter#control}. The solver checks it every few iterations;
+ * once it has been cancelled, its time limit has passed or an optimization
+ * problem has used up its iteration budget, the solver stops. According to the
+ * {@link #policy} the training then either goes on with the feasible but not
+ * optimal solution found so far, which is reported by
+ * {@link svm_train_metrics#converged}, or throws a
+ * {@link java.util.concurrent.CancellationException}.
+ * </p>
+ * <p>
+ * The control covers all the optimization problems solved by the training,
+ * e.g. the pairwise problems of a multi-class model or the folds of a cross
+ * validation: once it has fired, the remaining problems stop at their first
+ * check. A control is meant for one training and cannot be reset.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class svm_train_control
+{
+	/**
+	 * Throw a {@link java.util.concurrent.CancellationException} when the
+	 * training is stopped.
+	 */
+	public static final int		ABORT			= 1;
+	/**
+	 * Go on with the solution found so far when the training is stopped.
+	 */
+	public static final int		RETURN_PARTIAL	= 0;
+	private volatile boolean	cancelled;
+	// System.nanoTime() of the time limit
+	private volatile long		deadline;
+	private volatile boolean	has_deadline;
+	/**
+	 * The iteration budget of each optimization problem, 0 for the default of
+	 * the solver.
+	 */
+	public int					max_iter;
+	/**
+	 * The reaction to a stop, {@link #RETURN_PARTIAL} (default) or
+	 * {@link #ABORT}.
+	 */
+	public int					policy			= svm_train_control.RETURN_PARTIAL;
+	/**
+	 * The receiver of the progress of the solver, <code>null</code> for none.
+	 * It is called from the training thread every time the solver shows its
+	 * progress, i.e. every min(l, 1000) iterations or at each pass of the
+	 * adaptive shrinking.
+	 */
+	public svm_progress_interface	progress;
+	private volatile String		reason;
+
+	/**
+	 * Cancel the training. It may be called from any thread.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the training has been cancelled.
+	 *
+	 * @return <tt>true</tt> if the training has been cancelled
+	 */
+	public boolean is_cancelled()
+	{
+		return cancelled;
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the training has to stop now, i.e. it has been
+	 * cancelled or its time limit has passed, for the code running several
+	 * trainings under one control. It may be called from any thread.
+	 *
+	 * @return <tt>true</tt> if the training has to stop
+	 */
+	public boolean is_stopped()
+	{
+		return check() != null;
+	}
+
+	/**
+	 * Limit the training to the specified time from now on.
+	 *
+	 * @param millis
+	 *            the time limit in milliseconds
+	 */
+	public void set_time_limit(long millis)
+	{
+		deadline = System.nanoTime() + millis * 1000000L;
+		has_deadline = true;
+	}
+
+	/**
+	 * Returns the reason why the solver has been stopped.
+	 *
+	 * @return the reason, <code>null</code> if the solver has never been
+	 *         stopped
+	 */
+	public String stop_reason()
+	{
+		return reason;
+	}
+
+	// returns the reason if the solver has to stop now, null otherwise
+	String check()
+	{
+		if (cancelled)
+			return stop("cancelled");
+		if (has_deadline && System.nanoTime() - deadline >= 0)
+			return stop("time limit exceeded");
+		return null;
+	}
+
+	String stop(String reason)
+	{
+		if (this.reason == null)
+			this.reason = reason;
+		return reason;
+	}
+}
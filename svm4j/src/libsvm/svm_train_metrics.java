@@ -0,0 +1,184 @@
+//
+// svm_train_metrics
+//
+package libsvm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The statistics collected by the solver while training a support vector
+ * machine model.
+ * <p>
+ * One instance is attached to every model returned by
+ * {@link svm#svm_train(svm_problem, svm_parameter)}. The counters are summed
+ * over all the optimization problems solved for the model, e.g. the
+ * k&times;(k-1)/2 pairwise problems of a multi-class model.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class svm_train_metrics implements java.io.Serializable
+{
+	/**
+	 * One decision of the adaptive shrinking policy.
+	 */
+	public static class shrink_decision implements java.io.Serializable
+	{
+		/**
+		 * serialVersionUID.
+		 */
+		private static final long	serialVersionUID	= 4093124385637610214L;
+		/**
+		 * The active set size before the decision.
+		 */
+		public int					active_size;
+		/**
+		 * The iterations between two shrinking passes chosen by the decision,
+		 * 0 if shrinking has been turned off.
+		 */
+		public int					interval;
+		/**
+		 * The solver iteration of the decision.
+		 */
+		public int					iter;
+		/**
+		 * The reason of the decision.
+		 */
+		public String				reason;
+		/**
+		 * The amount of variables the shrinking pass removed from the active
+		 * set.
+		 */
+		public int					shrunk;
+
+		/**
+		 * @see java.lang.Object#toString()
+		 */
+		public String toString()
+		{
+			return String.format(
+					"iter %d: active %d, shrunk %d, interval %d (%s)", iter,
+					active_size, shrunk, interval, reason);
+		}
+	}
+
+	/**
+	 * The maximal amount of shrinking decisions kept.
+	 */
+	public static final int			MAX_DECISIONS		= 1024;
+	/**
+	 * serialVersionUID.
+	 */
+	private static final long		serialVersionUID	= -5721834566409325718L;
+	/**
+	 * The amount of kernel column requests served from the kernel cache.
+	 */
+	public long						cache_hits;
+	/**
+	 * The amount of kernel column requests which had to be computed.
+	 */
+	public long						cache_misses;
+	/**
+	 * The flag for whether all the optimization problems have been solved to
+	 * the stopping tolerance; <code>false</code> if the solver reached its
+	 * iteration limit or was stopped by a {@link svm_train_control}.
+	 */
+	public boolean					converged			= true;
+	/**
+	 * The amount of shrinking decisions which did not fit in
+	 * {@link #shrink_decisions}.
+	 */
+	public int						dropped_decisions;
+	/**
+	 * The total amount of solver iterations.
+	 */
+	public long						iter;
+	/**
+	 * The amount of optimization problems solved.
+	 */
+	public int						nr_solve;
+	/**
+	 * The amount of times shrinking had to be undone before the problem was
+	 * optimal, i.e. the shrunk variables still violated the optimality
+	 * conditions.
+	 */
+	public int						premature_unshrink;
+	/**
+	 * The amount of gradient reconstructions.
+	 */
+	public int						reconstruct;
+	/**
+	 * The amount of shrinking passes.
+	 */
+	public int						shrink;
+	/**
+	 * The decisions of the adaptive shrinking policy, at most
+	 * {@link #MAX_DECISIONS} of them.
+	 */
+	public List<shrink_decision>	shrink_decisions	= new ArrayList<shrink_decision>();
+	/**
+	 * The total amount of variables removed from the active set by the
+	 * shrinking passes.
+	 */
+	public long						shrunk;
+
+	synchronized void add_cache(long hits, long misses)
+	{
+		cache_hits += hits;
+		cache_misses += misses;
+	}
+
+	synchronized void add_decision(int iter, int active_size, int shrunk,
+			int interval, String reason)
+	{
+		if (shrink_decisions.size() >= svm_train_metrics.MAX_DECISIONS)
+		{
+			dropped_decisions++;
+			return;
+		}
+		shrink_decision d = new shrink_decision();
+		d.iter = iter;
+		d.active_size = active_size;
+		d.shrunk = shrunk;
+		d.interval = interval;
+		d.reason = reason;
+		shrink_decisions.add(d);
+	}
+
+	synchronized void add_premature_unshrink()
+	{
+		premature_unshrink++;
+	}
+
+	synchronized void add_reconstruct()
+	{
+		reconstruct++;
+	}
+
+	synchronized void add_shrink(int shrunk)
+	{
+		this.shrink++;
+		this.shrunk += shrunk;
+	}
+
+	synchronized void add_solve(int iter)
+	{
+		this.nr_solve++;
+		this.iter += iter;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public synchronized String toString()
+	{
+		return String.format(
+				"#solve = %d, #iter = %d, #shrink = %d, #shrunk = %d, "
+						+ "#reconstruct = %d, #premature unshrink = %d, "
+						+ "#cache hits = %d, #cache misses = %d%s", nr_solve,
+				iter, shrink, shrunk, reconstruct, premature_unshrink,
+				cache_hits, cache_misses, converged ? "" : ", not converged");
+	}
+}
@@ -0,0 +1,124 @@
+//
+// svm_workspace
+//
+package libsvm;
+
+/**
+ * The scratch space of the predictions.
+ * <p>
+ * The prediction functions of {@link svm} keep their kernel values, votes,
+ * decision values, the k&times;k matrices of the multi-class probability
+ * coupling and the sample scattered by feature index in a workspace instead
+ * of allocating them for every sample. The arrays grow to the largest model
+ * and sample seen and are then reused, so that a warm workspace predicts
+ * without allocating anything.
+ * </p>
+ * <p>
+ * The functions without a workspace argument use a workspace bound to the
+ * calling thread. A workspace must not be shared by threads predicting at the
+ * same time.
+ * </p>
+ * <p>
+ * The batch predictions also keep in the workspace the squared norms and the
+ * classes of the support vectors of the last model they predicted, computed
+ * when the model changes. The support vectors of a model must not be modified
+ * while a workspace predicts it in batches.
+ * </p>
+ *
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class svm_workspace
+{
+	private static final ThreadLocal<svm_workspace>	local			= new ThreadLocal<svm_workspace>();
+	// the samples of svm_predict_batch scattered row by row, zero outside of
+	// their features, their squared norms and their decision sums
+	double[]										batch_dense		= new double[0];
+	double[]										batch_square	= new double[0];
+	double[]										batch_sum		= new double[0];
+	// the model whose support vector data below is prepared for
+	// svm_predict_batch: the dimension of the dense rows, and the squared
+	// norms and classes of the support vectors
+	int												batch_dim;
+	svm_model										batch_model;
+	int[]											sv_class		= new int[0];
+	double[]										sv_square		= new double[0];
+	// classes whose kernel values are in kvalue, for the DAG prediction
+	boolean[]										computed		= new boolean[0];
+	double[]										dec_values		= new double[0];
+	// the sample scattered by feature index, zero elsewhere, and the length
+	// and squared norm of the scattered range; dense_length is -1 when the
+	// sample is not scattered
+	double[]										dense			= new double[0];
+	int												dense_length	= -1;
+	double											dense_square;
+	double[]										kvalue			= new double[0];
+	// pairwise probabilities r, k*k row-major
+	double[]										pairwise_prob	= new double[0];
+	// coupling matrix Q, k*k row-major, and Q*p
+	double[]										Q				= new double[0];
+	double[]										Qp				= new double[0];
+	int[]											start			= new int[0];
+	int[]											vote			= new int[0];
+
+	/**
+	 * Construct an empty instance of <tt>svm_workspace</tt>.
+	 */
+	public svm_workspace()
+	{
+	}
+
+	/**
+	 * Construct an instance of <tt>svm_workspace</tt> large enough for the
+	 * specified model.
+	 *
+	 * @param model
+	 *            the model
+	 */
+	public svm_workspace(svm_model model)
+	{
+		reserve(model);
+	}
+
+	/**
+	 * Grow the workspace so that predicting with the specified model does not
+	 * allocate.
+	 *
+	 * @param model
+	 *            the model
+	 */
+	public void reserve(svm_model model)
+	{
+		int k = model.nr_class;
+		int l = model.l;
+		if (kvalue.length < l)
+			kvalue = new double[l];
+		if (dec_values.length < Math.max(1, k * (k - 1) / 2))
+			dec_values = new double[Math.max(1, k * (k - 1) / 2)];
+		if (start.length < k)
+		{
+			computed = new boolean[k];
+			start = new int[k];
+			vote = new int[k];
+			Qp = new double[k];
+		}
+		if (Q.length < k * k)
+		{
+			Q = new double[k * k];
+			pairwise_prob = new double[k * k];
+		}
+	}
+
+	// the workspace of the calling thread, reserved for model
+	static svm_workspace current(svm_model model)
+	{
+		svm_workspace ws = svm_workspace.local.get();
+		if (ws == null)
+		{
+			ws = new svm_workspace();
+			svm_workspace.local.set(ws);
+		}
+		ws.reserve(model);
+		return ws;
+	}
+}